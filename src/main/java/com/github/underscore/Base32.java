@@ -23,81 +23,113 @@
  */
 package com.github.underscore;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 public final class Base32 {
     private static final Base32 INSTANCE = new Base32();
+    private static final int BYTES_PER_GROUP = 5;
+    private static final int CHARS_PER_GROUP = 8;
     private final char[] digits = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdef".toCharArray();
     private final int mask = digits.length - 1;
     private final int shift = Integer.numberOfTrailingZeros(digits.length);
-    private final Map<Character, Integer> charMap = new HashMap<>();
+    private final byte[] charMap = new byte[128];
 
     private Base32() {
+        Arrays.fill(charMap, (byte) -1);
         for (int index = 0; index < digits.length; index++) {
-            charMap.put(digits[index], index);
+            charMap[digits[index]] = (byte) index;
         }
     }
 
     public static String decode(final String encoded) {
-        return new String(INSTANCE.decodeInternal(encoded));
+        return new String(INSTANCE.decodeInternal(encoded), StandardCharsets.UTF_8);
+    }
+
+    public static void decode(
+            final CharBuffer input, final ByteBuffer output, final boolean endOfInput) {
+        INSTANCE.decodeInternal(input, output, endOfInput);
     }
 
     private byte[] decodeInternal(final String encoded) {
-        if (encoded.isEmpty()) {
-            return new byte[0];
+        final byte[] result = new byte[encoded.length() * shift / 8];
+        decodeInternal(CharBuffer.wrap(encoded), ByteBuffer.wrap(result), true);
+        return result;
+    }
+
+    private void decodeInternal(
+            final CharBuffer input, final ByteBuffer output, final boolean endOfInput) {
+        while (input.remaining() >= CHARS_PER_GROUP && output.remaining() >= BYTES_PER_GROUP) {
+            long buffer = 0;
+            for (int index = 0; index < CHARS_PER_GROUP; index++) {
+                buffer = buffer << shift | digit(input.get());
+            }
+            for (int bits = (BYTES_PER_GROUP - 1) * 8; bits >= 0; bits -= 8) {
+                output.put((byte) (buffer >> bits));
+            }
         }
-        int encodedLength = encoded.length();
-        int outLength = encodedLength * shift / 8;
-        byte[] result = new byte[outLength];
-        int buffer = 0;
-        int next = 0;
-        int bitsLeft = 0;
-        for (char c : encoded.toCharArray()) {
-            if (!charMap.containsKey(c)) {
-                throw new DecodingException("Illegal character: " + c);
+        final int count = input.remaining();
+        final int outputLength = count * shift / 8;
+        if (endOfInput && count < CHARS_PER_GROUP && output.remaining() >= outputLength) {
+            long buffer = 0;
+            for (int index = 0; index < count; index++) {
+                buffer = buffer << shift | digit(input.get());
             }
-            buffer <<= shift;
-            buffer |= charMap.get(c) & mask;
-            bitsLeft += shift;
-            if (bitsLeft >= 8) {
-                result[next++] = (byte) (buffer >> (bitsLeft - 8));
-                bitsLeft -= 8;
+            buffer >>= count * shift - outputLength * 8;
+            for (int bits = (outputLength - 1) * 8; bits >= 0; bits -= 8) {
+                output.put((byte) (buffer >> bits));
             }
         }
-        return result;
+    }
+
+    private int digit(final char c) {
+        final int value = c < charMap.length ? charMap[c] : -1;
+        if (value < 0) {
+            throw new DecodingException("Illegal character: " + c);
+        }
+        return value;
     }
 
     public static String encode(final String data) {
-        return INSTANCE.encodeInternal(data.getBytes());
+        return INSTANCE.encodeInternal(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void encode(
+            final ByteBuffer input, final CharBuffer output, final boolean endOfInput) {
+        INSTANCE.encodeInternal(input, output, endOfInput);
     }
 
     private String encodeInternal(final byte[] data) {
-        if (data.length == 0) {
-            return "";
+        final CharBuffer result = CharBuffer.allocate((data.length * 8 + shift - 1) / shift);
+        encodeInternal(ByteBuffer.wrap(data), result, true);
+        return new String(result.array());
+    }
+
+    private void encodeInternal(
+            final ByteBuffer input, final CharBuffer output, final boolean endOfInput) {
+        while (input.remaining() >= BYTES_PER_GROUP && output.remaining() >= CHARS_PER_GROUP) {
+            long buffer = 0;
+            for (int index = 0; index < BYTES_PER_GROUP; index++) {
+                buffer = buffer << 8 | (input.get() & 0xff);
+            }
+            for (int bits = (CHARS_PER_GROUP - 1) * shift; bits >= 0; bits -= shift) {
+                output.put(digits[(int) (buffer >> bits) & mask]);
+            }
         }
-        int outputLength = (data.length * 8 + shift - 1) / shift;
-        StringBuilder result = new StringBuilder(outputLength);
-        int buffer = data[0];
-        int next = 1;
-        int bitsLeft = 8;
-        while (bitsLeft > 0 || next < data.length) {
-            if (bitsLeft < shift) {
-                if (next < data.length) {
-                    buffer <<= 8;
-                    buffer |= (data[next++] & 0xff);
-                    bitsLeft += 8;
-                } else {
-                    int pad = shift - bitsLeft;
-                    buffer <<= pad;
-                    bitsLeft += pad;
-                }
+        final int count = input.remaining();
+        final int outputLength = (count * 8 + shift - 1) / shift;
+        if (endOfInput && count < BYTES_PER_GROUP && output.remaining() >= outputLength) {
+            long buffer = 0;
+            for (int index = 0; index < count; index++) {
+                buffer = buffer << 8 | (input.get() & 0xff);
+            }
+            buffer <<= outputLength * shift - count * 8;
+            for (int bits = (outputLength - 1) * shift; bits >= 0; bits -= shift) {
+                output.put(digits[(int) (buffer >> bits) & mask]);
             }
-            int index = mask & (buffer >> (bitsLeft - shift));
-            bitsLeft -= shift;
-            result.append(digits[index]);
         }
-        return result.toString();
     }
 
     public static class DecodingException extends RuntimeException {
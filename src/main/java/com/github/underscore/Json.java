@@ -23,12 +23,21 @@
  */
 package com.github.underscore;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 @SuppressWarnings({"java:S3740", "java:S3776"})
 public final class Json {
@@ -426,6 +435,167 @@ public final class Json {
         }
     }
 
+    public static class JsonWriter {
+        private final Writer writer;
+        private final JsonStringBuilder.Step identStep;
+        private final String lineSeparator;
+        private int[] counts = new int[16];
+        private int depth;
+        private boolean afterName;
+
+        public JsonWriter(Writer writer, JsonStringBuilder.Step identStep, String lineSeparator) {
+            this.writer = writer;
+            this.identStep = identStep;
+            this.lineSeparator = lineSeparator;
+        }
+
+        public JsonWriter(Writer writer, JsonStringBuilder.Step identStep) {
+            this(writer, identStep, "\n");
+        }
+
+        public JsonWriter(Writer writer) {
+            this(writer, JsonStringBuilder.Step.TWO_SPACES);
+        }
+
+        public JsonWriter beginObject() throws IOException {
+            return open('{');
+        }
+
+        public JsonWriter endObject() throws IOException {
+            return close('}');
+        }
+
+        public JsonWriter beginArray() throws IOException {
+            return open('[');
+        }
+
+        public JsonWriter endArray() throws IOException {
+            return close(']');
+        }
+
+        public JsonWriter name(String name) throws IOException {
+            if (depth == 0 || afterName) {
+                throw new IllegalStateException("Name is not expected here");
+            }
+            separate();
+            writer.write('"');
+            writer.write(JsonValue.escape(name));
+            writer.write("\":");
+            if (identStep != JsonStringBuilder.Step.COMPACT) {
+                writer.write(' ');
+            }
+            afterName = true;
+            return this;
+        }
+
+        public JsonWriter value(Object value) throws IOException {
+            if (value instanceof Map) {
+                beginObject();
+                for (Map.Entry entry : ((Map<?, ?>) value).entrySet()) {
+                    name(String.valueOf(entry.getKey()));
+                    value(entry.getValue());
+                }
+                return endObject();
+            }
+            if (value instanceof Collection) {
+                beginArray();
+                for (Object item : (Collection<?>) value) {
+                    value(item);
+                }
+                return endArray();
+            }
+            beforeValue();
+            if (value != null && value.getClass().isArray()) {
+                writeArray(value);
+            } else {
+                final JsonStringBuilder builder = new JsonStringBuilder(identStep);
+                JsonValue.writeJson(value, builder);
+                writer.write(builder.toString());
+            }
+            return this;
+        }
+
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        private void writeArray(Object array) throws IOException {
+            final int length = Array.getLength(array);
+            if (length == 0) {
+                writer.write("[]");
+                return;
+            }
+            push();
+            for (int index = 0; index < length; index++) {
+                final Object item = Array.get(array, index);
+                if (array instanceof Object[]) {
+                    value(item);
+                } else {
+                    separate();
+                    writer.write(
+                            array instanceof char[] ? "\"" + item + "\"" : String.valueOf(item));
+                }
+            }
+            close(']');
+        }
+
+        private JsonWriter open(char bracket) throws IOException {
+            beforeValue();
+            writer.write(bracket);
+            push();
+            return this;
+        }
+
+        private JsonWriter close(char bracket) throws IOException {
+            if (depth == 0 || afterName) {
+                throw new IllegalStateException("Nothing to close");
+            }
+            depth -= 1;
+            newLine();
+            fillSpaces();
+            writer.write(bracket);
+            return this;
+        }
+
+        private void push() {
+            if (depth == counts.length) {
+                counts = Arrays.copyOf(counts, depth * 2);
+            }
+            counts[depth] = 0;
+            depth += 1;
+        }
+
+        private void beforeValue() throws IOException {
+            if (afterName) {
+                afterName = false;
+            } else if (depth > 0) {
+                separate();
+            }
+        }
+
+        private void separate() throws IOException {
+            if (counts[depth - 1] > 0) {
+                writer.write(',');
+            }
+            counts[depth - 1] += 1;
+            newLine();
+            fillSpaces();
+        }
+
+        private void newLine() throws IOException {
+            if (identStep != JsonStringBuilder.Step.COMPACT) {
+                writer.write(lineSeparator);
+            }
+        }
+
+        private void fillSpaces() throws IOException {
+            final char space = identStep == JsonStringBuilder.Step.TABS ? '\t' : ' ';
+            for (int index = depth * identStep.getIndent(); index > 0; index--) {
+                writer.write(space);
+            }
+        }
+    }
+
     public static class ParseException extends RuntimeException {
         private final int offset;
         private final int line;
@@ -676,24 +846,7 @@ public final class Json {
             }
             readFraction();
             readExponent();
-            final String number = endCapture();
-            final Number result;
-            if (number.contains(".") || number.contains("e") || number.contains("E")) {
-                if (number.length() > 9
-                        || (number.contains(".") && number.length() - number.lastIndexOf('.') > 2)
-                                && number.charAt(number.length() - 1) == '0') {
-                    result = new java.math.BigDecimal(number);
-                } else {
-                    result = Double.valueOf(number);
-                }
-            } else {
-                if (number.length() > 19) {
-                    result = new java.math.BigInteger(number);
-                } else {
-                    result = Long.valueOf(number);
-                }
-            }
-            return result;
+            return createNumber(endCapture());
         }
 
         private void readFraction() {
@@ -813,6 +966,1072 @@ public final class Json {
         }
     }
 
+    public static class JsonReader {
+        public enum Token {
+            BEGIN_OBJECT,
+            END_OBJECT,
+            BEGIN_ARRAY,
+            END_ARRAY,
+            NAME,
+            VALUE,
+            END_DOCUMENT
+        }
+
+        private final Reader reader;
+        private final int maxDepth;
+        private final char[] buffer = new char[8192];
+        private final StringBuilder captureBuffer = new StringBuilder();
+        private int bufferLength;
+        private int bufferIndex;
+        private int index;
+        private int line;
+        private int lineOffset;
+        private int current;
+        private boolean[] objects = new boolean[16];
+        private int depth;
+        private boolean started;
+        private boolean first;
+        private boolean afterName;
+        private Token peeked;
+        private String name;
+        private Object value;
+
+        public JsonReader(Reader reader, int maxDepth) {
+            this.reader = reader;
+            this.maxDepth = maxDepth;
+            line = 1;
+        }
+
+        public JsonReader(Reader reader) {
+            this(reader, PARSE_MAX_DEPTH);
+        }
+
+        public Token peek() throws IOException {
+            if (peeked == null) {
+                peeked = advance();
+            }
+            return peeked;
+        }
+
+        public Token next() throws IOException {
+            final Token token = peek();
+            peeked = null;
+            return token;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public Object readValue() throws IOException {
+            final Token token = next();
+            switch (token) {
+                case BEGIN_OBJECT:
+                    final Map<String, Object> object = new LinkedHashMap<>();
+                    while (next() == Token.NAME) {
+                        final String key = name;
+                        object.put(key, readValue());
+                    }
+                    return object;
+                case BEGIN_ARRAY:
+                    final List<Object> array = new ArrayList<>();
+                    while (peek() != Token.END_ARRAY) {
+                        array.add(readValue());
+                    }
+                    next();
+                    return array;
+                case VALUE:
+                    return value;
+                default:
+                    throw error("Unexpected " + token);
+            }
+        }
+
+        public void skipValue() throws IOException {
+            int level = 0;
+            Token token;
+            do {
+                token = next();
+                if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY) {
+                    level += 1;
+                } else if (token == Token.END_OBJECT || token == Token.END_ARRAY) {
+                    level -= 1;
+                }
+            } while (level > 0 || token == Token.NAME);
+        }
+
+        private Token advance() throws IOException {
+            if (!started) {
+                started = true;
+                read();
+                skipWhiteSpace();
+                return readValueToken();
+            }
+            skipWhiteSpace();
+            if (depth == 0) {
+                if (!isEndOfText()) {
+                    throw error("Unexpected character");
+                }
+                return Token.END_DOCUMENT;
+            }
+            if (afterName) {
+                afterName = false;
+                return readValueToken();
+            }
+            final boolean object = objects[depth - 1];
+            if (first) {
+                first = false;
+                if (readChar(object ? '}' : ']')) {
+                    return close(object);
+                }
+            } else if (readChar(',')) {
+                skipWhiteSpace();
+            } else if (readChar(object ? '}' : ']')) {
+                return close(object);
+            } else {
+                throw expected(object ? "',' or '}'" : "',' or ']'");
+            }
+            if (!object) {
+                return readValueToken();
+            }
+            if (current != '"') {
+                throw expected("name");
+            }
+            name = readString();
+            skipWhiteSpace();
+            if (!readChar(':')) {
+                throw expected("':'");
+            }
+            afterName = true;
+            return Token.NAME;
+        }
+
+        private Token readValueToken() throws IOException {
+            if (depth > maxDepth) {
+                throw error("Maximum depth exceeded");
+            }
+            switch (current) {
+                case 'n':
+                    read();
+                    readRequiredChar('u');
+                    readRequiredChar('l');
+                    readRequiredChar('l');
+                    value = null;
+                    return Token.VALUE;
+                case 't':
+                    read();
+                    readRequiredChar('r');
+                    readRequiredChar('u');
+                    readRequiredChar('e');
+                    value = Boolean.TRUE;
+                    return Token.VALUE;
+                case 'f':
+                    read();
+                    readRequiredChar('a');
+                    readRequiredChar('l');
+                    readRequiredChar('s');
+                    readRequiredChar('e');
+                    value = Boolean.FALSE;
+                    return Token.VALUE;
+                case '"':
+                    value = readString();
+                    return Token.VALUE;
+                case '[':
+                    read();
+                    return open(false);
+                case '{':
+                    read();
+                    return open(true);
+                case '-':
+                case '0':
+                case '1':
+                case '2':
+                case '3':
+                case '4':
+                case '5':
+                case '6':
+                case '7':
+                case '8':
+                case '9':
+                    value = readNumber();
+                    return Token.VALUE;
+                default:
+                    throw expected("value");
+            }
+        }
+
+        private Token open(boolean object) {
+            if (depth == objects.length) {
+                objects = Arrays.copyOf(objects, depth * 2);
+            }
+            objects[depth] = object;
+            depth += 1;
+            first = true;
+            return object ? Token.BEGIN_OBJECT : Token.BEGIN_ARRAY;
+        }
+
+        private Token close(boolean object) {
+            depth -= 1;
+            return object ? Token.END_OBJECT : Token.END_ARRAY;
+        }
+
+        private void readRequiredChar(char ch) throws IOException {
+            if (!readChar(ch)) {
+                throw expected("'" + ch + "'");
+            }
+        }
+
+        private String readString() throws IOException {
+            read();
+            captureBuffer.setLength(0);
+            while (current != '"') {
+                if (current == '\\') {
+                    readEscape();
+                } else if (current < 0x20) {
+                    throw expected("valid string character");
+                } else {
+                    captureBuffer.append((char) current);
+                    read();
+                }
+            }
+            read();
+            return captureBuffer.toString();
+        }
+
+        private void readEscape() throws IOException {
+            read();
+            switch (current) {
+                case '"':
+                case '/':
+                case '\\':
+                    captureBuffer.append((char) current);
+                    break;
+                case 'b':
+                    captureBuffer.append('\b');
+                    break;
+                case 'f':
+                    captureBuffer.append('\f');
+                    break;
+                case 'n':
+                    captureBuffer.append('\n');
+                    break;
+                case 'r':
+                    captureBuffer.append('\r');
+                    break;
+                case 't':
+                    captureBuffer.append('\t');
+                    break;
+                case 'u':
+                    char[] hexChars = new char[4];
+                    boolean isHexCharsDigits = true;
+                    for (int i = 0; i < 4; i++) {
+                        read();
+                        if (!isHexDigit()) {
+                            isHexCharsDigits = false;
+                        }
+                        hexChars[i] = (char) current;
+                    }
+                    if (isHexCharsDigits) {
+                        captureBuffer.append((char) Integer.parseInt(new String(hexChars), 16));
+                    } else {
+                        captureBuffer.append("\\u").append(hexChars);
+                    }
+                    break;
+                default:
+                    throw expected("valid escape sequence");
+            }
+            read();
+        }
+
+        private Number readNumber() throws IOException {
+            captureBuffer.setLength(0);
+            readCapturedChar('-');
+            int firstDigit = current;
+            if (!readCapturedDigit()) {
+                throw expected(DIGIT);
+            }
+            if (firstDigit != '0') {
+                while (readCapturedDigit()) {
+                    // ignored
+                }
+            }
+            if (readCapturedChar('.')) {
+                readDigits();
+            }
+            if (readCapturedChar('e') || readCapturedChar('E')) {
+                if (!readCapturedChar('+')) {
+                    readCapturedChar('-');
+                }
+                readDigits();
+            }
+            return createNumber(captureBuffer.toString());
+        }
+
+        private void readDigits() throws IOException {
+            if (!readCapturedDigit()) {
+                throw expected(DIGIT);
+            }
+            while (readCapturedDigit()) {
+                // ignored
+            }
+        }
+
+        private boolean readCapturedChar(char ch) throws IOException {
+            if (current != ch) {
+                return false;
+            }
+            captureBuffer.append(ch);
+            read();
+            return true;
+        }
+
+        private boolean readCapturedDigit() throws IOException {
+            if (!isDigit()) {
+                return false;
+            }
+            captureBuffer.append((char) current);
+            read();
+            return true;
+        }
+
+        private boolean readChar(char ch) throws IOException {
+            if (current != ch) {
+                return false;
+            }
+            read();
+            return true;
+        }
+
+        private void skipWhiteSpace() throws IOException {
+            while (isWhiteSpace()) {
+                read();
+            }
+        }
+
+        private void read() throws IOException {
+            if (bufferIndex == bufferLength) {
+                bufferLength = reader.read(buffer, 0, buffer.length);
+                bufferIndex = 0;
+                if (bufferLength <= 0) {
+                    bufferLength = 0;
+                    current = -1;
+                    return;
+                }
+            }
+            if (current == '\n') {
+                line++;
+                lineOffset = index;
+            }
+            current = buffer[bufferIndex++];
+            index++;
+        }
+
+        private ParseException expected(String expected) {
+            if (isEndOfText()) {
+                return error("Unexpected end of input");
+            }
+            return error("Expected " + expected);
+        }
+
+        private ParseException error(String message) {
+            int column = index - lineOffset;
+            int offset = isEndOfText() ? index : index - 1;
+            return new ParseException(message, offset, line, column - 1);
+        }
+
+        private boolean isWhiteSpace() {
+            return current == ' ' || current == '\t' || current == '\n' || current == '\r';
+        }
+
+        private boolean isDigit() {
+            return current >= '0' && current <= '9';
+        }
+
+        private boolean isHexDigit() {
+            return isDigit()
+                    || current >= 'a' && current <= 'f'
+                    || current >= 'A' && current <= 'F';
+        }
+
+        private boolean isEndOfText() {
+            return current == -1;
+        }
+    }
+
+    public static final class JsonPath {
+        private static final int NAME = 0;
+        private static final int WILDCARD = 1;
+        private static final int INDEX = 2;
+        private static final int SLICE = 3;
+        private static final int FILTER = 4;
+        private static final int OR = 0;
+        private static final int AND = 1;
+        private static final int NOT = 2;
+        private static final int COMPARE = 3;
+        private static final int EXISTS = 4;
+        private static final int LITERAL = 5;
+        private static final int QUERY = 6;
+        private static final String[] OPERATORS = {"==", "!=", "<=", ">=", "<", ">"};
+        private static final Object NOTHING = new Object();
+        private final List<JsonPathSegment> segments;
+
+        private JsonPath(final List<JsonPathSegment> segments) {
+            this.segments = segments;
+        }
+
+        private static final class JsonPathSegment {
+            private final boolean descendant;
+            private final List<JsonPathSelector> selectors = new ArrayList<>();
+
+            private JsonPathSegment(final boolean descendant) {
+                this.descendant = descendant;
+            }
+        }
+
+        private static final class JsonPathSelector {
+            private final int kind;
+            private String name;
+            private int index;
+            private Integer start;
+            private Integer end;
+            private int step = 1;
+            private JsonPathExpression filter;
+
+            private JsonPathSelector(final int kind) {
+                this.kind = kind;
+            }
+        }
+
+        private static final class JsonPathExpression {
+            private final int kind;
+            private JsonPathExpression left;
+            private JsonPathExpression right;
+            private String operator;
+            private Object literal;
+            private boolean relative;
+            private JsonPath query;
+
+            private JsonPathExpression(final int kind) {
+                this.kind = kind;
+            }
+        }
+
+        private static final class JsonPathMatch implements Consumer<Object> {
+            private int count;
+            private Object value;
+
+            @Override
+            public void accept(final Object node) {
+                if (count == 0) {
+                    value = node;
+                }
+                count += 1;
+            }
+        }
+
+        public static JsonPath compile(final String expression) {
+            final int[] pos = {0};
+            if (expression == null) {
+                throw new IllegalArgumentException("JSONPath expression is null");
+            }
+            skipSpaces(expression, pos);
+            if (!expression.startsWith("$", pos[0])) {
+                throw error(expression, pos[0]);
+            }
+            pos[0] += 1;
+            final JsonPath jsonPath = parsePath(expression, pos);
+            skipSpaces(expression, pos);
+            if (pos[0] != expression.length()) {
+                throw error(expression, pos[0]);
+            }
+            return jsonPath;
+        }
+
+        public List<Object> evaluate(final Object tree) {
+            final List<Object> result = new ArrayList<>();
+            evaluate(tree, result::add);
+            return result;
+        }
+
+        public void evaluate(final Object tree, final Consumer<Object> consumer) {
+            apply(0, tree, tree, consumer);
+        }
+
+        private static JsonPath parsePath(final String expression, final int[] pos) {
+            final List<JsonPathSegment> segments = new ArrayList<>();
+            while (true) {
+                final int start = pos[0];
+                skipSpaces(expression, pos);
+                final JsonPathSegment segment;
+                if (expression.startsWith("..", pos[0])) {
+                    pos[0] += 2;
+                    segment = new JsonPathSegment(true);
+                    if (expression.startsWith("[", pos[0])) {
+                        parseBracket(expression, pos, segment);
+                    } else {
+                        parseDotSelector(expression, pos, segment);
+                    }
+                } else if (expression.startsWith(".", pos[0])) {
+                    pos[0] += 1;
+                    segment = new JsonPathSegment(false);
+                    parseDotSelector(expression, pos, segment);
+                } else if (expression.startsWith("[", pos[0])) {
+                    segment = new JsonPathSegment(false);
+                    parseBracket(expression, pos, segment);
+                } else {
+                    pos[0] = start;
+                    return new JsonPath(segments);
+                }
+                segments.add(segment);
+            }
+        }
+
+        private static void parseDotSelector(
+                final String expression, final int[] pos, final JsonPathSegment segment) {
+            if (expression.startsWith("*", pos[0])) {
+                pos[0] += 1;
+                segment.selectors.add(new JsonPathSelector(WILDCARD));
+                return;
+            }
+            final int start = pos[0];
+            while (pos[0] < expression.length() && isNameChar(expression.charAt(pos[0]))) {
+                pos[0] += 1;
+            }
+            if (start == pos[0]) {
+                throw error(expression, start);
+            }
+            final JsonPathSelector selector = new JsonPathSelector(NAME);
+            selector.name = expression.substring(start, pos[0]);
+            segment.selectors.add(selector);
+        }
+
+        private static boolean isNameChar(final char ch) {
+            return Character.isLetterOrDigit(ch) || ch == '_' || ch == '-' || ch >= '\u0080';
+        }
+
+        private static void parseBracket(
+                final String expression, final int[] pos, final JsonPathSegment segment) {
+            pos[0] += 1;
+            while (true) {
+                skipSpaces(expression, pos);
+                segment.selectors.add(parseSelector(expression, pos));
+                skipSpaces(expression, pos);
+                if (expression.startsWith("]", pos[0])) {
+                    pos[0] += 1;
+                    return;
+                }
+                if (!expression.startsWith(",", pos[0])) {
+                    throw error(expression, pos[0]);
+                }
+                pos[0] += 1;
+            }
+        }
+
+        private static JsonPathSelector parseSelector(final String expression, final int[] pos) {
+            if (pos[0] >= expression.length()) {
+                throw error(expression, pos[0]);
+            }
+            final char ch = expression.charAt(pos[0]);
+            if (ch == '\'' || ch == '"') {
+                final JsonPathSelector selector = new JsonPathSelector(NAME);
+                selector.name = parseString(expression, pos);
+                return selector;
+            }
+            if (ch == '*') {
+                pos[0] += 1;
+                return new JsonPathSelector(WILDCARD);
+            }
+            if (ch == '?') {
+                pos[0] += 1;
+                final JsonPathSelector selector = new JsonPathSelector(FILTER);
+                selector.filter = parseOr(expression, pos);
+                return selector;
+            }
+            final Integer start = parseInteger(expression, pos);
+            skipSpaces(expression, pos);
+            if (!expression.startsWith(":", pos[0])) {
+                if (start == null) {
+                    throw error(expression, pos[0]);
+                }
+                final JsonPathSelector selector = new JsonPathSelector(INDEX);
+                selector.index = start;
+                return selector;
+            }
+            pos[0] += 1;
+            final JsonPathSelector selector = new JsonPathSelector(SLICE);
+            selector.start = start;
+            skipSpaces(expression, pos);
+            selector.end = parseInteger(expression, pos);
+            skipSpaces(expression, pos);
+            if (expression.startsWith(":", pos[0])) {
+                pos[0] += 1;
+                skipSpaces(expression, pos);
+                final Integer step = parseInteger(expression, pos);
+                if (step != null) {
+                    selector.step = step;
+                }
+            }
+            return selector;
+        }
+
+        private static Integer parseInteger(final String expression, final int[] pos) {
+            final int start = pos[0];
+            if (expression.startsWith("-", pos[0])) {
+                pos[0] += 1;
+            }
+            while (pos[0] < expression.length()
+                    && expression.charAt(pos[0]) >= '0'
+                    && expression.charAt(pos[0]) <= '9') {
+                pos[0] += 1;
+            }
+            if (pos[0] == start) {
+                return null;
+            }
+            try {
+                return Integer.valueOf(expression.substring(start, pos[0]));
+            } catch (NumberFormatException ex) {
+                throw error(expression, start);
+            }
+        }
+
+        private static String parseString(final String expression, final int[] pos) {
+            final char quote = expression.charAt(pos[0]);
+            final StringBuilder builder = new StringBuilder();
+            for (int index = pos[0] + 1; index < expression.length(); index += 1) {
+                char ch = expression.charAt(index);
+                if (ch == quote) {
+                    pos[0] = index + 1;
+                    return builder.toString();
+                }
+                if (ch == '\\' && index + 1 < expression.length()) {
+                    index += 1;
+                    ch = expression.charAt(index);
+                    switch (ch) {
+                        case 'b':
+                            ch = '\b';
+                            break;
+                        case 'f':
+                            ch = '\f';
+                            break;
+                        case 'n':
+                            ch = '\n';
+                            break;
+                        case 'r':
+                            ch = '\r';
+                            break;
+                        case 't':
+                            ch = '\t';
+                            break;
+                        case 'u':
+                            if (index + 4 >= expression.length()) {
+                                throw error(expression, index);
+                            }
+                            try {
+                                ch =
+                                        (char)
+                                                Integer.parseInt(
+                                                        expression.substring(index + 1, index + 5),
+                                                        16);
+                            } catch (NumberFormatException ex) {
+                                throw error(expression, index);
+                            }
+                            index += 4;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                builder.append(ch);
+            }
+            throw error(expression, pos[0]);
+        }
+
+        private static JsonPathExpression parseOr(final String expression, final int[] pos) {
+            JsonPathExpression result = parseAnd(expression, pos);
+            while (startsWithOperator(expression, pos, "||")) {
+                final JsonPathExpression or = new JsonPathExpression(OR);
+                or.left = result;
+                or.right = parseAnd(expression, pos);
+                result = or;
+            }
+            return result;
+        }
+
+        private static JsonPathExpression parseAnd(final String expression, final int[] pos) {
+            JsonPathExpression result = parseUnary(expression, pos);
+            while (startsWithOperator(expression, pos, "&&")) {
+                final JsonPathExpression and = new JsonPathExpression(AND);
+                and.left = result;
+                and.right = parseUnary(expression, pos);
+                result = and;
+            }
+            return result;
+        }
+
+        private static boolean startsWithOperator(
+                final String expression, final int[] pos, final String operator) {
+            skipSpaces(expression, pos);
+            if (expression.startsWith(operator, pos[0])) {
+                pos[0] += operator.length();
+                return true;
+            }
+            return false;
+        }
+
+        private static JsonPathExpression parseUnary(final String expression, final int[] pos) {
+            skipSpaces(expression, pos);
+            if (expression.startsWith("!", pos[0]) && !expression.startsWith("!=", pos[0])) {
+                pos[0] += 1;
+                final JsonPathExpression not = new JsonPathExpression(NOT);
+                not.left = parseUnary(expression, pos);
+                return not;
+            }
+            if (expression.startsWith("(", pos[0])) {
+                pos[0] += 1;
+                final JsonPathExpression result = parseOr(expression, pos);
+                if (!startsWithOperator(expression, pos, ")")) {
+                    throw error(expression, pos[0]);
+                }
+                return result;
+            }
+            final int start = pos[0];
+            final JsonPathExpression left = parseOperand(expression, pos);
+            skipSpaces(expression, pos);
+            for (String operator : OPERATORS) {
+                if (expression.startsWith(operator, pos[0])) {
+                    pos[0] += operator.length();
+                    skipSpaces(expression, pos);
+                    final JsonPathExpression compare = new JsonPathExpression(COMPARE);
+                    compare.operator = operator;
+                    compare.left = left;
+                    compare.right = parseOperand(expression, pos);
+                    return compare;
+                }
+            }
+            if (left.kind != QUERY) {
+                throw error(expression, start);
+            }
+            final JsonPathExpression exists = new JsonPathExpression(EXISTS);
+            exists.left = left;
+            return exists;
+        }
+
+        private static JsonPathExpression parseOperand(final String expression, final int[] pos) {
+            if (pos[0] >= expression.length()) {
+                throw error(expression, pos[0]);
+            }
+            final char ch = expression.charAt(pos[0]);
+            if (ch == '@' || ch == '$') {
+                pos[0] += 1;
+                final JsonPathExpression query = new JsonPathExpression(QUERY);
+                query.relative = ch == '@';
+                query.query = parsePath(expression, pos);
+                return query;
+            }
+            final JsonPathExpression literal = new JsonPathExpression(LITERAL);
+            if (ch == '\'' || ch == '"') {
+                literal.literal = parseString(expression, pos);
+                return literal;
+            }
+            for (String word : new String[] {"true", "false", "null"}) {
+                if (expression.startsWith(word, pos[0])) {
+                    pos[0] += word.length();
+                    literal.literal = "null".equals(word) ? null : Boolean.valueOf(word);
+                    return literal;
+                }
+            }
+            final int start = pos[0];
+            while (pos[0] < expression.length()
+                    && "+-.0123456789eE".indexOf(expression.charAt(pos[0])) != -1) {
+                pos[0] += 1;
+            }
+            try {
+                literal.literal = new java.math.BigDecimal(expression.substring(start, pos[0]));
+            } catch (NumberFormatException ex) {
+                throw error(expression, start);
+            }
+            return literal;
+        }
+
+        private static void skipSpaces(final String expression, final int[] pos) {
+            while (pos[0] < expression.length()
+                    && " \t\r\n".indexOf(expression.charAt(pos[0])) != -1) {
+                pos[0] += 1;
+            }
+        }
+
+        private static IllegalArgumentException error(final String expression, final int position) {
+            return new IllegalArgumentException(
+                    "Invalid JSONPath expression \"" + expression + "\" at position " + position);
+        }
+
+        private void apply(
+                final int index,
+                final Object node,
+                final Object root,
+                final Consumer<Object> consumer) {
+            if (index == segments.size()) {
+                consumer.accept(node);
+                return;
+            }
+            final JsonPathSegment segment = segments.get(index);
+            if (segment.descendant) {
+                descend(index, segment, node, root, consumer);
+            } else {
+                select(index, segment, node, root, consumer);
+            }
+        }
+
+        private void descend(
+                final int index,
+                final JsonPathSegment segment,
+                final Object node,
+                final Object root,
+                final Consumer<Object> consumer) {
+            select(index, segment, node, root, consumer);
+            if (node instanceof Map) {
+                for (Object child : ((Map<?, ?>) node).values()) {
+                    descend(index, segment, child, root, consumer);
+                }
+            } else if (node instanceof List) {
+                for (Object child : (List<?>) node) {
+                    descend(index, segment, child, root, consumer);
+                }
+            }
+        }
+
+        private void select(
+                final int index,
+                final JsonPathSegment segment,
+                final Object node,
+                final Object root,
+                final Consumer<Object> consumer) {
+            for (JsonPathSelector selector : segment.selectors) {
+                switch (selector.kind) {
+                    case NAME:
+                        if (node instanceof Map && ((Map<?, ?>) node).containsKey(selector.name)) {
+                            apply(index + 1, ((Map<?, ?>) node).get(selector.name), root, consumer);
+                        }
+                        break;
+                    case INDEX:
+                        if (node instanceof List) {
+                            final List<?> list = (List<?>) node;
+                            final int position =
+                                    selector.index < 0
+                                            ? list.size() + selector.index
+                                            : selector.index;
+                            if (position >= 0 && position < list.size()) {
+                                apply(index + 1, list.get(position), root, consumer);
+                            }
+                        }
+                        break;
+                    case SLICE:
+                        if (node instanceof List) {
+                            slice(index, selector, (List<?>) node, root, consumer);
+                        }
+                        break;
+                    default:
+                        children(index, selector, node, root, consumer);
+                        break;
+                }
+            }
+        }
+
+        private void children(
+                final int index,
+                final JsonPathSelector selector,
+                final Object node,
+                final Object root,
+                final Consumer<Object> consumer) {
+            final Collection<?> children;
+            if (node instanceof Map) {
+                children = ((Map<?, ?>) node).values();
+            } else if (node instanceof List) {
+                children = (List<?>) node;
+            } else {
+                return;
+            }
+            for (Object child : children) {
+                if (selector.kind == WILDCARD || test(selector.filter, child, root)) {
+                    apply(index + 1, child, root, consumer);
+                }
+            }
+        }
+
+        private void slice(
+                final int index,
+                final JsonPathSelector selector,
+                final List<?> list,
+                final Object root,
+                final Consumer<Object> consumer) {
+            final int length = list.size();
+            final int step = selector.step;
+            if (step == 0) {
+                return;
+            }
+            if (step > 0) {
+                final long lower = bound(selector.start, 0, length, 0, length);
+                final long upper = bound(selector.end, length, length, 0, length);
+                for (long position = lower; position < upper; position += step) {
+                    apply(index + 1, list.get((int) position), root, consumer);
+                }
+            } else {
+                final long upper = bound(selector.start, length - 1L, length, -1, length - 1L);
+                final long lower = bound(selector.end, -length - 1L, length, -1, length - 1L);
+                for (long position = upper; lower < position; position += step) {
+                    apply(index + 1, list.get((int) position), root, consumer);
+                }
+            }
+        }
+
+        private static long bound(
+                final Integer value,
+                final long defaultValue,
+                final int length,
+                final long min,
+                final long max) {
+            long result = value == null ? defaultValue : value;
+            if (value != null && result < 0) {
+                result += length;
+            }
+            return Math.min(Math.max(result, min), max);
+        }
+
+        private boolean test(
+                final JsonPathExpression expression, final Object current, final Object root) {
+            switch (expression.kind) {
+                case OR:
+                    return test(expression.left, current, root)
+                            || test(expression.right, current, root);
+                case AND:
+                    return test(expression.left, current, root)
+                            && test(expression.right, current, root);
+                case NOT:
+                    return !test(expression.left, current, root);
+                case EXISTS:
+                    return match(expression.left, current, root).count > 0;
+                default:
+                    return compare(
+                            expression.operator,
+                            value(expression.left, current, root),
+                            value(expression.right, current, root));
+            }
+        }
+
+        private static JsonPathMatch match(
+                final JsonPathExpression expression, final Object current, final Object root) {
+            final JsonPathMatch match = new JsonPathMatch();
+            expression.query.apply(0, expression.relative ? current : root, root, match);
+            return match;
+        }
+
+        private static Object value(
+                final JsonPathExpression expression, final Object current, final Object root) {
+            if (expression.kind == LITERAL) {
+                return expression.literal;
+            }
+            final JsonPathMatch match = match(expression, current, root);
+            return match.count == 1 ? match.value : NOTHING;
+        }
+
+        private static boolean compare(
+                final String operator, final Object left, final Object right) {
+            switch (operator) {
+                case "==":
+                    return isEqual(left, right);
+                case "!=":
+                    return !isEqual(left, right);
+                case "<":
+                    return isLess(left, right);
+                case ">":
+                    return isLess(right, left);
+                case "<=":
+                    return isLess(left, right) || isEqual(left, right);
+                default:
+                    return isLess(right, left) || isEqual(left, right);
+            }
+        }
+
+        private static boolean isEqual(final Object left, final Object right) {
+            if (left == NOTHING || right == NOTHING) {
+                return left == right;
+            }
+            if (left instanceof Number && right instanceof Number) {
+                return compareNumbers((Number) left, (Number) right) == 0;
+            }
+            return left == null ? right == null : left.equals(right);
+        }
+
+        private static boolean isLess(final Object left, final Object right) {
+            if (left instanceof Number && right instanceof Number) {
+                return compareNumbers((Number) left, (Number) right) < 0;
+            }
+            if (left instanceof String && right instanceof String) {
+                return ((String) left).compareTo((String) right) < 0;
+            }
+            return false;
+        }
+
+        private static int compareNumbers(final Number left, final Number right) {
+            final java.math.BigDecimal leftDecimal = toBigDecimal(left);
+            final java.math.BigDecimal rightDecimal = toBigDecimal(right);
+            if (leftDecimal == null || rightDecimal == null) {
+                return Double.compare(left.doubleValue(), right.doubleValue());
+            }
+            return leftDecimal.compareTo(rightDecimal);
+        }
+
+        private static java.math.BigDecimal toBigDecimal(final Number number) {
+            if (number instanceof java.math.BigDecimal) {
+                return (java.math.BigDecimal) number;
+            }
+            if (number instanceof java.math.BigInteger) {
+                return new java.math.BigDecimal((java.math.BigInteger) number);
+            }
+            if (number instanceof Double || number instanceof Float) {
+                final double value = number.doubleValue();
+                return Double.isNaN(value) || Double.isInfinite(value)
+                        ? null
+                        : java.math.BigDecimal.valueOf(value);
+            }
+            if (number instanceof Long
+                    || number instanceof Integer
+                    || number instanceof Short
+                    || number instanceof Byte) {
+                return java.math.BigDecimal.valueOf(number.longValue());
+            }
+            try {
+                return new java.math.BigDecimal(number.toString());
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+    }
+
+    private static Number createNumber(final String number) {
+        final Number result;
+        if (number.contains(".") || number.contains("e") || number.contains("E")) {
+            if (number.length() > 9
+                    || (number.contains(".") && number.length() - number.lastIndexOf('.') > 2)
+                            && number.charAt(number.length() - 1) == '0') {
+                result = new java.math.BigDecimal(number);
+            } else {
+                result = Double.valueOf(number);
+            }
+        } else {
+            if (number.length() > 19) {
+                result = new java.math.BigInteger(number);
+            } else {
+                result = Long.valueOf(number);
+            }
+        }
+        return result;
+    }
+
     public static String toJson(Collection collection, JsonStringBuilder.Step identStep) {
         final JsonStringBuilder builder = new JsonStringBuilder(identStep);
         JsonArray.writeJson(collection, builder);
@@ -841,7 +2060,70 @@ public final class Json {
         return new JsonParser(string, maxDepth).parse();
     }
 
+    public static void formatJson(Reader reader, Writer writer, JsonStringBuilder.Step identStep)
+            throws IOException {
+        format(new JsonReader(reader), new JsonWriter(writer, identStep), null);
+    }
+
+    private static boolean format(
+            final JsonReader reader, final JsonWriter writer, final List<Set<String>> names)
+            throws IOException {
+        if (names != null && reader.peek() == JsonReader.Token.VALUE) {
+            return false;
+        }
+        while (true) {
+            switch (reader.next()) {
+                case BEGIN_OBJECT:
+                    if (names != null) {
+                        names.add(new HashSet<>());
+                    }
+                    writer.beginObject();
+                    break;
+                case END_OBJECT:
+                    if (names != null) {
+                        names.remove(names.size() - 1);
+                    }
+                    writer.endObject();
+                    break;
+                case BEGIN_ARRAY:
+                    if (names != null) {
+                        names.add(Collections.emptySet());
+                    }
+                    writer.beginArray();
+                    break;
+                case END_ARRAY:
+                    if (names != null) {
+                        names.remove(names.size() - 1);
+                    }
+                    writer.endArray();
+                    break;
+                case NAME:
+                    if (names != null && !names.get(names.size() - 1).add(reader.getName())) {
+                        return false;
+                    }
+                    writer.name(reader.getName());
+                    break;
+                case VALUE:
+                    writer.value(reader.getValue());
+                    break;
+                default:
+                    return true;
+            }
+        }
+    }
+
     public static String formatJson(String json, JsonStringBuilder.Step identStep) {
+        final java.io.StringWriter writer = new java.io.StringWriter(json.length());
+        try {
+            if (format(
+                    new JsonReader(new java.io.StringReader(json)),
+                    new JsonWriter(writer, identStep),
+                    new ArrayList<>())) {
+                return writer.toString();
+            }
+        } catch (IOException | ParseException ex) {
+            // reported by the parser below
+        }
         Object result = fromJson(json);
         if (result instanceof Map) {
             return toJson((Map) result, identStep);
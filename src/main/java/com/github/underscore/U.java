@@ -25,11 +25,17 @@ package com.github.underscore;
 
 import org.w3c.dom.NodeList;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -41,6 +47,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -55,6 +62,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
@@ -66,8 +74,9 @@ import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.zip.GZIPInputStream;
 
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
 @SuppressWarnings({
@@ -109,6 +118,19 @@ public class U<T> extends Underscore<T> {
                     UPPER + "+(?=" + UPPER + LOWER + ")|" + UPPER + "?" + LOWER + "|" + UPPER
                             + "+|\\d+");
     private static final String ENCODING = "#encoding";
+    private static final int SELECTORS_CACHE_SIZE = 1024;
+    private static final int PATHS_CACHE_SIZE = 1024;
+    private static final int JSON_PATHS_CACHE_SIZE = 1024;
+    private static final int PATH_TRIES_CACHE_SIZE = 256;
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+    private static final long WATCH_DEBOUNCE_MILLIS = 200L;
+    private static final LruCache<String, Selector> SELECTORS =
+            new LruCache<>(SELECTORS_CACHE_SIZE);
+    private static final LruCache<String, PropertyPath> PATHS = new LruCache<>(PATHS_CACHE_SIZE);
+    private static final LruCache<List<String>, PathTrie> PATH_TRIES =
+            new LruCache<>(PATH_TRIES_CACHE_SIZE);
+    private static final LruCache<String, Json.JsonPath> JSON_PATHS =
+            new LruCache<>(JSON_PATHS_CACHE_SIZE);
 
     static {
         String[] deburredLetters =
@@ -1736,18 +1758,78 @@ public class U<T> extends Underscore<T> {
         REMOVE
     }
 
+    public static PropertyPath path(final String path) {
+        PropertyPath propertyPath;
+        synchronized (PATHS) {
+            propertyPath = PATHS.get(path);
+        }
+        if (propertyPath == null) {
+            propertyPath = new PropertyPath(stringToPath(path));
+            synchronized (PATHS) {
+                PATHS.put(path, propertyPath);
+            }
+        }
+        return propertyPath;
+    }
+
+    public static final class PropertyPath {
+        private final List<String> keys;
+        private final Integer[] indexes;
+
+        private PropertyPath(final List<String> keys) {
+            this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
+            indexes = new Integer[keys.size()];
+            for (int index = 0; index < indexes.length; index += 1) {
+                indexes[index] = parseIndex(keys.get(index));
+            }
+        }
+
+        public List<String> getKeys() {
+            return keys;
+        }
+
+        private int getIndex(final int index) {
+            final Integer result = indexes[index];
+            return result == null ? Integer.parseInt(keys.get(index)) : result;
+        }
+
+        private static Integer parseIndex(final String key) {
+            if (key == null || key.isEmpty() || key.length() > 11) {
+                return null;
+            }
+            for (int index = key.charAt(0) == '-' && key.length() > 1 ? 1 : 0;
+                    index < key.length();
+                    index += 1) {
+                if (key.charAt(index) < '0' || key.charAt(index) > '9') {
+                    return null;
+                }
+            }
+            try {
+                return Integer.parseInt(key);
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return keys.toString();
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private static <T> T baseGetOrSetOrRemove(
             final Map<String, Object> object,
-            final List<String> paths,
+            final PropertyPath path,
             final Object value,
             OperationType operationType) {
         int index = 0;
-        final int length = paths.size();
+        final int length = path.keys.size();
 
         Object localObject = object;
         Object savedLocalObject = null;
         String savedPath = null;
+        int savedIndex = 0;
         while (localObject != null && index < length) {
             if (localObject instanceof Map) {
                 Map.Entry mapEntry = getMapEntry((Map) localObject);
@@ -1756,19 +1838,19 @@ public class U<T> extends Underscore<T> {
                     continue;
                 }
                 savedLocalObject = localObject;
-                savedPath = paths.get(index);
-                localObject = ((Map) localObject).get(paths.get(index));
+                savedPath = path.keys.get(index);
+                localObject = ((Map) localObject).get(savedPath);
             } else if (localObject instanceof List) {
                 savedLocalObject = localObject;
-                savedPath = paths.get(index);
-                localObject = ((List) localObject).get(Integer.parseInt(paths.get(index)));
+                savedIndex = path.getIndex(index);
+                localObject = ((List) localObject).get(savedIndex);
             } else {
                 break;
             }
             index += 1;
         }
         if (index > 0 && index == length) {
-            checkSetAndRemove(value, operationType, savedLocalObject, savedPath);
+            checkSetAndRemove(value, operationType, savedLocalObject, savedPath, savedIndex);
             return (T) localObject;
         }
         return null;
@@ -1776,19 +1858,23 @@ public class U<T> extends Underscore<T> {
 
     @SuppressWarnings("unchecked")
     private static void checkSetAndRemove(
-            Object value, OperationType operationType, Object savedLocalObject, String savedPath) {
+            Object value,
+            OperationType operationType,
+            Object savedLocalObject,
+            String savedPath,
+            int savedIndex) {
         if (operationType == OperationType.SET || operationType == OperationType.UPDATE) {
             if (savedLocalObject instanceof Map) {
                 checkSetOrUpdate(
                         value, operationType, (Map<String, Object>) savedLocalObject, savedPath);
             } else {
-                ((List) savedLocalObject).set(Integer.parseInt(savedPath), value);
+                ((List) savedLocalObject).set(savedIndex, value);
             }
         } else if (operationType == OperationType.REMOVE) {
             if (savedLocalObject instanceof Map) {
                 ((Map) savedLocalObject).remove(savedPath);
             } else {
-                ((List) savedLocalObject).remove(Integer.parseInt(savedPath));
+                ((List) savedLocalObject).remove(savedIndex);
             }
         }
     }
@@ -1810,84 +1896,247 @@ public class U<T> extends Underscore<T> {
     }
 
     public static <T> T get(final Map<String, Object> object, final String path) {
-        return get(object, stringToPath(path));
+        return get(object, path(path));
     }
 
     public static <T> T get(final Map<String, Object> object, final List<String> paths) {
-        return baseGetOrSetOrRemove(object, paths, null, OperationType.GET);
+        return get(object, new PropertyPath(paths));
+    }
+
+    public static <T> T get(final Map<String, Object> object, final PropertyPath path) {
+        return baseGetOrSetOrRemove(object, path, null, OperationType.GET);
+    }
+
+    public static Map<String, Object> getAll(
+            final Map<String, Object> object, final List<String> paths) {
+        final List<String> key = Collections.unmodifiableList(new ArrayList<>(paths));
+        PathTrie trie;
+        synchronized (PATH_TRIES) {
+            trie = PATH_TRIES.get(key);
+        }
+        if (trie == null) {
+            trie = PathTrie.compile(key);
+            synchronized (PATH_TRIES) {
+                PATH_TRIES.put(key, trie);
+            }
+        }
+        final Object[] values = new Object[trie.names.size()];
+        collectAll(trie, object, values);
+        final Map<String, Object> result = new LinkedHashMap<>(values.length * 4 / 3 + 1);
+        for (int index = 0; index < values.length; index += 1) {
+            result.put(trie.names.get(index), values[index]);
+        }
+        return result;
+    }
+
+    private static final class PathTrie {
+        private final String key;
+        private final Integer index;
+        private final Map<String, PathTrie> children = new LinkedHashMap<>();
+        private final List<Integer> slots = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+
+        private PathTrie(final String key) {
+            this.key = key;
+            this.index = PropertyPath.parseIndex(key);
+        }
+
+        private static PathTrie compile(final List<String> paths) {
+            final PathTrie root = new PathTrie(null);
+            final Map<String, Integer> slotsByName = new HashMap<>();
+            for (String path : paths) {
+                if (slotsByName.containsKey(path)) {
+                    continue;
+                }
+                slotsByName.put(path, root.names.size());
+                PathTrie node = root;
+                for (String key : path(path).getKeys()) {
+                    node = node.children.computeIfAbsent(key, PathTrie::new);
+                }
+                if (node != root) {
+                    node.slots.add(root.names.size());
+                }
+                root.names.add(path);
+            }
+            return root;
+        }
+    }
+
+    private static void collectAll(final PathTrie trie, final Object value, final Object[] values) {
+        Object localObject = value;
+        while (localObject instanceof Map) {
+            final Map.Entry mapEntry = getMapEntry((Map) localObject);
+            if (mapEntry == null || !"#item".equals(mapEntry.getKey())) {
+                break;
+            }
+            localObject = mapEntry.getValue();
+        }
+        if (!(localObject instanceof Map) && !(localObject instanceof List)) {
+            return;
+        }
+        for (PathTrie child : trie.children.values()) {
+            final Object childValue;
+            if (localObject instanceof Map) {
+                childValue = ((Map) localObject).get(child.key);
+            } else {
+                childValue =
+                        ((List) localObject)
+                                .get(
+                                        child.index == null
+                                                ? Integer.parseInt(child.key)
+                                                : child.index);
+            }
+            for (Integer slot : child.slots) {
+                values[slot] = childValue;
+            }
+            if (childValue != null && !child.children.isEmpty()) {
+                collectAll(child, childValue, values);
+            }
+        }
     }
 
     public static String selectToken(final Map<String, Object> object, final String expression) {
-        final String xml = toXml(object);
-        try {
-            final XPath xPath = XPathFactory.newInstance().newXPath();
-            final org.w3c.dom.Document document = Xml.Document.createDocument(xml);
-            final NodeList nodes =
-                    (NodeList) xPath.compile(expression).evaluate(document, XPathConstants.NODESET);
+        return compileSelector(expression).selectToken(object);
+    }
+
+    public static List<String> selectTokens(
+            final Map<String, Object> object, final String expression) {
+        return compileSelector(expression).selectTokens(object);
+    }
+
+    public static Selector compileSelector(final String expression) {
+        Selector selector;
+        synchronized (SELECTORS) {
+            selector = SELECTORS.get(expression);
+        }
+        if (selector == null) {
+            selector = new Selector(expression);
+            synchronized (SELECTORS) {
+                SELECTORS.put(expression, selector);
+            }
+        }
+        return selector;
+    }
+
+    public static List<Object> query(final Object tree, final String jsonPath) {
+        return compileJsonPath(jsonPath).evaluate(tree);
+    }
+
+    public static Json.JsonPath compileJsonPath(final String expression) {
+        Json.JsonPath jsonPath;
+        synchronized (JSON_PATHS) {
+            jsonPath = JSON_PATHS.get(expression);
+        }
+        if (jsonPath == null) {
+            jsonPath = Json.JsonPath.compile(expression);
+            synchronized (JSON_PATHS) {
+                JSON_PATHS.put(expression, jsonPath);
+            }
+        }
+        return jsonPath;
+    }
+
+    public static final class Selector {
+        private final Xml.PathQuery query;
+        private final XPathExpression xPathExpression;
+
+        private Selector(final String expression) {
+            query = Xml.PathQuery.compile(expression);
+            try {
+                xPathExpression = XPathFactory.newInstance().newXPath().compile(expression);
+            } catch (XPathExpressionException ex) {
+                throw new IllegalArgumentException(ex);
+            }
+        }
+
+        public String selectToken(final Map<String, Object> object) {
+            final List<String> values = query == null ? null : query.evaluate(object);
+            if (values != null) {
+                return values.isEmpty() ? null : values.get(0);
+            }
+            final NodeList nodes = evaluate(object);
             if (nodes.getLength() == 0) {
                 return null;
             }
             return nodes.item(0).getNodeValue();
-        } catch (Exception ex) {
-            throw new IllegalArgumentException(ex);
         }
-    }
 
-    public static List<String> selectTokens(
-            final Map<String, Object> object, final String expression) {
-        final String xml = toXml(object);
-        try {
-            final XPath xPath = XPathFactory.newInstance().newXPath();
-            final org.w3c.dom.Document document = Xml.Document.createDocument(xml);
-            final NodeList nodes =
-                    (NodeList) xPath.compile(expression).evaluate(document, XPathConstants.NODESET);
+        public List<String> selectTokens(final Map<String, Object> object) {
+            final List<String> values = query == null ? null : query.evaluate(object);
+            if (values != null) {
+                return values;
+            }
+            final NodeList nodes = evaluate(object);
             final List<String> result = new ArrayList<>();
             for (int i = 0; i < nodes.getLength(); i++) {
                 result.add(nodes.item(i).getNodeValue());
             }
             return result;
-        } catch (Exception ex) {
-            throw new IllegalArgumentException(ex);
+        }
+
+        private NodeList evaluate(final Map<String, Object> object) {
+            final String xml = toXml(object);
+            try {
+                final org.w3c.dom.Document document = Xml.Document.createDocument(xml);
+                synchronized (xPathExpression) {
+                    return (NodeList) xPathExpression.evaluate(document, XPathConstants.NODESET);
+                }
+            } catch (Exception ex) {
+                throw new IllegalArgumentException(ex);
+            }
         }
     }
 
     public static <T> T set(final Map<String, Object> object, final String path, Object value) {
-        return set(object, stringToPath(path), value);
+        return set(object, path(path), value);
     }
 
     public static <T> T set(
             final Map<String, Object> object, final List<String> paths, Object value) {
-        return baseGetOrSetOrRemove(object, paths, value, OperationType.SET);
+        return set(object, new PropertyPath(paths), value);
+    }
+
+    public static <T> T set(
+            final Map<String, Object> object, final PropertyPath path, Object value) {
+        return baseGetOrSetOrRemove(object, path, value, OperationType.SET);
     }
 
     public static <T> T update(final Map<String, Object> object, final String path, Object value) {
-        return update(object, stringToPath(path), value);
+        return update(object, path(path), value);
     }
 
     public static <T> T update(
             final Map<String, Object> object, final List<String> paths, Object value) {
-        return baseGetOrSetOrRemove(object, paths, value, OperationType.UPDATE);
+        return update(object, new PropertyPath(paths), value);
+    }
+
+    public static <T> T update(
+            final Map<String, Object> object, final PropertyPath path, Object value) {
+        return baseGetOrSetOrRemove(object, path, value, OperationType.UPDATE);
     }
 
     public static <T> T remove(final Map<String, Object> object, final String path) {
-        return remove(object, stringToPath(path));
+        return remove(object, path(path));
     }
 
     public static <T> T remove(final Map<String, Object> object, final List<String> paths) {
-        return baseGetOrSetOrRemove(object, paths, null, OperationType.REMOVE);
+        return remove(object, new PropertyPath(paths));
+    }
+
+    public static <T> T remove(final Map<String, Object> object, final PropertyPath path) {
+        return baseGetOrSetOrRemove(object, path, null, OperationType.REMOVE);
     }
 
     public static Map<String, Object> rename(
             final Map<String, Object> map, final String oldKey, final String newKey) {
-        Map<String, Object> outMap = new LinkedHashMap<>();
+        final MapCopy outMap = new MapCopy(map);
         for (Map.Entry<String, Object> entry : map.entrySet()) {
-            if (entry.getKey().equals(oldKey)) {
-                outMap.put(newKey, makeObjectForRename(entry.getValue(), oldKey, newKey));
-            } else {
-                outMap.put(entry.getKey(), makeObjectForRename(entry.getValue(), oldKey, newKey));
-            }
+            outMap.put(
+                    entry,
+                    entry.getKey().equals(oldKey) ? newKey : entry.getKey(),
+                    makeObjectForRename(entry.getValue(), oldKey, newKey));
         }
-        return outMap;
+        return outMap.result();
     }
 
     @SuppressWarnings("unchecked")
@@ -1895,14 +2144,13 @@ public class U<T> extends Underscore<T> {
             Object value, final String oldKey, final String newKey) {
         final Object result;
         if (value instanceof List) {
-            List<Object> values = new ArrayList<>();
-            for (Object item : (List) value) {
-                values.add(
-                        item instanceof Map
-                                ? rename((Map<String, Object>) item, oldKey, newKey)
-                                : item);
-            }
-            result = values;
+            result =
+                    copyOnWriteList(
+                            (List<Object>) value,
+                            item ->
+                                    item instanceof Map
+                                            ? rename((Map<String, Object>) item, oldKey, newKey)
+                                            : item);
         } else if (value instanceof Map) {
             result = rename((Map<String, Object>) value, oldKey, newKey);
         } else {
@@ -1920,18 +2168,22 @@ public class U<T> extends Underscore<T> {
             final Map<String, Object> map,
             final String key,
             final BiFunction<String, Object, Object> newValue) {
-        Map<String, Object> outMap = new LinkedHashMap<>();
+        final MapCopy outMap = new MapCopy(map);
         for (Map.Entry<String, Object> entry : map.entrySet()) {
             if (entry.getKey().equals(key)) {
                 outMap.put(
+                        entry,
                         key,
                         makeObjectForSetValue(
                                 newValue.apply(key, entry.getValue()), key, newValue));
             } else {
-                outMap.put(entry.getKey(), makeObjectForSetValue(entry.getValue(), key, newValue));
+                outMap.put(
+                        entry,
+                        entry.getKey(),
+                        makeObjectForSetValue(entry.getValue(), key, newValue));
             }
         }
-        return outMap;
+        return outMap.result();
     }
 
     @SuppressWarnings("unchecked")
@@ -1939,14 +2191,13 @@ public class U<T> extends Underscore<T> {
             Object value, final String key, final BiFunction<String, Object, Object> newValue) {
         final Object result;
         if (value instanceof List) {
-            List<Object> values = new ArrayList<>();
-            for (Object item : (List) value) {
-                values.add(
-                        item instanceof Map
-                                ? setValue((Map<String, Object>) item, key, newValue)
-                                : item);
-            }
-            result = values;
+            result =
+                    copyOnWriteList(
+                            (List<Object>) value,
+                            item ->
+                                    item instanceof Map
+                                            ? setValue((Map<String, Object>) item, key, newValue)
+                                            : item);
         } else if (value instanceof Map) {
             result = setValue((Map<String, Object>) value, key, newValue);
         } else {
@@ -1955,6 +2206,64 @@ public class U<T> extends Underscore<T> {
         return result;
     }
 
+    private static List<Object> copyOnWriteList(
+            final List<Object> list, final Function<Object, Object> function) {
+        List<Object> values = null;
+        int index = 0;
+        for (Object item : list) {
+            final Object newItem = function.apply(item);
+            if (values == null && newItem != item) {
+                values = new ArrayList<>(list.subList(0, index));
+            }
+            if (values != null) {
+                values.add(newItem);
+            }
+            index += 1;
+        }
+        return values == null ? list : values;
+    }
+
+    private static final class MapCopy {
+        private final Map<String, Object> source;
+        private Map<String, Object> target;
+        private int unchanged;
+
+        private MapCopy(final Map<String, Object> source) {
+            this.source = source;
+        }
+
+        private void put(
+                final Map.Entry<String, Object> entry, final String key, final Object value) {
+            if (target == null) {
+                if (value == entry.getValue() && Objects.equals(key, entry.getKey())) {
+                    unchanged += 1;
+                    return;
+                }
+                copyUnchanged();
+            }
+            target.put(key, value);
+        }
+
+        private void skip() {
+            if (target == null) {
+                copyUnchanged();
+            }
+        }
+
+        private void copyUnchanged() {
+            target = new LinkedHashMap<>();
+            final Iterator<Map.Entry<String, Object>> iterator = source.entrySet().iterator();
+            for (int index = 0; index < unchanged; index += 1) {
+                final Map.Entry<String, Object> entry = iterator.next();
+                target.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        private Map<String, Object> result() {
+            return target == null ? source : target;
+        }
+    }
+
     public static Map<String, Object> update(
             final Map<String, Object> map1, final Map<String, Object> map2) {
         Map<String, Object> outMap = new LinkedHashMap<>();
@@ -2500,6 +2809,285 @@ public class U<T> extends Underscore<T> {
         return new LruCache<>(capacity);
     }
 
+    public static <E> Index<E> index(final List<E> list, final String... properties) {
+        return new Index<>(list, properties);
+    }
+
+    public static class Index<E> {
+        private final List<String> properties;
+        private final List<Map<Object, Set<IndexRow<E>>>> hashIndexes = new ArrayList<>();
+        private final Map<String, java.util.TreeMap<Object, Set<IndexRow<E>>>> sortedIndexes =
+                new HashMap<>();
+        private final Set<IndexRow<E>> rows = new java.util.LinkedHashSet<>();
+        private final Map<E, List<IndexRow<E>>> elementRows = new java.util.IdentityHashMap<>();
+
+        public Index(final List<E> list, final String... properties) {
+            this.properties = Arrays.asList(properties.clone());
+            for (int index = 0; index < properties.length; index += 1) {
+                hashIndexes.add(new HashMap<>());
+            }
+            for (E element : list) {
+                add(element);
+            }
+        }
+
+        public Index<E> add(final E element) {
+            final Object[] values = new Object[properties.size()];
+            for (int index = 0; index < values.length; index += 1) {
+                values[index] = indexKey(propertyValue(element, properties.get(index)));
+            }
+            for (Map.Entry<String, java.util.TreeMap<Object, Set<IndexRow<E>>>> entry :
+                    sortedIndexes.entrySet()) {
+                final Object value = values[properties.indexOf(entry.getKey())];
+                if (value != null) {
+                    // fails before any index is changed if the value is not comparable
+                    entry.getValue().containsKey(value);
+                }
+            }
+            final IndexRow<E> row = new IndexRow<>(element, values);
+            rows.add(row);
+            elementRows.computeIfAbsent(element, key -> new ArrayList<>(1)).add(row);
+            for (int index = 0; index < values.length; index += 1) {
+                hashIndexes
+                        .get(index)
+                        .computeIfAbsent(values[index], key -> new java.util.LinkedHashSet<>())
+                        .add(row);
+            }
+            for (Map.Entry<String, java.util.TreeMap<Object, Set<IndexRow<E>>>> entry :
+                    sortedIndexes.entrySet()) {
+                addSorted(entry.getValue(), row.values[properties.indexOf(entry.getKey())], row);
+            }
+            return this;
+        }
+
+        public boolean remove(final E element) {
+            final List<IndexRow<E>> sameRows = elementRows.get(element);
+            if (sameRows != null) {
+                removeRow(sameRows.get(0));
+                return true;
+            }
+            final Set<IndexRow<E>> candidates;
+            if (properties.isEmpty()) {
+                candidates = rows;
+            } else {
+                candidates =
+                        hashIndexes
+                                .get(0)
+                                .getOrDefault(
+                                        indexKey(propertyValue(element, properties.get(0))),
+                                        Collections.emptySet());
+            }
+            for (IndexRow<E> row : candidates) {
+                if (Objects.equals(row.element, element)) {
+                    removeRow(row);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public int size() {
+            return rows.size();
+        }
+
+        public List<E> get(final String property, final Object value) {
+            return elements(
+                    hashIndex(property).getOrDefault(indexKey(value), Collections.emptySet()));
+        }
+
+        public <T> List<E> where(final List<Map.Entry<String, T>> properties) {
+            final List<E> result = new ArrayList<>();
+            for (IndexRow<E> row : candidates(properties)) {
+                if (matches(row, properties)) {
+                    result.add(row.element);
+                }
+            }
+            return result;
+        }
+
+        public <T> Optional<E> findWhere(final List<Map.Entry<String, T>> properties) {
+            for (IndexRow<E> row : candidates(properties)) {
+                if (matches(row, properties)) {
+                    return Optional.of(row.element);
+                }
+            }
+            return Optional.empty();
+        }
+
+        public Map<Object, List<E>> groupBy(final String property) {
+            final Map<Object, List<E>> result = new LinkedHashMap<>();
+            for (Map.Entry<Object, Set<IndexRow<E>>> entry : hashIndex(property).entrySet()) {
+                result.put(entry.getKey(), elements(entry.getValue()));
+            }
+            return result;
+        }
+
+        @SuppressWarnings("unchecked")
+        public List<E> range(
+                final String property,
+                final Object from,
+                final boolean fromInclusive,
+                final Object to,
+                final boolean toInclusive) {
+            final Object fromKey = indexKey(from);
+            final Object toKey = indexKey(to);
+            java.util.NavigableMap<Object, Set<IndexRow<E>>> map = sortedIndex(property);
+            if (fromKey != null
+                    && toKey != null
+                    && ((Comparable<Object>) fromKey).compareTo(toKey) > 0) {
+                return new ArrayList<>();
+            }
+            if (fromKey != null) {
+                map = map.tailMap(fromKey, fromInclusive);
+            }
+            if (toKey != null) {
+                map = map.headMap(toKey, toInclusive);
+            }
+            final List<E> result = new ArrayList<>();
+            for (Set<IndexRow<E>> bucket : map.values()) {
+                for (IndexRow<E> row : bucket) {
+                    result.add(row.element);
+                }
+            }
+            return result;
+        }
+
+        private Map<Object, Set<IndexRow<E>>> hashIndex(final String property) {
+            final int index = properties.indexOf(property);
+            if (index == -1) {
+                throw new IllegalArgumentException("Property is not indexed: " + property);
+            }
+            return hashIndexes.get(index);
+        }
+
+        private java.util.TreeMap<Object, Set<IndexRow<E>>> sortedIndex(final String property) {
+            java.util.TreeMap<Object, Set<IndexRow<E>>> sortedIndex = sortedIndexes.get(property);
+            if (sortedIndex == null) {
+                final int index = properties.indexOf(property);
+                hashIndex(property);
+                sortedIndex = new java.util.TreeMap<>();
+                for (IndexRow<E> row : rows) {
+                    addSorted(sortedIndex, row.values[index], row);
+                }
+                sortedIndexes.put(property, sortedIndex);
+            }
+            return sortedIndex;
+        }
+
+        private static <E> void addSorted(
+                final java.util.TreeMap<Object, Set<IndexRow<E>>> sortedIndex,
+                final Object value,
+                final IndexRow<E> row) {
+            if (value != null) {
+                sortedIndex.computeIfAbsent(value, key -> new java.util.LinkedHashSet<>()).add(row);
+            }
+        }
+
+        private void removeRow(final IndexRow<E> row) {
+            rows.remove(row);
+            final List<IndexRow<E>> sameRows = elementRows.get(row.element);
+            sameRows.remove(row);
+            if (sameRows.isEmpty()) {
+                elementRows.remove(row.element);
+            }
+            for (int index = 0; index < properties.size(); index += 1) {
+                removeFromBucket(hashIndexes.get(index), row.values[index], row);
+            }
+            for (Map.Entry<String, java.util.TreeMap<Object, Set<IndexRow<E>>>> entry :
+                    sortedIndexes.entrySet()) {
+                final Object value = row.values[properties.indexOf(entry.getKey())];
+                if (value != null) {
+                    removeFromBucket(entry.getValue(), value, row);
+                }
+            }
+        }
+
+        private static <E> void removeFromBucket(
+                final Map<Object, Set<IndexRow<E>>> map,
+                final Object value,
+                final IndexRow<E> row) {
+            final Set<IndexRow<E>> bucket = map.get(value);
+            bucket.remove(row);
+            if (bucket.isEmpty()) {
+                map.remove(value);
+            }
+        }
+
+        private <T> Set<IndexRow<E>> candidates(final List<Map.Entry<String, T>> properties) {
+            Set<IndexRow<E>> result = rows;
+            for (Map.Entry<String, T> property : properties) {
+                final int index = this.properties.indexOf(property.getKey());
+                if (index != -1) {
+                    final Set<IndexRow<E>> bucket =
+                            hashIndexes
+                                    .get(index)
+                                    .getOrDefault(
+                                            indexKey(property.getValue()),
+                                            Collections.emptySet());
+                    if (bucket.size() < result.size()) {
+                        result = bucket;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private <T> boolean matches(
+                final IndexRow<E> row, final List<Map.Entry<String, T>> properties) {
+            for (Map.Entry<String, T> property : properties) {
+                final int index = this.properties.indexOf(property.getKey());
+                final Object value =
+                        index == -1
+                                ? indexKey(propertyValue(row.element, property.getKey()))
+                                : row.values[index];
+                if (!Objects.equals(value, indexKey(property.getValue()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static <E> List<E> elements(final Set<IndexRow<E>> bucket) {
+            final List<E> result = new ArrayList<>(bucket.size());
+            for (IndexRow<E> row : bucket) {
+                result.add(row.element);
+            }
+            return result;
+        }
+
+        private static Object indexKey(final Object value) {
+            if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                return ((Number) value).longValue();
+            }
+            return value;
+        }
+
+        private static Object propertyValue(final Object element, final String property) {
+            if (element instanceof Map) {
+                return ((Map<?, ?>) element).get(property);
+            }
+            try {
+                return element.getClass().getField(property).get(element);
+            } catch (Exception e) {
+                try {
+                    return element.getClass().getMethod(property).invoke(element);
+                } catch (Exception ex) {
+                    throw new IllegalArgumentException(ex);
+                }
+            }
+        }
+    }
+
+    private static final class IndexRow<E> {
+        private final E element;
+        private final Object[] values;
+
+        private IndexRow(final E element, final Object[] values) {
+            this.element = element;
+            this.values = values;
+        }
+    }
+
     public static <T> List<List<T>> createPermutationWithRepetition(
             final List<T> list, final int permutationLength) {
         final long resultSize = (long) Math.pow(list.size(), permutationLength);
@@ -2660,17 +3248,31 @@ public class U<T> extends Underscore<T> {
         final String result;
         if (object instanceof Map) {
             if (mode == JsonToXmlMode.FORCE_ATTRIBUTE_USAGE) {
-                result = Xml.toXml(forceAttributeUsage((Map) object), identStep, newRootName);
+                result =
+                        Xml.toXml(
+                                (Map) object,
+                                identStep,
+                                newRootName,
+                                Xml.ArrayTrue.ADD,
+                                JsonToXmlRewrite.FORCE_ATTRIBUTE_USAGE);
             } else if (mode == JsonToXmlMode.DEFINE_ROOT_NAME) {
                 result = Xml.toXml((Map) object, identStep, newRootName);
             } else if (mode == JsonToXmlMode.REPLACE_NULL_WITH_EMPTY_VALUE) {
-                result = Xml.toXml(replaceNullWithEmptyValue((Map) object), identStep, newRootName);
+                result =
+                        Xml.toXml(
+                                (Map) object,
+                                identStep,
+                                newRootName,
+                                Xml.ArrayTrue.ADD,
+                                JsonToXmlRewrite.REPLACE_NULL_WITH_EMPTY_VALUE);
             } else if (mode == JsonToXmlMode.REPLACE_EMPTY_STRING_WITH_EMPTY_VALUE) {
                 result =
                         Xml.toXml(
-                                replaceEmptyStringWithEmptyValue((Map) object),
+                                (Map) object,
                                 identStep,
-                                newRootName);
+                                newRootName,
+                                Xml.ArrayTrue.ADD,
+                                JsonToXmlRewrite.REPLACE_EMPTY_STRING_WITH_EMPTY_VALUE);
             } else if (mode == JsonToXmlMode.ADD_ROOT
                     && !Xml.XmlValue.getMapKey(object).equals(ROOT)) {
                 final Map<String, Object> map = new LinkedHashMap<>();
@@ -2681,10 +3283,11 @@ public class U<T> extends Underscore<T> {
             } else if (mode == JsonToXmlMode.REMOVE_ATTRIBUTES) {
                 result =
                         Xml.toXml(
-                                replaceNumberAndBooleanWithString((Map) object),
+                                (Map) object,
                                 identStep,
                                 newRootName,
-                                Xml.ArrayTrue.SKIP);
+                                Xml.ArrayTrue.SKIP,
+                                JsonToXmlRewrite.REPLACE_NUMBER_AND_BOOLEAN_WITH_STRING);
             } else {
                 result = Xml.toXml((Map) object, identStep);
             }
@@ -2693,7 +3296,58 @@ public class U<T> extends Underscore<T> {
         return Xml.toXml((List) object, identStep);
     }
 
-    public static String jsonToXml(String json, Xml.XmlStringBuilder.Step identStep) {
+    enum JsonToXmlRewrite implements Xml.NodeRewrite {
+        FORCE_ATTRIBUTE_USAGE {
+            @Override
+            public String key(String key, Object value) {
+                return value instanceof Map || value instanceof List || key.startsWith("-")
+                        ? key
+                        : "-" + key;
+            }
+        },
+        REPLACE_NULL_WITH_EMPTY_VALUE {
+            @Override
+            public Object value(Object value) {
+                return value == null ? new LinkedHashMap<>() : value;
+            }
+        },
+        REPLACE_EMPTY_STRING_WITH_EMPTY_VALUE {
+            @Override
+            public Object value(Object value) {
+                return "".equals(value) ? new LinkedHashMap<>() : value;
+            }
+        },
+        REPLACE_NUMBER_AND_BOOLEAN_WITH_STRING {
+            @Override
+            public Object value(Object value) {
+                return value instanceof Boolean || value instanceof Number || isNull(value)
+                        ? String.valueOf(value)
+                        : value;
+            }
+
+            @Override
+            public Object item(Object item) {
+                return value(item);
+            }
+        };
+
+        @Override
+        public String key(String key, Object value) {
+            return key;
+        }
+
+        @Override
+        public Object value(Object value) {
+            return value;
+        }
+
+        @Override
+        public Object item(Object item) {
+            return item;
+        }
+    }
+
+    public static String jsonToXml(String json, Xml.XmlStringBuilder.Step identStep) {
         return jsonToXml(json, identStep, null, ROOT);
     }
 
@@ -2722,7 +3376,12 @@ public class U<T> extends Underscore<T> {
         Object object = Json.fromJson(json);
         if (object instanceof Map) {
             ((Map<String, Object>) object).put(OMIT_XML_DECL, YES);
-            return Xml.toXml(replaceNumberAndBooleanWithString((Map) object), identStep);
+            return Xml.toXml(
+                    (Map) object,
+                    identStep,
+                    ROOT,
+                    Xml.ArrayTrue.ADD,
+                    JsonToXmlRewrite.REPLACE_NUMBER_AND_BOOLEAN_WITH_STRING);
         }
         return Xml.toXmlWithoutRoot((List) object, identStep);
     }
@@ -2735,47 +3394,273 @@ public class U<T> extends Underscore<T> {
     public static String xmlToJson(
             String xml, Json.JsonStringBuilder.Step identStep, XmlToJsonMode mode) {
         Object object = Xml.fromXml(xml);
-        final String result;
         if (object instanceof Map) {
-            if (mode == XmlToJsonMode.REPLACE_SELF_CLOSING_WITH_NULL) {
-                result = Json.toJson(replaceSelfClosingWithNull((Map) object), identStep);
-            } else if (mode == XmlToJsonMode.REPLACE_SELF_CLOSING_WITH_STRING) {
-                result = Json.toJson(replaceSelfClosingWithEmpty((Map) object), identStep);
-            } else if (mode == XmlToJsonMode.REPLACE_EMPTY_VALUE_WITH_NULL) {
-                result = Json.toJson(replaceEmptyValueWithNull((Map) object), identStep);
-            } else if (mode == XmlToJsonMode.REPLACE_MINUS_WITH_AT) {
-                result = Json.toJson(replaceMinusWithAt((Map) object), identStep);
-            } else if (mode == XmlToJsonMode.REPLACE_EMPTY_TAG_WITH_NULL_AND_MINUS_WITH_AT) {
-                result =
-                        Json.toJson(
-                                replaceMinusWithAt(
-                                        replaceEmptyValueWithNull(
-                                                replaceSelfClosingWithNull((Map) object))),
-                                identStep);
-            } else if (mode == XmlToJsonMode.REPLACE_EMPTY_TAG_WITH_NULL) {
-                result =
-                        Json.toJson(
-                                replaceEmptyValueWithNull(replaceSelfClosingWithNull((Map) object)),
-                                identStep);
-            } else if (mode == XmlToJsonMode.REPLACE_EMPTY_TAG_WITH_STRING) {
-                result =
-                        Json.toJson(
-                                (Map<String, Object>)
-                                        replaceEmptyValueWithEmptyString(
-                                                replaceSelfClosingWithEmpty((Map) object)),
-                                identStep);
-            } else if (mode == XmlToJsonMode.REMOVE_FIRST_LEVEL) {
-                result = Json.toJson(replaceFirstLevel((Map) object), identStep);
-            } else if (mode == XmlToJsonMode.WITHOUT_NAMESPACES) {
-                result = Json.toJson((Map) Xml.fromXmlWithoutNamespaces(xml), identStep);
-            } else {
-                result = Json.toJson((Map) object, identStep);
+            if (mode == XmlToJsonMode.WITHOUT_NAMESPACES) {
+                return Json.toJson((Map) Xml.fromXmlWithoutNamespaces(xml), identStep);
             }
-            return result;
+            final XmlToJsonTransform transform = XmlToJsonTransform.of(mode);
+            if (transform != null) {
+                final Json.JsonStringBuilder builder = new Json.JsonStringBuilder(identStep);
+                transform.writeJson((Map) object, builder);
+                return builder.toString();
+            }
+            return Json.toJson((Map) applyXmlToJsonMode((Map) object, mode), identStep);
         }
         return Json.toJson((List) object, identStep);
     }
 
+    static Object applyXmlToJsonMode(Map<String, Object> map, XmlToJsonMode mode) {
+        final XmlToJsonTransform transform = XmlToJsonTransform.of(mode);
+        final Object result;
+        if (transform != null) {
+            result = transform.apply(map);
+        } else if (mode == XmlToJsonMode.REMOVE_FIRST_LEVEL) {
+            result = replaceFirstLevel(map);
+        } else {
+            result = map;
+        }
+        return result;
+    }
+
+    static final class XmlToJsonTransform {
+        private static final Object KEEP = new Object();
+        private final boolean selfClosing;
+        private final String selfClosingValue;
+        private final boolean emptyValue;
+        private final String emptyValueValue;
+        private final boolean minusWithAt;
+
+        private XmlToJsonTransform(
+                final boolean selfClosing,
+                final String selfClosingValue,
+                final boolean emptyValue,
+                final String emptyValueValue,
+                final boolean minusWithAt) {
+            this.selfClosing = selfClosing;
+            this.selfClosingValue = selfClosingValue;
+            this.emptyValue = emptyValue;
+            this.emptyValueValue = emptyValueValue;
+            this.minusWithAt = minusWithAt;
+        }
+
+        static XmlToJsonTransform of(final XmlToJsonMode mode) {
+            if (mode == null) {
+                return null;
+            }
+            switch (mode) {
+                case REPLACE_SELF_CLOSING_WITH_NULL:
+                    return new XmlToJsonTransform(true, null, false, null, false);
+                case REPLACE_SELF_CLOSING_WITH_STRING:
+                    return new XmlToJsonTransform(true, "", false, null, false);
+                case REPLACE_EMPTY_VALUE_WITH_NULL:
+                    return new XmlToJsonTransform(false, null, true, null, false);
+                case REPLACE_MINUS_WITH_AT:
+                    return new XmlToJsonTransform(false, null, false, null, true);
+                case REPLACE_EMPTY_TAG_WITH_NULL_AND_MINUS_WITH_AT:
+                    return new XmlToJsonTransform(true, null, true, null, true);
+                case REPLACE_EMPTY_TAG_WITH_NULL:
+                    return new XmlToJsonTransform(true, null, true, null, false);
+                case REPLACE_EMPTY_TAG_WITH_STRING:
+                    return new XmlToJsonTransform(true, "", true, "", false);
+                default:
+                    return null;
+            }
+        }
+
+        private Object replacement(final Map<?, ?> map, final boolean root) {
+            if (selfClosing && map.size() == 1 && "true".equals(map.get(SELF_CLOSING))) {
+                if (!root || selfClosingValue == null) {
+                    return selfClosingValue;
+                }
+                return emptyValue ? emptyValueValue : Collections.emptyMap();
+            }
+            return emptyValue && map.isEmpty() ? emptyValueValue : KEEP;
+        }
+
+        private String key(final Map.Entry<?, ?> entry) {
+            if (selfClosing
+                    && SELF_CLOSING.equals(entry.getKey())
+                    && "true".equals(entry.getValue())) {
+                return null;
+            }
+            final String key = String.valueOf(entry.getKey());
+            return minusWithAt && key.startsWith("-") ? "@" + key.substring(1) : key;
+        }
+
+        Object apply(final Map<String, Object> map) {
+            final Object result = replacement(map, true);
+            return result == KEEP ? applyToMap(map) : result;
+        }
+
+        private Map<String, Object> applyToMap(final Map<?, ?> map) {
+            final Map<String, Object> outMap = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                final String key = key(entry);
+                if (key != null) {
+                    outMap.put(key, applyToValue(entry.getValue()));
+                }
+            }
+            return outMap;
+        }
+
+        private Object applyToValue(final Object value) {
+            if (value instanceof List) {
+                final List<Object> values = new ArrayList<>();
+                for (Object item : (List<?>) value) {
+                    values.add(item instanceof Map ? applyToNode((Map<?, ?>) item) : item);
+                }
+                return values;
+            }
+            return value instanceof Map ? applyToNode((Map<?, ?>) value) : value;
+        }
+
+        private Object applyToNode(final Map<?, ?> map) {
+            final Object result = replacement(map, false);
+            return result == KEEP ? applyToMap(map) : result;
+        }
+
+        void writeJson(final Map<String, Object> map, final Json.JsonStringBuilder builder) {
+            Json.JsonValue.writeJson(view(map, true), builder);
+        }
+
+        private Object view(final Map<?, ?> map, final boolean root) {
+            final Object result = replacement(map, root);
+            if (result != KEEP) {
+                return result;
+            }
+            return new MapView(minusWithAt && hasAtKey(map) ? renameKeys(map) : map);
+        }
+
+        private Object viewValue(final Object value) {
+            if (value instanceof List) {
+                return new ListView((List<?>) value);
+            }
+            return value instanceof Map ? view((Map<?, ?>) value, false) : value;
+        }
+
+        private static boolean hasAtKey(final Map<?, ?> map) {
+            for (Object key : map.keySet()) {
+                if (String.valueOf(key).startsWith("@")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private Map<String, Object> renameKeys(final Map<?, ?> map) {
+            final Map<String, Object> outMap = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                final String key = key(entry);
+                if (key != null) {
+                    outMap.put(key, entry.getValue());
+                }
+            }
+            return outMap;
+        }
+
+        private final class MapView extends java.util.AbstractMap<String, Object> {
+            private final Map<?, ?> map;
+
+            private MapView(final Map<?, ?> map) {
+                this.map = map;
+            }
+
+            @Override
+            public Set<Map.Entry<String, Object>> entrySet() {
+                return new java.util.AbstractSet<>() {
+                    @Override
+                    public Iterator<Map.Entry<String, Object>> iterator() {
+                        return new EntryIterator(map.entrySet().iterator());
+                    }
+
+                    @Override
+                    public int size() {
+                        int size = 0;
+                        for (Map.Entry<?, ?> entry : map.entrySet()) {
+                            if (key(entry) != null) {
+                                size += 1;
+                            }
+                        }
+                        return size;
+                    }
+                };
+            }
+        }
+
+        private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+            private final Iterator<? extends Map.Entry<?, ?>> entries;
+            private Map.Entry<String, Object> next;
+
+            private EntryIterator(final Iterator<? extends Map.Entry<?, ?>> entries) {
+                this.entries = entries;
+                this.next = advance();
+            }
+
+            private Map.Entry<String, Object> advance() {
+                while (entries.hasNext()) {
+                    final Map.Entry<?, ?> entry = entries.next();
+                    final String key = key(entry);
+                    if (key != null) {
+                        return new java.util.AbstractMap.SimpleImmutableEntry<>(
+                                key, viewValue(entry.getValue()));
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, Object> next() {
+                if (next == null) {
+                    throw new java.util.NoSuchElementException();
+                }
+                final Map.Entry<String, Object> result = next;
+                next = advance();
+                return result;
+            }
+        }
+
+        private final class ListView extends java.util.AbstractList<Object> {
+            private final List<?> list;
+
+            private ListView(final List<?> list) {
+                this.list = list;
+            }
+
+            @Override
+            public Object get(final int index) {
+                final Object item = list.get(index);
+                return item instanceof Map ? view((Map<?, ?>) item, false) : item;
+            }
+
+            @Override
+            public int size() {
+                return list.size();
+            }
+
+            @Override
+            public Iterator<Object> iterator() {
+                final Iterator<?> iterator = list.iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Object next() {
+                        final Object item = iterator.next();
+                        return item instanceof Map ? view((Map<?, ?>) item, false) : item;
+                    }
+                };
+            }
+        }
+    }
+
     public static String xmlToJson(String xml) {
         return xmlToJson(xml, Json.JsonStringBuilder.Step.TWO_SPACES, null);
     }
@@ -2805,8 +3690,7 @@ public class U<T> extends Underscore<T> {
     public static void fileXmlToJson(
             String xmlFileName, String jsonFileName, Json.JsonStringBuilder.Step identStep)
             throws IOException {
-        final byte[] bytes = Files.readAllBytes(Paths.get(xmlFileName));
-        String xmlText = new String(removeBom(bytes), detectEncoding(bytes));
+        String xmlText = readText(Paths.get(xmlFileName));
         Files.write(
                 Paths.get(jsonFileName),
                 formatString(xmlToJson(xmlText, identStep), System.lineSeparator())
@@ -2822,9 +3706,7 @@ public class U<T> extends Underscore<T> {
             OutputStream jsonOutputStream,
             Json.JsonStringBuilder.Step indentStep)
             throws IOException {
-        byte[] bytes = xmlInputStream.readAllBytes();
-        String encoding = detectEncoding(bytes);
-        String xmlText = new String(removeBom(bytes), encoding);
+        String xmlText = readText(openText(xmlInputStream), 0);
         String jsonText = xmlToJson(xmlText, indentStep);
         String formattedJson = formatString(jsonText, System.lineSeparator());
         jsonOutputStream.write(formattedJson.getBytes(StandardCharsets.UTF_8));
@@ -2835,11 +3717,63 @@ public class U<T> extends Underscore<T> {
         streamXmlToJson(xmlInputStream, jsonOutputStream, Json.JsonStringBuilder.Step.TWO_SPACES);
     }
 
+    public static void streamingXmlToJson(
+            InputStream xmlInputStream,
+            OutputStream jsonOutputStream,
+            Json.JsonStringBuilder.Step identStep,
+            XmlToJsonMode mode)
+            throws IOException {
+        final Writer writer =
+                new BufferedWriter(
+                        new OutputStreamWriter(jsonOutputStream, StandardCharsets.UTF_8));
+        Xml.toJson(xmlInputStream, writer, identStep, mode);
+        writer.flush();
+    }
+
+    public static void streamingXmlToJson(
+            InputStream xmlInputStream,
+            OutputStream jsonOutputStream,
+            Json.JsonStringBuilder.Step identStep)
+            throws IOException {
+        streamingXmlToJson(xmlInputStream, jsonOutputStream, identStep, null);
+    }
+
+    public static void streamingXmlToJson(
+            InputStream xmlInputStream, OutputStream jsonOutputStream) throws IOException {
+        streamingXmlToJson(
+                xmlInputStream, jsonOutputStream, Json.JsonStringBuilder.Step.TWO_SPACES, null);
+    }
+
+    public static void streamingFileJsonToXml(
+            String jsonFileName, String xmlFileName, Xml.XmlStringBuilder.Step identStep)
+            throws IOException {
+        try (OutputStream xmlOutputStream = Files.newOutputStream(Paths.get(xmlFileName))) {
+            Xml.toXml(Paths.get(jsonFileName), xmlOutputStream, identStep);
+        }
+    }
+
+    public static void streamingFileJsonToXml(String jsonFileName, String xmlFileName)
+            throws IOException {
+        streamingFileJsonToXml(jsonFileName, xmlFileName, Xml.XmlStringBuilder.Step.TWO_SPACES);
+    }
+
+    public static void streamingJsonToXml(
+            InputStream jsonInputStream,
+            OutputStream xmlOutputStream,
+            Xml.XmlStringBuilder.Step identStep)
+            throws IOException {
+        Xml.toXml(jsonInputStream, xmlOutputStream, identStep);
+    }
+
+    public static void streamingJsonToXml(InputStream jsonInputStream, OutputStream xmlOutputStream)
+            throws IOException {
+        streamingJsonToXml(jsonInputStream, xmlOutputStream, Xml.XmlStringBuilder.Step.TWO_SPACES);
+    }
+
     public static void fileJsonToXml(
             String jsonFileName, String xmlFileName, Xml.XmlStringBuilder.Step identStep)
             throws IOException {
-        final byte[] bytes = Files.readAllBytes(Paths.get(jsonFileName));
-        String jsonText = new String(removeBom(bytes), detectEncoding(bytes));
+        String jsonText = readText(Paths.get(jsonFileName));
         Object result = U.fromJson(jsonText);
         Path xmlFilePath = Paths.get(xmlFileName);
         String lineSeparator = System.lineSeparator();
@@ -2926,69 +3860,973 @@ public class U<T> extends Underscore<T> {
         xmlFolderToJson(xmlFolder, jsonFolder, Json.JsonStringBuilder.Step.TWO_SPACES);
     }
 
-    public static void covertXmlToJson(
-            Path path, Path sourceRoot, Path targetRoot, Json.JsonStringBuilder.Step identStep)
+    public static FolderConversionResult parallelJsonFolderToXml(
+            String jsonFolder,
+            String xmlFolder,
+            Xml.XmlStringBuilder.Step identStep,
+            java.util.concurrent.Executor executor,
+            int maxInFlight)
             throws IOException {
-        Path relativePath = sourceRoot.relativize(path);
-        String fileName = relativePath.getFileName().toString();
-        String xmlFileName;
-        if (fileName.endsWith(".xml")) {
-            xmlFileName = fileName.substring(0, fileName.length() - 4) + ".json";
-        } else {
-            return;
+        Path sourceRoot = Paths.get(jsonFolder);
+        Path targetRoot = Paths.get(xmlFolder);
+        return convertFolder(
+                sourceRoot,
+                targetRoot,
+                ".json",
+                ".xml",
+                path -> covertJsonToXml(path, sourceRoot, targetRoot, identStep),
+                executor,
+                maxInFlight,
+                null);
+    }
+
+    public static FolderConversionResult parallelJsonFolderToXml(
+            String jsonFolder,
+            String xmlFolder,
+            Xml.XmlStringBuilder.Step identStep,
+            int parallelism)
+            throws IOException {
+        final java.util.concurrent.ExecutorService executor =
+                java.util.concurrent.Executors.newFixedThreadPool(parallelism);
+        try {
+            return parallelJsonFolderToXml(
+                    jsonFolder, xmlFolder, identStep, executor, parallelism * IN_FLIGHT_PER_THREAD);
+        } finally {
+            executor.shutdown();
         }
-        Path targetPath = targetRoot.resolve(relativePath).getParent().resolve(xmlFileName);
-        Files.createDirectories(targetPath.getParent());
-        fileXmlToJson(path.toAbsolutePath().toString(), targetPath.toString(), identStep);
     }
 
-    public static void streamJsonToXml(
-            InputStream jsonInputStream,
-            OutputStream xmlOutputStream,
-            Xml.XmlStringBuilder.Step identStep)
+    public static FolderConversionResult parallelJsonFolderToXml(
+            String jsonFolder, String xmlFolder) throws IOException {
+        return parallelJsonFolderToXml(
+                jsonFolder,
+                xmlFolder,
+                Xml.XmlStringBuilder.Step.TWO_SPACES,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    public static FolderConversionResult parallelXmlFolderToJson(
+            String xmlFolder,
+            String jsonFolder,
+            Json.JsonStringBuilder.Step identStep,
+            java.util.concurrent.Executor executor,
+            int maxInFlight)
             throws IOException {
-        byte[] bytes = jsonInputStream.readAllBytes();
-        String jsonText = new String(removeBom(bytes), detectEncoding(bytes));
-        Object jsonObject = U.fromJson(jsonText);
-        String lineSeparator = System.lineSeparator();
-        String xml;
-        if (jsonObject instanceof Map) {
-            xml = formatString(Xml.toXml((Map<?, ?>) jsonObject, identStep), lineSeparator);
-            if (((Map) jsonObject).containsKey(ENCODING)) {
-                String encoding = String.valueOf(((Map) jsonObject).get(ENCODING));
-                xmlOutputStream.write(xml.getBytes(encoding));
-            } else {
-                xmlOutputStream.write(xml.getBytes(StandardCharsets.UTF_8));
-            }
-        } else {
-            xml = formatString(Xml.toXml((List<?>) jsonObject, identStep), lineSeparator);
-            xmlOutputStream.write(xml.getBytes(StandardCharsets.UTF_8));
+        Path sourceRoot = Paths.get(xmlFolder);
+        Path targetRoot = Paths.get(jsonFolder);
+        return convertFolder(
+                sourceRoot,
+                targetRoot,
+                ".xml",
+                ".json",
+                path -> covertXmlToJson(path, sourceRoot, targetRoot, identStep),
+                executor,
+                maxInFlight,
+                null);
+    }
+
+    public static FolderConversionResult parallelXmlFolderToJson(
+            String xmlFolder,
+            String jsonFolder,
+            Json.JsonStringBuilder.Step identStep,
+            int parallelism)
+            throws IOException {
+        final java.util.concurrent.ExecutorService executor =
+                java.util.concurrent.Executors.newFixedThreadPool(parallelism);
+        try {
+            return parallelXmlFolderToJson(
+                    xmlFolder, jsonFolder, identStep, executor, parallelism * IN_FLIGHT_PER_THREAD);
+        } finally {
+            executor.shutdown();
         }
     }
 
-    public static void streamJsonToXml(InputStream jsonInputStream, OutputStream xmlOutputStream)
+    public static FolderConversionResult parallelXmlFolderToJson(
+            String xmlFolder, String jsonFolder) throws IOException {
+        return parallelXmlFolderToJson(
+                xmlFolder,
+                jsonFolder,
+                Json.JsonStringBuilder.Step.TWO_SPACES,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    public static FolderConversionResult incrementalJsonFolderToXml(
+            String jsonFolder, String xmlFolder, Xml.XmlStringBuilder.Step identStep)
             throws IOException {
-        streamJsonToXml(jsonInputStream, xmlOutputStream, Xml.XmlStringBuilder.Step.TWO_SPACES);
+        Path sourceRoot = Paths.get(jsonFolder);
+        Path targetRoot = Paths.get(xmlFolder);
+        return convertFolderIncrementally(
+                sourceRoot,
+                targetRoot,
+                ".json",
+                ".xml",
+                path -> covertJsonToXml(path, sourceRoot, targetRoot, identStep),
+                "json-to-xml:" + identStep);
     }
 
-    public static byte[] removeBom(byte[] bytes) {
-        if ((bytes.length >= 3) && (bytes[0] == -17) && (bytes[1] == -69) && (bytes[2] == -65)) {
-            return Arrays.copyOfRange(bytes, 3, bytes.length);
+    public static FolderConversionResult incrementalJsonFolderToXml(
+            String jsonFolder, String xmlFolder) throws IOException {
+        return incrementalJsonFolderToXml(
+                jsonFolder, xmlFolder, Xml.XmlStringBuilder.Step.TWO_SPACES);
+    }
+
+    public static FolderConversionResult incrementalXmlFolderToJson(
+            String xmlFolder, String jsonFolder, Json.JsonStringBuilder.Step identStep)
+            throws IOException {
+        Path sourceRoot = Paths.get(xmlFolder);
+        Path targetRoot = Paths.get(jsonFolder);
+        return convertFolderIncrementally(
+                sourceRoot,
+                targetRoot,
+                ".xml",
+                ".json",
+                path -> covertXmlToJson(path, sourceRoot, targetRoot, identStep),
+                "xml-to-json:" + identStep);
+    }
+
+    public static FolderConversionResult incrementalXmlFolderToJson(
+            String xmlFolder, String jsonFolder) throws IOException {
+        return incrementalXmlFolderToJson(
+                xmlFolder, jsonFolder, Json.JsonStringBuilder.Step.TWO_SPACES);
+    }
+
+    public static FolderWatcher watchJsonFolderToXml(
+            String jsonFolder,
+            String xmlFolder,
+            Xml.XmlStringBuilder.Step identStep,
+            long debounceMillis,
+            int parallelism)
+            throws IOException {
+        Path sourceRoot = Paths.get(jsonFolder);
+        Path targetRoot = Paths.get(xmlFolder);
+        return FolderWatcher.start(
+                sourceRoot,
+                targetRoot,
+                ".json",
+                ".xml",
+                path -> covertJsonToXml(path, sourceRoot, targetRoot, identStep),
+                debounceMillis,
+                parallelism);
+    }
+
+    public static FolderWatcher watchJsonFolderToXml(String jsonFolder, String xmlFolder)
+            throws IOException {
+        return watchJsonFolderToXml(
+                jsonFolder,
+                xmlFolder,
+                Xml.XmlStringBuilder.Step.TWO_SPACES,
+                WATCH_DEBOUNCE_MILLIS,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    public static FolderWatcher watchXmlFolderToJson(
+            String xmlFolder,
+            String jsonFolder,
+            Json.JsonStringBuilder.Step identStep,
+            long debounceMillis,
+            int parallelism)
+            throws IOException {
+        Path sourceRoot = Paths.get(xmlFolder);
+        Path targetRoot = Paths.get(jsonFolder);
+        return FolderWatcher.start(
+                sourceRoot,
+                targetRoot,
+                ".xml",
+                ".json",
+                path -> covertXmlToJson(path, sourceRoot, targetRoot, identStep),
+                debounceMillis,
+                parallelism);
+    }
+
+    public static FolderWatcher watchXmlFolderToJson(String xmlFolder, String jsonFolder)
+            throws IOException {
+        return watchXmlFolderToJson(
+                xmlFolder,
+                jsonFolder,
+                Json.JsonStringBuilder.Step.TWO_SPACES,
+                WATCH_DEBOUNCE_MILLIS,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    private static FolderConversionResult convertFolderIncrementally(
+            final Path sourceRoot,
+            final Path targetRoot,
+            final String sourceExtension,
+            final String targetExtension,
+            final FileConverter converter,
+            final String options)
+            throws IOException {
+        final int parallelism = Runtime.getRuntime().availableProcessors();
+        final java.util.concurrent.ExecutorService executor =
+                java.util.concurrent.Executors.newFixedThreadPool(parallelism);
+        try {
+            return convertFolder(
+                    sourceRoot,
+                    targetRoot,
+                    sourceExtension,
+                    targetExtension,
+                    converter,
+                    executor,
+                    parallelism * IN_FLIGHT_PER_THREAD,
+                    FolderManifest.load(targetRoot, options));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static final class FolderManifest {
+        private static final String FILE_NAME = ".underscore-manifest";
+        private static final String SIZE = "size";
+        private static final String MODIFIED = "modified";
+        private static final String HASH = "hash";
+        private static final String TARGET = "target";
+        private final Path targetRoot;
+        private final String options;
+        private final boolean sameOptions;
+        private final Map<String, Map<String, Object>> entries =
+                new java.util.concurrent.ConcurrentHashMap<>();
+        private final Set<String> seen = java.util.concurrent.ConcurrentHashMap.newKeySet();
+        private final Set<String> failed = java.util.concurrent.ConcurrentHashMap.newKeySet();
+
+        private FolderManifest(
+                final Path targetRoot, final String options, final boolean sameOptions) {
+            this.targetRoot = targetRoot;
+            this.options = options;
+            this.sameOptions = sameOptions;
         }
-        if ((bytes.length >= 2) && (bytes[0] == -1) && (bytes[1] == -2)) {
-            return Arrays.copyOfRange(bytes, 2, bytes.length);
+
+        @SuppressWarnings("unchecked")
+        static FolderManifest load(final Path targetRoot, final String options) throws IOException {
+            final Path file = targetRoot.resolve(FILE_NAME);
+            if (!Files.exists(file)) {
+                return new FolderManifest(targetRoot, options, true);
+            }
+            final Map<String, Object> manifest;
+            try {
+                manifest =
+                        fromJsonMap(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            } catch (Json.ParseException | ClassCastException ex) {
+                return new FolderManifest(targetRoot, options, false);
+            }
+            final FolderManifest result =
+                    new FolderManifest(
+                            targetRoot, options, options.equals(manifest.get("options")));
+            final Object files = manifest.get("files");
+            if (files instanceof Map) {
+                for (Map.Entry<String, Object> entry : ((Map<String, Object>) files).entrySet()) {
+                    if (entry.getValue() instanceof Map) {
+                        result.entries.put(entry.getKey(), (Map<String, Object>) entry.getValue());
+                    }
+                }
+            }
+            return result;
         }
-        if ((bytes.length >= 2) && (bytes[0] == -2) && (bytes[1] == -1)) {
-            return Arrays.copyOfRange(bytes, 2, bytes.length);
+
+        static String key(final Path root, final Path path) {
+            return root.relativize(path).toString().replace(java.io.File.separatorChar, '/');
         }
-        return bytes;
-    }
 
-    public static String detectEncoding(byte[] buffer) {
-        if (buffer.length < 4) {
-            return "UTF8";
+        boolean isCurrent(
+                final String key,
+                final Path source,
+                final BasicFileAttributes attrs,
+                final Path target)
+                throws IOException {
+            seen.add(key);
+            final Map<String, Object> entry = entries.get(key);
+            if (!sameOptions
+                    || entry == null
+                    || !Files.exists(target)
+                    || !(entry.get(SIZE) instanceof Number)
+                    || ((Number) entry.get(SIZE)).longValue() != attrs.size()) {
+                return false;
+            }
+            final long modified = attrs.lastModifiedTime().toMillis();
+            if (entry.get(MODIFIED) instanceof Number
+                    && ((Number) entry.get(MODIFIED)).longValue() == modified) {
+                return true;
+            }
+            if (!hash(source).equals(entry.get(HASH))) {
+                return false;
+            }
+            final Map<String, Object> updated = new LinkedHashMap<>(entry);
+            updated.put(MODIFIED, modified);
+            entries.put(key, updated);
+            return true;
+        }
+
+        void update(
+                final String key,
+                final Path source,
+                final BasicFileAttributes attrs,
+                final Path target)
+                throws IOException {
+            final Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put(SIZE, attrs.size());
+            entry.put(MODIFIED, attrs.lastModifiedTime().toMillis());
+            entry.put(HASH, hash(source));
+            entry.put(TARGET, key(targetRoot, target));
+            entries.put(key, entry);
+        }
+
+        void invalidate(final String key) {
+            seen.add(key);
+            entries.computeIfPresent(
+                    key,
+                    (entryKey, entry) -> {
+                        final Map<String, Object> stale = new LinkedHashMap<>();
+                        stale.put(TARGET, entry.get(TARGET));
+                        return stale;
+                    });
+        }
+
+        void fail(final String key) {
+            failed.add(key);
+        }
+
+        int deleteRemoved() throws IOException {
+            int deleted = 0;
+            for (Map.Entry<String, Map<String, Object>> entry : entries.entrySet()) {
+                if (!seen.contains(entry.getKey()) && !isFailed(entry.getKey())) {
+                    entries.remove(entry.getKey());
+                    final Object target = entry.getValue().get(TARGET);
+                    if (target != null
+                            && Files.deleteIfExists(targetRoot.resolve(String.valueOf(target)))) {
+                        deleted += 1;
+                    }
+                }
+            }
+            return deleted;
         }
-        String encoding = null;
+
+        private boolean isFailed(final String key) {
+            for (String failedKey : failed) {
+                if (failedKey.isEmpty()
+                        || key.equals(failedKey)
+                        || key.startsWith(failedKey + "/")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void save() throws IOException {
+            final Map<String, Object> manifest = new LinkedHashMap<>();
+            manifest.put("options", options);
+            manifest.put("files", new java.util.TreeMap<>(entries));
+            Files.createDirectories(targetRoot);
+            final Path file = targetRoot.resolve(FILE_NAME);
+            final Path tempFile = Files.createTempFile(targetRoot, FILE_NAME, ".tmp");
+            try {
+                Files.write(tempFile, toJson(manifest).getBytes(StandardCharsets.UTF_8));
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+        private static String hash(final Path path) throws IOException {
+            final java.security.MessageDigest digest;
+            try {
+                digest = java.security.MessageDigest.getInstance("SHA-256");
+            } catch (java.security.NoSuchAlgorithmException ex) {
+                throw new IllegalArgumentException(ex);
+            }
+            try (InputStream inputStream = Files.newInputStream(path)) {
+                final byte[] buffer = new byte[BUFFER_LENGTH_1024 * 8];
+                int count;
+                while ((count = inputStream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, count);
+                }
+            }
+            final StringBuilder result = new StringBuilder();
+            for (byte value : digest.digest()) {
+                result.append(String.format("%02x", value));
+            }
+            return result.toString();
+        }
+    }
+
+    private interface FileConverter {
+        void convert(Path path) throws IOException;
+    }
+
+    private static FolderConversionResult convertFolder(
+            final Path sourceRoot,
+            final Path targetRoot,
+            final String sourceExtension,
+            final String targetExtension,
+            final FileConverter converter,
+            final java.util.concurrent.Executor executor,
+            final int maxInFlight,
+            final FolderManifest manifest)
+            throws IOException {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight should be positive: " + maxInFlight);
+        }
+        final long start = System.nanoTime();
+        final java.util.concurrent.Semaphore inFlight =
+                new java.util.concurrent.Semaphore(maxInFlight);
+        final FolderConversionResult result = new FolderConversionResult();
+        try {
+            walkFolder(
+                    sourceRoot,
+                    targetRoot,
+                    sourceExtension,
+                    targetExtension,
+                    converter,
+                    executor,
+                    inFlight,
+                    manifest,
+                    result);
+        } finally {
+            acquire(inFlight, maxInFlight);
+            inFlight.release(maxInFlight);
+        }
+        if (manifest != null) {
+            result.deleted.addAndGet(manifest.deleteRemoved());
+            manifest.save();
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static void walkFolder(
+            final Path sourceRoot,
+            final Path targetRoot,
+            final String sourceExtension,
+            final String targetExtension,
+            final FileConverter converter,
+            final java.util.concurrent.Executor executor,
+            final java.util.concurrent.Semaphore inFlight,
+            final FolderManifest manifest,
+            final FolderConversionResult result)
+            throws IOException {
+        Files.walkFileTree(
+                sourceRoot,
+                new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attrs)
+                            throws IOException {
+                        if (!path.getFileName().toString().endsWith(sourceExtension)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        acquire(inFlight, 1);
+                        try {
+                            executor.execute(
+                                    () -> {
+                                        try {
+                                            convertFile(
+                                                    path,
+                                                    attrs,
+                                                    sourceRoot,
+                                                    targetRoot,
+                                                    sourceExtension,
+                                                    targetExtension,
+                                                    converter,
+                                                    manifest,
+                                                    result);
+                                        } finally {
+                                            inFlight.release();
+                                        }
+                                    });
+                        } catch (java.util.concurrent.RejectedExecutionException ex) {
+                            inFlight.release();
+                            result.addError(path, ex);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path path, IOException ex) {
+                        fail(path, ex);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path directory, IOException ex) {
+                        if (ex != null) {
+                            fail(directory, ex);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    private void fail(Path path, IOException ex) {
+                        result.addError(path, ex);
+                        if (manifest != null) {
+                            manifest.fail(FolderManifest.key(sourceRoot, path));
+                        }
+                    }
+                });
+    }
+
+    private static void convertFile(
+            final Path path,
+            final BasicFileAttributes attrs,
+            final Path sourceRoot,
+            final Path targetRoot,
+            final String sourceExtension,
+            final String targetExtension,
+            final FileConverter converter,
+            final FolderManifest manifest,
+            final FolderConversionResult result) {
+        final long fileStart = System.nanoTime();
+        final String fileName = path.getFileName().toString();
+        final Path targetPath =
+                targetRoot
+                        .resolve(sourceRoot.relativize(path))
+                        .resolveSibling(
+                                fileName.substring(0, fileName.length() - sourceExtension.length())
+                                        + targetExtension);
+        final String key = FolderManifest.key(sourceRoot, path);
+        try {
+            if (manifest != null && manifest.isCurrent(key, path, attrs, targetPath)) {
+                result.skipped.incrementAndGet();
+                return;
+            }
+            converter.convert(path);
+            result.addFile(attrs.size(), Files.size(targetPath), System.nanoTime() - fileStart);
+            if (manifest != null) {
+                manifest.update(key, path, attrs, targetPath);
+            }
+        } catch (Exception ex) {
+            if (manifest != null) {
+                manifest.invalidate(key);
+            }
+            result.addError(path, ex);
+        } catch (StackOverflowError ex) {
+            if (manifest != null) {
+                manifest.invalidate(key);
+            }
+            result.addError(path, new IllegalArgumentException(ex));
+        }
+    }
+
+    private static void acquire(final java.util.concurrent.Semaphore semaphore, final int permits)
+            throws java.io.InterruptedIOException {
+        try {
+            semaphore.acquire(permits);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new java.io.InterruptedIOException(ex.getMessage());
+        }
+    }
+
+    public static class FolderConversionResult {
+        private final java.util.concurrent.atomic.AtomicInteger files =
+                new java.util.concurrent.atomic.AtomicInteger();
+        private final java.util.concurrent.atomic.AtomicLong sourceBytes =
+                new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.AtomicLong targetBytes =
+                new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.AtomicLong conversionNanos =
+                new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.AtomicInteger skipped =
+                new java.util.concurrent.atomic.AtomicInteger();
+        private final java.util.concurrent.atomic.AtomicInteger deleted =
+                new java.util.concurrent.atomic.AtomicInteger();
+        private final Map<Path, Exception> errors =
+                new java.util.concurrent.ConcurrentSkipListMap<>();
+        private volatile long elapsedNanos;
+
+        private void addFile(final long sourceSize, final long targetSize, final long nanos) {
+            files.incrementAndGet();
+            sourceBytes.addAndGet(sourceSize);
+            targetBytes.addAndGet(targetSize);
+            conversionNanos.addAndGet(nanos);
+        }
+
+        private void addError(final Path path, final Exception ex) {
+            errors.put(path, ex);
+        }
+
+        public int getFiles() {
+            return files.get();
+        }
+
+        public int getSkipped() {
+            return skipped.get();
+        }
+
+        public int getDeleted() {
+            return deleted.get();
+        }
+
+        public long getSourceBytes() {
+            return sourceBytes.get();
+        }
+
+        public long getTargetBytes() {
+            return targetBytes.get();
+        }
+
+        public java.time.Duration getElapsed() {
+            return java.time.Duration.ofNanos(elapsedNanos);
+        }
+
+        public java.time.Duration getConversionTime() {
+            return java.time.Duration.ofNanos(conversionNanos.get());
+        }
+
+        public Map<Path, Exception> getErrors() {
+            return Collections.unmodifiableMap(errors);
+        }
+    }
+
+    public static final class FolderWatcher implements java.io.Closeable {
+        private final Path sourceRoot;
+        private final Path targetRoot;
+        private final String sourceExtension;
+        private final String targetExtension;
+        private final FileConverter converter;
+        private final long debounceNanos;
+        private final java.nio.file.WatchService watchService;
+        private final Map<java.nio.file.WatchKey, Path> directories =
+                new java.util.concurrent.ConcurrentHashMap<>();
+        private final Map<Path, Long> lastEvents = new java.util.concurrent.ConcurrentHashMap<>();
+        private final java.util.concurrent.ScheduledExecutorService scheduler;
+        private final java.util.concurrent.ExecutorService workers;
+        private final java.util.concurrent.Semaphore inFlight;
+        private final FolderConversionResult result = new FolderConversionResult();
+        private final long start = System.nanoTime();
+        private final Thread thread;
+        private volatile boolean closed;
+
+        private FolderWatcher(
+                final Path sourceRoot,
+                final Path targetRoot,
+                final String sourceExtension,
+                final String targetExtension,
+                final FileConverter converter,
+                final long debounceMillis,
+                final int parallelism)
+                throws IOException {
+            if (debounceMillis < 0 || parallelism < 1) {
+                throw new IllegalArgumentException(
+                        "debounceMillis: " + debounceMillis + ", parallelism: " + parallelism);
+            }
+            this.sourceRoot = sourceRoot;
+            this.targetRoot = targetRoot;
+            this.sourceExtension = sourceExtension;
+            this.targetExtension = targetExtension;
+            this.converter = converter;
+            this.debounceNanos = java.util.concurrent.TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+            this.watchService = sourceRoot.getFileSystem().newWatchService();
+            try {
+                registerAll(sourceRoot, false);
+            } catch (IOException | RuntimeException ex) {
+                watchService.close();
+                throw ex;
+            }
+            this.scheduler =
+                    java.util.concurrent.Executors.newSingleThreadScheduledExecutor(
+                            daemonThreads("underscore-watch-scheduler"));
+            this.workers =
+                    java.util.concurrent.Executors.newFixedThreadPool(
+                            parallelism, daemonThreads("underscore-watch-worker"));
+            this.inFlight = new java.util.concurrent.Semaphore(parallelism * IN_FLIGHT_PER_THREAD);
+            this.thread = daemonThreads("underscore-watch").newThread(this::processEvents);
+        }
+
+        private static FolderWatcher start(
+                final Path sourceRoot,
+                final Path targetRoot,
+                final String sourceExtension,
+                final String targetExtension,
+                final FileConverter converter,
+                final long debounceMillis,
+                final int parallelism)
+                throws IOException {
+            final FolderWatcher watcher =
+                    new FolderWatcher(
+                            sourceRoot,
+                            targetRoot,
+                            sourceExtension,
+                            targetExtension,
+                            converter,
+                            debounceMillis,
+                            parallelism);
+            watcher.thread.start();
+            return watcher;
+        }
+
+        private static java.util.concurrent.ThreadFactory daemonThreads(final String name) {
+            return runnable -> {
+                final Thread newThread = new Thread(runnable, name);
+                newThread.setDaemon(true);
+                return newThread;
+            };
+        }
+
+        private void registerAll(final Path root, final boolean scheduleFiles) throws IOException {
+            Files.walkFileTree(
+                    root,
+                    new SimpleFileVisitor<>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(
+                                Path dir, BasicFileAttributes attrs) throws IOException {
+                            directories.put(
+                                    dir.register(
+                                            watchService,
+                                            java.nio.file.StandardWatchEventKinds.ENTRY_CREATE,
+                                            java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY),
+                                    dir);
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                            if (scheduleFiles && isSource(path)) {
+                                schedule(path);
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path path, IOException ex) {
+                            result.addError(path, ex);
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        }
+
+        private boolean isSource(final Path path) {
+            return path.getFileName().toString().endsWith(sourceExtension);
+        }
+
+        private void processEvents() {
+            try {
+                while (!closed) {
+                    final java.nio.file.WatchKey key = watchService.take();
+                    final Path directory = directories.get(key);
+                    for (java.nio.file.WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == java.nio.file.StandardWatchEventKinds.OVERFLOW) {
+                            register(sourceRoot);
+                        } else if (directory != null) {
+                            onEvent(event, directory.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        directories.remove(key);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (java.nio.file.ClosedWatchServiceException ex) {
+                // closed while waiting for events
+            }
+        }
+
+        private void onEvent(final java.nio.file.WatchEvent<?> event, final Path path) {
+            if (Files.isDirectory(path, java.nio.file.LinkOption.NOFOLLOW_LINKS)) {
+                if (event.kind() == java.nio.file.StandardWatchEventKinds.ENTRY_CREATE) {
+                    register(path);
+                }
+            } else if (isSource(path)) {
+                schedule(path);
+            }
+        }
+
+        private void register(final Path root) {
+            try {
+                registerAll(root, true);
+            } catch (IOException ex) {
+                result.addError(root, ex);
+            }
+        }
+
+        private void schedule(final Path path) {
+            if (lastEvents.put(path, System.nanoTime()) == null) {
+                schedule(path, debounceNanos);
+            }
+        }
+
+        private void schedule(final Path path, final long delayNanos) {
+            try {
+                scheduler.schedule(
+                        () -> fire(path), delayNanos, java.util.concurrent.TimeUnit.NANOSECONDS);
+            } catch (java.util.concurrent.RejectedExecutionException ex) {
+                lastEvents.remove(path);
+            }
+        }
+
+        private void fire(final Path path) {
+            final Long lastEvent = lastEvents.get(path);
+            if (lastEvent == null) {
+                return;
+            }
+            final long remaining = lastEvent + debounceNanos - System.nanoTime();
+            if (remaining > 0 || !lastEvents.remove(path, lastEvent)) {
+                schedule(path, Math.max(remaining, 0L));
+                return;
+            }
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                workers.execute(
+                        () -> {
+                            try {
+                                convert(path);
+                            } finally {
+                                inFlight.release();
+                            }
+                        });
+            } catch (java.util.concurrent.RejectedExecutionException ex) {
+                inFlight.release();
+            }
+        }
+
+        private void convert(final Path path) {
+            final BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (java.nio.file.NoSuchFileException ex) {
+                return;
+            } catch (IOException ex) {
+                result.addError(path, ex);
+                return;
+            }
+            result.errors.remove(path);
+            convertFile(
+                    path,
+                    attrs,
+                    sourceRoot,
+                    targetRoot,
+                    sourceExtension,
+                    targetExtension,
+                    converter,
+                    null,
+                    result);
+        }
+
+        public FolderConversionResult getResult() {
+            result.elapsedNanos = System.nanoTime() - start;
+            return result;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            watchService.close();
+            scheduler.shutdownNow();
+            workers.shutdown();
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, java.util.concurrent.TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new java.io.InterruptedIOException(ex.getMessage());
+            } finally {
+                result.elapsedNanos = System.nanoTime() - start;
+            }
+        }
+    }
+
+    public static void covertXmlToJson(
+            Path path, Path sourceRoot, Path targetRoot, Json.JsonStringBuilder.Step identStep)
+            throws IOException {
+        Path relativePath = sourceRoot.relativize(path);
+        String fileName = relativePath.getFileName().toString();
+        String xmlFileName;
+        if (fileName.endsWith(".xml")) {
+            xmlFileName = fileName.substring(0, fileName.length() - 4) + ".json";
+        } else {
+            return;
+        }
+        Path targetPath = targetRoot.resolve(relativePath).getParent().resolve(xmlFileName);
+        Files.createDirectories(targetPath.getParent());
+        fileXmlToJson(path.toAbsolutePath().toString(), targetPath.toString(), identStep);
+    }
+
+    public static void streamJsonToXml(
+            InputStream jsonInputStream,
+            OutputStream xmlOutputStream,
+            Xml.XmlStringBuilder.Step identStep)
+            throws IOException {
+        String jsonText = readText(openText(jsonInputStream), 0);
+        Object jsonObject = U.fromJson(jsonText);
+        String lineSeparator = System.lineSeparator();
+        String xml;
+        if (jsonObject instanceof Map) {
+            xml = formatString(Xml.toXml((Map<?, ?>) jsonObject, identStep), lineSeparator);
+            if (((Map) jsonObject).containsKey(ENCODING)) {
+                String encoding = String.valueOf(((Map) jsonObject).get(ENCODING));
+                xmlOutputStream.write(xml.getBytes(encoding));
+            } else {
+                xmlOutputStream.write(xml.getBytes(StandardCharsets.UTF_8));
+            }
+        } else {
+            xml = formatString(Xml.toXml((List<?>) jsonObject, identStep), lineSeparator);
+            xmlOutputStream.write(xml.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    public static void streamJsonToXml(InputStream jsonInputStream, OutputStream xmlOutputStream)
+            throws IOException {
+        streamJsonToXml(jsonInputStream, xmlOutputStream, Xml.XmlStringBuilder.Step.TWO_SPACES);
+    }
+
+    public static byte[] removeBom(byte[] bytes) {
+        final int bomLength = bomLength(bytes);
+        return bomLength == 0 ? bytes : Arrays.copyOfRange(bytes, bomLength, bytes.length);
+    }
+
+    private static int bomLength(byte[] bytes) {
+        if ((bytes.length >= 3) && (bytes[0] == -17) && (bytes[1] == -69) && (bytes[2] == -65)) {
+            return 3;
+        }
+        if ((bytes.length >= 2)
+                && ((bytes[0] == -1) && (bytes[1] == -2) || (bytes[0] == -2) && (bytes[1] == -1))) {
+            return 2;
+        }
+        return 0;
+    }
+
+    public static Reader openText(InputStream inputStream) throws IOException {
+        final BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
+        bufferedInputStream.mark(4);
+        final byte[] bytes = bufferedInputStream.readNBytes(4);
+        bufferedInputStream.reset();
+        bufferedInputStream.readNBytes(bomLength(bytes));
+        return new InputStreamReader(bufferedInputStream, detectEncoding(bytes));
+    }
+
+    public static Reader openText(Path path) throws IOException {
+        return openText(Files.newInputStream(path));
+    }
+
+    private static String readText(Path path) throws IOException {
+        try (Reader reader = openText(path)) {
+            return readText(reader, Files.size(path));
+        }
+    }
+
+    private static String readText(Reader reader, long sizeHint) throws IOException {
+        final StringBuilder builder =
+                new StringBuilder((int) Math.min(Math.max(sizeHint, 16), Integer.MAX_VALUE - 8));
+        final char[] buffer = new char[8192];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, count);
+        }
+        return builder.toString();
+    }
+
+    public static String detectEncoding(byte[] buffer) {
+        if (buffer.length < 4) {
+            return "UTF8";
+        }
+        String encoding = null;
         int n =
                 ((buffer[0] & 0xFF) << 24)
                         | ((buffer[1] & 0xFF) << 16)
@@ -3062,20 +4900,12 @@ public class U<T> extends Underscore<T> {
 
     public static String mergeXmlsOrJsonsToJson(
             List<String> xmlsOrJsons, Json.JsonStringBuilder.Step identStep) {
-        Map<String, Object> resultJsonMap = new LinkedHashMap<>();
-        for (String xmlOrJsonToJson : xmlsOrJsons) {
-            TextType textType = getTextType(xmlOrJsonToJson);
-            final Map<String, Object> jsonOrXmlMap;
-            if (textType == TextType.JSON) {
-                jsonOrXmlMap = fromJsonMap(xmlOrJsonToJson);
-            } else if (textType == TextType.XML) {
-                jsonOrXmlMap = fromXmlMap(xmlOrJsonToJson);
-            } else {
-                continue;
-            }
-            resultJsonMap = U.update(resultJsonMap, jsonOrXmlMap);
-        }
-        return resultJsonMap.isEmpty() ? "" : Json.toJson(resultJsonMap, identStep);
+        return new XmlOrJsonMerger().addAll(xmlsOrJsons).toJson(identStep);
+    }
+
+    public static String mergeXmlsOrJsonsToJson(
+            List<String> xmlsOrJsons, Json.JsonStringBuilder.Step identStep, int parallelism) {
+        return new XmlOrJsonMerger().addAll(xmlsOrJsons, parallelism).toJson(identStep);
     }
 
     public static String mergeXmlsOrJsonsToJson(List<String> xmlsOrJsons) {
@@ -3084,49 +4914,175 @@ public class U<T> extends Underscore<T> {
 
     public static String mergeXmlsOrJsonsToXml(
             List<String> xmlsOrJsons, Xml.XmlStringBuilder.Step identStep) {
-        Map<String, Object> resultXmlMap = new LinkedHashMap<>();
-        for (String xmlOrJsonToXml : xmlsOrJsons) {
-            TextType textType = getTextType(xmlOrJsonToXml);
-            final Map<String, Object> jsonOrXmlMap;
-            if (textType == TextType.JSON) {
-                jsonOrXmlMap = fromJsonMap(xmlOrJsonToXml);
-            } else if (textType == TextType.XML) {
-                jsonOrXmlMap = fromXmlMap(xmlOrJsonToXml);
-            } else {
-                continue;
-            }
-            resultXmlMap = U.update(resultXmlMap, jsonOrXmlMap);
-        }
-        return resultXmlMap.isEmpty() ? "" : Xml.toXml(resultXmlMap, identStep);
+        return new XmlOrJsonMerger().addAll(xmlsOrJsons).toXml(identStep);
+    }
+
+    public static String mergeXmlsOrJsonsToXml(
+            List<String> xmlsOrJsons, Xml.XmlStringBuilder.Step identStep, int parallelism) {
+        return new XmlOrJsonMerger().addAll(xmlsOrJsons, parallelism).toXml(identStep);
     }
 
     public static String mergeXmlsOrJsonsToXml(List<String> xmlsOrJsons) {
         return mergeXmlsOrJsonsToXml(xmlsOrJsons, Xml.XmlStringBuilder.Step.TWO_SPACES);
     }
 
-    @SuppressWarnings("unchecked")
-    private static String getJsonString(Json.JsonStringBuilder.Step identStep, Object object) {
-        final String result;
-        if (object instanceof Map) {
-            result = Json.toJson((Map) object, identStep);
-        } else {
-            result = Json.toJson((List) object, identStep);
-        }
-        return result;
-    }
+    public static class XmlOrJsonMerger {
+        private final Map<String, Object> result = new LinkedHashMap<>();
+        private final Map<List<Object>, Set<Object>> listItems = new java.util.IdentityHashMap<>();
 
-    public static String xmlOrJsonToXml(String xmlOrJson, Xml.XmlStringBuilder.Step identStep) {
-        TextType textType = getTextType(xmlOrJson);
-        final String result;
-        if (textType == TextType.JSON) {
-            result = getXmlString(identStep, fromJson(xmlOrJson));
-        } else if (textType == TextType.XML) {
-            result = getXmlString(identStep, fromXml(xmlOrJson));
-        } else {
-            result = xmlOrJson;
+        public XmlOrJsonMerger add(final String xmlOrJson) {
+            return addMap(parseXmlOrJsonMap(xmlOrJson));
         }
-        return result;
-    }
+
+        public XmlOrJsonMerger addAll(final List<String> xmlsOrJsons) {
+            for (String xmlOrJson : xmlsOrJsons) {
+                add(xmlOrJson);
+            }
+            return this;
+        }
+
+        public XmlOrJsonMerger addAll(final List<String> xmlsOrJsons, final int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException(
+                        "Parallelism should be positive: " + parallelism);
+            }
+            if (parallelism == 1) {
+                return addAll(xmlsOrJsons);
+            }
+            final int maxInFlight = parallelism * IN_FLIGHT_PER_THREAD;
+            final java.util.concurrent.ExecutorService executor =
+                    java.util.concurrent.Executors.newFixedThreadPool(parallelism);
+            try {
+                final java.util.Deque<java.util.concurrent.Future<Map<String, Object>>> parsed =
+                        new java.util.ArrayDeque<>();
+                for (String xmlOrJson : xmlsOrJsons) {
+                    if (parsed.size() == maxInFlight) {
+                        addMap(getParsed(parsed.poll()));
+                    }
+                    parsed.add(executor.submit(() -> parseXmlOrJsonMap(xmlOrJson)));
+                }
+                while (!parsed.isEmpty()) {
+                    addMap(getParsed(parsed.poll()));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            return this;
+        }
+
+        public Map<String, Object> getResult() {
+            return result;
+        }
+
+        public String toJson(final Json.JsonStringBuilder.Step identStep) {
+            return result.isEmpty() ? "" : Json.toJson(result, identStep);
+        }
+
+        public String toXml(final Xml.XmlStringBuilder.Step identStep) {
+            return result.isEmpty() ? "" : Xml.toXml(result, identStep);
+        }
+
+        private XmlOrJsonMerger addMap(final Map<String, Object> map) {
+            if (map != null) {
+                mergeMap(result, map);
+            }
+            return this;
+        }
+
+        private Map<String, Object> mergeMap(
+                final Map<String, Object> target, final Map<String, Object> source) {
+            final Map<String, Object> map =
+                    target instanceof LinkedHashMap ? target : new LinkedHashMap<>(target);
+            for (Map.Entry<String, Object> entry : source.entrySet()) {
+                final String key = entry.getKey();
+                if (map.containsKey(key)) {
+                    map.put(key, mergeValue(map.get(key), entry.getValue()));
+                } else {
+                    map.put(key, entry.getValue());
+                }
+            }
+            return map;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object mergeValue(final Object value1, final Object value2) {
+            if (value1 instanceof Map && value2 instanceof Map) {
+                return mergeMap((Map<String, Object>) value1, (Map<String, Object>) value2);
+            }
+            if (!(value1 instanceof List) && !(value2 instanceof List)) {
+                return value2;
+            }
+            final List<Object> list;
+            if (value1 instanceof ArrayList) {
+                list = (List<Object>) value1;
+            } else if (value1 instanceof List) {
+                list = new ArrayList<>((List<Object>) value1);
+            } else {
+                list = newArrayList(value1);
+            }
+            final Set<Object> items = listItems.computeIfAbsent(list, HashSet::new);
+            final int size = list.size();
+            final List<Object> newItems =
+                    value2 instanceof List ? (List<Object>) value2 : newArrayList(value2);
+            for (Object item : newItems) {
+                if (!items.contains(item)) {
+                    list.add(item);
+                }
+            }
+            items.addAll(list.subList(size, list.size()));
+            return list;
+        }
+
+        private static Map<String, Object> getParsed(
+                final java.util.concurrent.Future<Map<String, Object>> future) {
+            try {
+                return future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            } catch (java.util.concurrent.ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IllegalArgumentException(ex.getCause());
+            }
+        }
+
+        private static Map<String, Object> parseXmlOrJsonMap(final String xmlOrJson) {
+            final TextType textType = getTextType(xmlOrJson);
+            if (textType == TextType.JSON) {
+                return fromJsonMap(xmlOrJson);
+            }
+            if (textType == TextType.XML) {
+                return fromXmlMap(xmlOrJson);
+            }
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String getJsonString(Json.JsonStringBuilder.Step identStep, Object object) {
+        final String result;
+        if (object instanceof Map) {
+            result = Json.toJson((Map) object, identStep);
+        } else {
+            result = Json.toJson((List) object, identStep);
+        }
+        return result;
+    }
+
+    public static String xmlOrJsonToXml(String xmlOrJson, Xml.XmlStringBuilder.Step identStep) {
+        TextType textType = getTextType(xmlOrJson);
+        final String result;
+        if (textType == TextType.JSON) {
+            result = getXmlString(identStep, fromJson(xmlOrJson));
+        } else if (textType == TextType.XML) {
+            result = getXmlString(identStep, fromXml(xmlOrJson));
+        } else {
+            result = xmlOrJson;
+        }
+        return result;
+    }
 
     public static String xmlOrJsonToXml(String xmlOrJson) {
         return xmlOrJsonToXml(xmlOrJson, Xml.XmlStringBuilder.Step.TWO_SPACES);
@@ -3188,6 +5144,12 @@ public class U<T> extends Underscore<T> {
         return Json.formatJson(json);
     }
 
+    public static void formatJson(
+            java.io.Reader json, java.io.Writer writer, Json.JsonStringBuilder.Step identStep)
+            throws java.io.IOException {
+        Json.formatJson(json, writer, identStep);
+    }
+
     public static String formatXml(String xml, Xml.XmlStringBuilder.Step identStep) {
         return Xml.formatXml(xml, identStep);
     }
@@ -3196,6 +5158,12 @@ public class U<T> extends Underscore<T> {
         return Xml.formatXml(xml);
     }
 
+    public static void formatXml(
+            java.io.Reader xml, java.io.Writer writer, Xml.XmlStringBuilder.Step identStep)
+            throws java.io.IOException {
+        Xml.formatXml(xml, writer, identStep);
+    }
+
     public static String changeXmlEncoding(
             String xml, Xml.XmlStringBuilder.Step identStep, String encoding) {
         return Xml.changeXmlEncoding(xml, identStep, encoding);
@@ -3206,7 +5174,7 @@ public class U<T> extends Underscore<T> {
     }
 
     public static Map<String, Object> removeMinusesAndConvertNumbers(Map<String, Object> map) {
-        Map<String, Object> outMap = new LinkedHashMap<>();
+        final MapCopy outMap = new MapCopy(map);
         for (Map.Entry<String, Object> entry : map.entrySet()) {
             final String newKey;
             if (entry.getKey().startsWith("-")) {
@@ -3215,29 +5183,36 @@ public class U<T> extends Underscore<T> {
                 newKey = entry.getKey();
             }
             if (!entry.getKey().equals(SELF_CLOSING) && !entry.getKey().equals(OMIT_XML_DECL)) {
-                outMap.put(newKey, makeObject(entry.getValue()));
+                outMap.put(entry, newKey, makeObject(entry.getValue()));
+            } else {
+                outMap.skip();
             }
         }
-        return outMap;
+        return outMap.result();
     }
 
     @SuppressWarnings("unchecked")
     private static Object makeObject(Object value) {
         final Object result;
         if (value instanceof List) {
-            List<Object> values = new ArrayList<>();
-            for (Object item : (List) value) {
-                values.add(
-                        item instanceof Map
-                                ? removeMinusesAndConvertNumbers((Map<String, Object>) item)
-                                : item);
-            }
-            result = values;
+            result =
+                    copyOnWriteList(
+                            (List<Object>) value,
+                            item ->
+                                    item instanceof Map
+                                            ? removeMinusesAndConvertNumbers(
+                                                    (Map<String, Object>) item)
+                                            : item);
         } else if (value instanceof Map) {
             result = removeMinusesAndConvertNumbers((Map) value);
         } else {
             String stringValue = String.valueOf(value);
-            result = isJsonNumber(stringValue) ? Xml.stringToNumber(stringValue) : value;
+            if (isJsonNumber(stringValue)) {
+                final Object number = Xml.stringToNumber(stringValue);
+                result = number.equals(value) ? value : number;
+            } else {
+                result = value;
+            }
         }
         return result;
     }
@@ -3287,37 +5262,35 @@ public class U<T> extends Underscore<T> {
         return Collections.emptyMap();
     }
 
-    @SuppressWarnings("unchecked")
     public static Object replaceSelfClosingWithValue(Map<String, Object> map, String value) {
-        Object outMap = new LinkedHashMap<>();
+        final MapCopy outMap = new MapCopy(map);
         for (Map.Entry<String, Object> entry : map.entrySet()) {
             if (SELF_CLOSING.equals(entry.getKey()) && "true".equals(entry.getValue())) {
                 if (map.size() == 1) {
-                    outMap = value;
-                    break;
+                    return value;
                 }
+                outMap.skip();
             } else {
-                ((Map<String, Object>) outMap)
-                        .put(
-                                String.valueOf(entry.getKey()),
-                                makeObjectSelfClose(entry.getValue(), value));
+                outMap.put(
+                        entry,
+                        String.valueOf(entry.getKey()),
+                        makeObjectSelfClose(entry.getValue(), value));
             }
         }
-        return outMap;
+        return outMap.result();
     }
 
     @SuppressWarnings("unchecked")
     private static Object makeObjectSelfClose(Object value, String newValue) {
         final Object result;
         if (value instanceof List) {
-            List<Object> values = new ArrayList<>();
-            for (Object item : (List) value) {
-                values.add(
-                        item instanceof Map
-                                ? replaceSelfClosingWithValue((Map) item, newValue)
-                                : item);
-            }
-            result = values;
+            result =
+                    copyOnWriteList(
+                            (List<Object>) value,
+                            item ->
+                                    item instanceof Map
+                                            ? replaceSelfClosingWithValue((Map) item, newValue)
+                                            : item);
         } else if (value instanceof Map) {
             result = replaceSelfClosingWithValue((Map) value, newValue);
         } else {
@@ -3330,26 +5303,26 @@ public class U<T> extends Underscore<T> {
         if (map == null) {
             return null;
         }
-        Map<String, Object> outMap = new LinkedHashMap<>();
+        final MapCopy outMap = new MapCopy(map);
         for (Map.Entry<String, Object> entry : map.entrySet()) {
             outMap.put(
+                    entry,
                     String.valueOf(entry.getKey()).startsWith("-")
                             ? "@" + String.valueOf(entry.getKey()).substring(1)
                             : String.valueOf(entry.getKey()),
                     replaceMinusWithAtValue(entry.getValue()));
         }
-        return outMap;
+        return outMap.result();
     }
 
     @SuppressWarnings("unchecked")
     private static Object replaceMinusWithAtValue(Object value) {
         final Object result;
         if (value instanceof List) {
-            List<Object> values = new ArrayList<>();
-            for (Object item : (List) value) {
-                values.add(item instanceof Map ? replaceMinusWithAt((Map) item) : item);
-            }
-            result = values;
+            result =
+                    copyOnWriteList(
+                            (List<Object>) value,
+                            item -> item instanceof Map ? replaceMinusWithAt((Map) item) : item);
         } else if (value instanceof Map) {
             result = replaceMinusWithAt((Map) value);
         } else {
@@ -3362,22 +5335,27 @@ public class U<T> extends Underscore<T> {
         if (map == null || map.isEmpty()) {
             return null;
         }
-        Map<String, Object> outMap = new LinkedHashMap<>();
+        final MapCopy outMap = new MapCopy(map);
         for (Map.Entry<String, Object> entry : map.entrySet()) {
-            outMap.put(String.valueOf(entry.getKey()), makeObjectEmptyValue(entry.getValue()));
+            outMap.put(
+                    entry,
+                    String.valueOf(entry.getKey()),
+                    makeObjectEmptyValue(entry.getValue()));
         }
-        return outMap;
+        return outMap.result();
     }
 
     @SuppressWarnings("unchecked")
     private static Object makeObjectEmptyValue(Object value) {
         final Object result;
         if (value instanceof List) {
-            List<Object> values = new ArrayList<>();
-            for (Object item : (List) value) {
-                values.add(item instanceof Map ? replaceEmptyValueWithNull((Map) item) : item);
-            }
-            result = values;
+            result =
+                    copyOnWriteList(
+                            (List<Object>) value,
+                            item ->
+                                    item instanceof Map
+                                            ? replaceEmptyValueWithNull((Map) item)
+                                            : item);
         } else if (value instanceof Map) {
             result = replaceEmptyValueWithNull((Map) value);
         } else {
@@ -3390,253 +5368,1126 @@ public class U<T> extends Underscore<T> {
         if (map.isEmpty()) {
             return "";
         }
-        Map<String, Object> outMap = new LinkedHashMap<>();
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            outMap.put(String.valueOf(entry.getKey()), makeObjectEmptyString(entry.getValue()));
+        final MapCopy outMap = new MapCopy(map);
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            outMap.put(
+                    entry,
+                    String.valueOf(entry.getKey()),
+                    makeObjectEmptyString(entry.getValue()));
+        }
+        return outMap.result();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object makeObjectEmptyString(Object value) {
+        final Object result;
+        if (value instanceof List) {
+            result =
+                    copyOnWriteList(
+                            (List<Object>) value,
+                            item ->
+                                    item instanceof Map
+                                            ? replaceEmptyValueWithEmptyString((Map) item)
+                                            : item);
+        } else if (value instanceof Map) {
+            result = replaceEmptyValueWithEmptyString((Map) value);
+        } else {
+            result = value;
+        }
+        return result;
+    }
+
+    public static Map<String, Object> forceAttributeUsage(Map<String, Object> map) {
+        final MapCopy outMap = new MapCopy(map);
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            outMap.put(
+                    entry,
+                    entry.getValue() instanceof Map
+                                    || entry.getValue() instanceof List
+                                    || String.valueOf(entry.getKey()).startsWith("-")
+                            ? String.valueOf(entry.getKey())
+                            : "-" + entry.getKey(),
+                    makeAttributeUsage(entry.getValue()));
+        }
+        return outMap.result();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object makeAttributeUsage(Object value) {
+        final Object result;
+        if (value instanceof List) {
+            result =
+                    copyOnWriteList(
+                            (List<Object>) value,
+                            item -> item instanceof Map ? forceAttributeUsage((Map) item) : item);
+        } else if (value instanceof Map) {
+            result = forceAttributeUsage((Map) value);
+        } else {
+            result = value;
+        }
+        return result;
+    }
+
+    public static Map<String, Object> replaceNullWithEmptyValue(Map<String, Object> map) {
+        final MapCopy outMap = new MapCopy(map);
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            outMap.put(
+                    entry,
+                    entry.getKey(),
+                    entry.getValue() == null
+                            ? new LinkedHashMap<>()
+                            : makeReplaceNullValue(entry.getValue()));
+        }
+        return outMap.result();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object makeReplaceNullValue(Object value) {
+        final Object result;
+        if (value instanceof List) {
+            result =
+                    copyOnWriteList(
+                            (List<Object>) value,
+                            item ->
+                                    item instanceof Map
+                                            ? replaceNullWithEmptyValue((Map) item)
+                                            : item);
+        } else if (value instanceof Map) {
+            result = replaceNullWithEmptyValue((Map) value);
+        } else {
+            result = value;
+        }
+        return result;
+    }
+
+    public static Map<String, Object> replaceEmptyStringWithEmptyValue(Map<String, Object> map) {
+        final MapCopy outMap = new MapCopy(map);
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            outMap.put(
+                    entry,
+                    entry.getKey(),
+                    "".equals(entry.getValue())
+                            ? new LinkedHashMap<>()
+                            : makeReplaceEmptyString(entry.getValue()));
+        }
+        return outMap.result();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object makeReplaceEmptyString(Object value) {
+        final Object result;
+        if (value instanceof List) {
+            result =
+                    copyOnWriteList(
+                            (List<Object>) value,
+                            item ->
+                                    item instanceof Map
+                                            ? replaceEmptyStringWithEmptyValue((Map) item)
+                                            : item);
+        } else if (value instanceof Map) {
+            result = replaceEmptyStringWithEmptyValue((Map) value);
+        } else {
+            result = value;
+        }
+        return result;
+    }
+
+    public static Map<String, Object> replaceNumberAndBooleanWithString(Map<String, Object> map) {
+        final MapCopy outMap = new MapCopy(map);
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            outMap.put(
+                    entry,
+                    entry.getKey(),
+                    entry.getValue() instanceof Boolean || entry.getValue() instanceof Number
+                            ? String.valueOf(entry.getValue())
+                            : makeReplaceNumberAndBoolean(entry.getValue()));
+        }
+        return outMap.result();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object makeReplaceNumberAndBoolean(Object value) {
+        final Object result;
+        if (value instanceof List) {
+            result =
+                    copyOnWriteList(
+                            (List<Object>) value,
+                            item -> {
+                                if (item instanceof Map) {
+                                    return replaceNumberAndBooleanWithString((Map) item);
+                                } else if (item instanceof Number
+                                        || item instanceof Boolean
+                                        || isNull(item)) {
+                                    return String.valueOf(item);
+                                }
+                                return item;
+                            });
+        } else if (value instanceof Map) {
+            result = replaceNumberAndBooleanWithString((Map) value);
+        } else if (isNull(value)) {
+            result = "null";
+        } else {
+            result = value;
+        }
+        return result;
+    }
+
+    public static Map<String, Object> replaceFirstLevel(Map<String, Object> map) {
+        return replaceFirstLevel(map, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> replaceFirstLevel(Map<String, Object> map, int level) {
+        final MapCopy outMap = new MapCopy(map);
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            outMap.put(
+                    entry, entry.getKey(), makeReplaceFirstLevel(entry.getValue(), level + 1));
+        }
+        if (level == 0 && Xml.XmlValue.getMapValue(outMap.result()) instanceof Map) {
+            Map<String, Object> outMap2 =
+                    (Map<String, Object>) Xml.XmlValue.getMapValue(outMap.result());
+            if (SELF_CLOSING.equals(Xml.XmlValue.getMapKey(outMap2))
+                    && "true".equals(Xml.XmlValue.getMapValue(outMap2))) {
+                outMap2 = new LinkedHashMap<>(outMap2);
+                outMap2.remove(SELF_CLOSING);
+            }
+            return outMap2;
+        }
+        return outMap.result();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object makeReplaceFirstLevel(Object value, int level) {
+        final Object result;
+        if (value instanceof List) {
+            result =
+                    copyOnWriteList(
+                            (List<Object>) value,
+                            item ->
+                                    item instanceof Map
+                                            ? replaceFirstLevel((Map) item, level + 1)
+                                            : item);
+        } else if (value instanceof Map) {
+            result = replaceFirstLevel((Map) value, level + 1);
+        } else {
+            result = value;
+        }
+        return result;
+    }
+
+    public static Map<String, Object> replaceNilWithNull(Map<String, Object> map) {
+        final MapCopy outMap = new MapCopy(map);
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            Object outValue = makeReplaceNilWithNull(entry.getValue());
+            if (outValue instanceof Map
+                    && (NIL_KEY.equals(Xml.XmlValue.getMapKey(outValue))
+                            || Xml.XmlValue.getMapKey(outValue).endsWith(":nil"))
+                    && "true".equals(Xml.XmlValue.getMapValue(outValue))
+                    && ((Map) outValue).containsKey(SELF_CLOSING)
+                    && "true".equals(((Map) outValue).get(SELF_CLOSING))) {
+                outValue = null;
+            }
+            outMap.put(entry, entry.getKey(), outValue);
+        }
+        return outMap.result();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object makeReplaceNilWithNull(Object value) {
+        final Object result;
+        if (value instanceof List) {
+            result =
+                    copyOnWriteList(
+                            (List<Object>) value,
+                            item -> item instanceof Map ? replaceNilWithNull((Map) item) : item);
+        } else if (value instanceof Map) {
+            result = replaceNilWithNull((Map) value);
+        } else {
+            result = value;
+        }
+        return result;
+    }
+
+    public static Map<String, Object> deepCopyMap(Map<String, Object> map) {
+        Map<String, Object> outMap = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            outMap.put(entry.getKey(), makeDeepCopyMap(entry.getValue()));
+        }
+        return outMap;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object makeDeepCopyMap(Object value) {
+        final Object result;
+        if (value instanceof List) {
+            List<Object> values = new ArrayList<>();
+            for (Object item : (List) value) {
+                values.add(item instanceof Map ? deepCopyMap((Map) item) : item);
+            }
+            result = values;
+        } else if (value instanceof Map) {
+            result = deepCopyMap((Map) value);
+        } else {
+            result = value;
+        }
+        return result;
+    }
+
+    public static PersistentMap<String, Object> persistentCopyMap(final Map<String, Object> map) {
+        return PersistentMap.of(map, U::makePersistentCopy);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object makePersistentCopy(final Object value) {
+        final Object result;
+        if (isPersistent(value)) {
+            result = value;
+        } else if (value instanceof MapView) {
+            result = makePersistentCopy(((MapView) value).root.get());
+        } else if (value instanceof ListView) {
+            result = makePersistentCopy(((ListView) value).root.get());
+        } else if (value instanceof Map) {
+            result = PersistentMap.of((Map<Object, Object>) value, U::makePersistentCopy);
+        } else if (value instanceof List) {
+            result = PersistentList.of((List<Object>) value, U::makePersistentCopy);
+        } else {
+            result = value;
+        }
+        return result;
+    }
+
+    private static boolean isPersistent(final Object value) {
+        return value instanceof PersistentMap || value instanceof PersistentList;
+    }
+
+    private static Object makeMutableCopy(final Object value) {
+        return isPersistent(value) ? mutableView(new ViewRoot(value)) : value;
+    }
+
+    private static Object mutableView(final ViewRoot root) {
+        final Object node = root.get();
+        if (node instanceof PersistentMap) {
+            return new MapView(root);
+        }
+        return node instanceof PersistentList ? new ListView(root) : node;
+    }
+
+    private static Object persistentGet(final Object root, final PropertyPath path) {
+        Object node = root;
+        int index = 0;
+        while (node != null && index < path.keys.size()) {
+            if (node instanceof Map) {
+                final Map.Entry mapEntry = getMapEntry((Map) node);
+                if (mapEntry != null && "#item".equals(mapEntry.getKey())) {
+                    node = mapEntry.getValue();
+                    continue;
+                }
+                node = ((Map) node).get(path.keys.get(index));
+            } else if (node instanceof List) {
+                final List<?> list = (List<?>) node;
+                final Integer listIndex = path.indexes[index];
+                node =
+                        listIndex == null || listIndex < 0 || listIndex >= list.size()
+                                ? null
+                                : list.get(listIndex);
+            } else {
+                return null;
+            }
+            index += 1;
+        }
+        return node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object persistentUpdate(
+            final Object node,
+            final PropertyPath path,
+            final int index,
+            final Object value,
+            final OperationType operationType) {
+        if (node instanceof Map) {
+            final Map<Object, Object> map = (Map<Object, Object>) node;
+            final Map.Entry mapEntry = getMapEntry(map);
+            if (mapEntry != null && "#item".equals(mapEntry.getKey())) {
+                final Object item = mapEntry.getValue();
+                final Object newItem = persistentUpdate(item, path, index, value, operationType);
+                return newItem == item ? node : PersistentMap.of(map).plus("#item", newItem);
+            }
+            final String key = path.keys.get(index);
+            final Object child = map.get(key);
+            if (index == path.keys.size() - 1) {
+                if (operationType == OperationType.REMOVE) {
+                    return map.containsKey(key) ? PersistentMap.of(map).minus(key) : node;
+                }
+                return PersistentMap.of(map).plus(key, value);
+            }
+            final Object newChild = persistentUpdate(child, path, index + 1, value, operationType);
+            return newChild == child ? node : PersistentMap.of(map).plus(key, newChild);
+        }
+        if (node instanceof List) {
+            final List<Object> list = (List<Object>) node;
+            final int listIndex = path.getIndex(index);
+            final Object child = list.get(listIndex);
+            if (index == path.keys.size() - 1) {
+                if (operationType == OperationType.REMOVE) {
+                    return PersistentList.of(list).minus(listIndex);
+                }
+                return PersistentList.of(list).with(listIndex, value);
+            }
+            final Object newChild = persistentUpdate(child, path, index + 1, value, operationType);
+            return newChild == child ? node : PersistentList.of(list).with(listIndex, newChild);
+        }
+        return node;
+    }
+
+    private static class ViewRoot {
+        private Object node;
+
+        ViewRoot(final Object node) {
+            this.node = node;
+        }
+
+        Object current() {
+            return node;
+        }
+
+        void replace(final Object newNode) {
+            // a detached copy has no owner to write back to
+        }
+
+        final Object get() {
+            final Object current = current();
+            if (isSameKind(current, node)) {
+                node = current;
+            }
+            return node;
+        }
+
+        final void set(final Object newNode) {
+            if (isSameKind(current(), node)) {
+                replace(newNode);
+            }
+            node = newNode;
+        }
+
+        private static boolean isSameKind(final Object first, final Object second) {
+            return first instanceof Map
+                    ? second instanceof Map
+                    : first instanceof List && second instanceof List;
+        }
+    }
+
+    private static final class PathRoot extends ViewRoot {
+        private final java.util.function.Supplier<Object> data;
+        private final java.util.function.Consumer<Object> update;
+        private final PropertyPath path;
+
+        PathRoot(
+                final java.util.function.Supplier<Object> data,
+                final java.util.function.Consumer<Object> update,
+                final PropertyPath path,
+                final Object node) {
+            super(node);
+            this.data = data;
+            this.update = update;
+            this.path = path;
+        }
+
+        @Override
+        Object current() {
+            return persistentGet(data.get(), path);
+        }
+
+        @Override
+        void replace(final Object newNode) {
+            update.accept(
+                    path.keys.isEmpty()
+                            ? newNode
+                            : persistentUpdate(data.get(), path, 0, newNode, OperationType.SET));
+        }
+    }
+
+    private static final class ChildRoot extends ViewRoot {
+        private final ViewRoot parent;
+        private final Object key;
+
+        ChildRoot(final ViewRoot parent, final Object key, final Object node) {
+            super(node);
+            this.parent = parent;
+            this.key = key;
+        }
+
+        @Override
+        Object current() {
+            final Object container = parent.get();
+            if (container instanceof Map) {
+                return ((Map<?, ?>) container).get(key);
+            }
+            final List<?> list = (List<?>) container;
+            final int index = (Integer) key;
+            return index < list.size() ? list.get(index) : null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void replace(final Object newNode) {
+            final Object container = parent.get();
+            parent.set(
+                    container instanceof Map
+                            ? PersistentMap.of((Map<Object, Object>) container).plus(key, newNode)
+                            : PersistentList.of((List<Object>) container)
+                                    .with((Integer) key, newNode));
+        }
+    }
+
+    private static final class MapView extends java.util.AbstractMap<Object, Object> {
+        private final ViewRoot root;
+
+        MapView(final ViewRoot root) {
+            this.root = root;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<Object, Object> node() {
+            return (Map<Object, Object>) root.get();
+        }
+
+        private Object view(final Object key, final Object value) {
+            return isPersistent(value) ? mutableView(new ChildRoot(root, key, value)) : value;
+        }
+
+        @Override
+        public int size() {
+            return node().size();
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return node().containsKey(key);
+        }
+
+        @Override
+        public Object get(final Object key) {
+            return view(key, node().get(key));
+        }
+
+        @Override
+        public Object put(final Object key, final Object value) {
+            final Map<Object, Object> node = node();
+            final Object result = node.get(key);
+            root.set(PersistentMap.of(node).plus(key, value));
+            return result;
+        }
+
+        @Override
+        public Object remove(final Object key) {
+            final Map<Object, Object> node = node();
+            if (!node.containsKey(key)) {
+                return null;
+            }
+            final Object result = node.get(key);
+            root.set(PersistentMap.of(node).minus(key));
+            return result;
+        }
+
+        @Override
+        public void clear() {
+            root.set(PersistentMap.empty());
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            return new java.util.AbstractSet<>() {
+                @Override
+                public int size() {
+                    return MapView.this.size();
+                }
+
+                @Override
+                public Iterator<Map.Entry<Object, Object>> iterator() {
+                    final Iterator<Map.Entry<Object, Object>> entries =
+                            node().entrySet().iterator();
+                    return new Iterator<>() {
+                        private Map.Entry<Object, Object> last;
+
+                        @Override
+                        public boolean hasNext() {
+                            return entries.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<Object, Object> next() {
+                            last = entries.next();
+                            return new SimpleEntry<>(
+                                    last.getKey(), view(last.getKey(), last.getValue())) {
+                                @Override
+                                public Object setValue(final Object value) {
+                                    super.setValue(value);
+                                    return put(getKey(), value);
+                                }
+                            };
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (last == null) {
+                                throw new IllegalStateException();
+                            }
+                            MapView.this.remove(last.getKey());
+                            last = null;
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    private static final class ListView extends java.util.AbstractList<Object>
+            implements java.util.RandomAccess {
+        private final ViewRoot root;
+
+        ListView(final ViewRoot root) {
+            this.root = root;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<Object> node() {
+            return (List<Object>) root.get();
+        }
+
+        @Override
+        public int size() {
+            return node().size();
+        }
+
+        @Override
+        public Object get(final int index) {
+            final Object value = node().get(index);
+            return isPersistent(value) ? mutableView(new ChildRoot(root, index, value)) : value;
+        }
+
+        @Override
+        public Object set(final int index, final Object value) {
+            final List<Object> node = node();
+            final Object result = node.get(index);
+            root.set(PersistentList.of(node).with(index, value));
+            return result;
+        }
+
+        @Override
+        public void add(final int index, final Object value) {
+            final List<Object> node = node();
+            if (index == node.size()) {
+                root.set(PersistentList.of(node).plus(value));
+            } else {
+                final List<Object> items = new ArrayList<>(node);
+                items.add(index, value);
+                root.set(PersistentList.of(items));
+            }
+            modCount += 1;
+        }
+
+        @Override
+        public Object remove(final int index) {
+            final List<Object> node = node();
+            final Object result = node.get(index);
+            root.set(PersistentList.of(node).minus(index));
+            modCount += 1;
+            return result;
+        }
+
+        @Override
+        public void clear() {
+            root.set(PersistentList.empty());
+            modCount += 1;
+        }
+    }
+
+    public static final class PersistentList<E> extends java.util.AbstractList<E>
+            implements java.util.RandomAccess {
+        private static final int BITS = 5;
+        private static final int WIDTH = 1 << BITS;
+        private static final int MASK = WIDTH - 1;
+        private static final Object[] EMPTY_NODE = new Object[0];
+        private static final PersistentList<Object> EMPTY =
+                new PersistentList<>(0, BITS, EMPTY_NODE, EMPTY_NODE);
+        private final int size;
+        private final int shift;
+        private final Object[] root;
+        private final Object[] tail;
+
+        private PersistentList(
+                final int size, final int shift, final Object[] root, final Object[] tail) {
+            this.size = size;
+            this.shift = shift;
+            this.root = root;
+            this.tail = tail;
+        }
+
+        @SuppressWarnings("unchecked")
+        public static <E> PersistentList<E> empty() {
+            return (PersistentList<E>) EMPTY;
+        }
+
+        public static <E> PersistentList<E> of(final Collection<? extends E> collection) {
+            return of(collection, null);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <E> PersistentList<E> of(
+                final Collection<? extends E> collection, final Function<Object, Object> mapper) {
+            if (collection instanceof PersistentList) {
+                return (PersistentList<E>) collection;
+            }
+            final Object[] items = collection.toArray();
+            if (mapper != null) {
+                for (int index = 0; index < items.length; index += 1) {
+                    items[index] = mapper.apply(items[index]);
+                }
+            }
+            return ofArray(items);
+        }
+
+        private static <E> PersistentList<E> ofArray(final Object[] items) {
+            if (items.length == 0) {
+                return empty();
+            }
+            final int tailOffset = ((items.length - 1) >>> BITS) << BITS;
+            List<Object[]> nodes = new ArrayList<>();
+            for (int index = 0; index < tailOffset; index += WIDTH) {
+                nodes.add(Arrays.copyOfRange(items, index, index + WIDTH));
+            }
+            int shift = BITS;
+            while (nodes.size() > WIDTH) {
+                final List<Object[]> parents = new ArrayList<>();
+                for (int index = 0; index < nodes.size(); index += WIDTH) {
+                    parents.add(
+                            nodes.subList(index, Math.min(index + WIDTH, nodes.size()))
+                                    .toArray(EMPTY_NODE));
+                }
+                nodes = parents;
+                shift += BITS;
+            }
+            return new PersistentList<>(
+                    items.length,
+                    shift,
+                    nodes.toArray(EMPTY_NODE),
+                    Arrays.copyOfRange(items, tailOffset, items.length));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E get(final int index) {
+            Objects.checkIndex(index, size);
+            return (E) arrayFor(index)[index & MASK];
+        }
+
+        public PersistentList<E> plus(final E element) {
+            if (size - tailOffset() < WIDTH) {
+                final Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+                newTail[tail.length] = element;
+                return new PersistentList<>(size + 1, shift, root, newTail);
+            }
+            final Object[] newRoot;
+            int newShift = shift;
+            if ((size >>> BITS) > (1 << shift)) {
+                newRoot = new Object[] {root, newPath(shift, tail)};
+                newShift += BITS;
+            } else {
+                newRoot = pushTail(shift, root);
+            }
+            return new PersistentList<>(size + 1, newShift, newRoot, new Object[] {element});
+        }
+
+        public PersistentList<E> plusAll(final Collection<? extends E> collection) {
+            PersistentList<E> result = this;
+            for (E element : collection) {
+                result = result.plus(element);
+            }
+            return result;
+        }
+
+        public PersistentList<E> with(final int index, final E element) {
+            Objects.checkIndex(index, size);
+            if (index >= tailOffset()) {
+                final Object[] newTail = tail.clone();
+                newTail[index & MASK] = element;
+                return new PersistentList<>(size, shift, root, newTail);
+            }
+            return new PersistentList<>(size, shift, with(shift, root, index, element), tail);
+        }
+
+        public PersistentList<E> minus(final int index) {
+            Objects.checkIndex(index, size);
+            final Object[] items = new Object[size - 1];
+            int position = 0;
+            for (E element : this) {
+                if (position != index) {
+                    items[position < index ? position : position - 1] = element;
+                }
+                position += 1;
+            }
+            return ofArray(items);
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new Iterator<E>() {
+                private int index;
+                private Object[] leaf;
+
+                @Override
+                public boolean hasNext() {
+                    return index < size;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public E next() {
+                    if (index >= size) {
+                        throw new java.util.NoSuchElementException();
+                    }
+                    if ((index & MASK) == 0 || leaf == null) {
+                        leaf = arrayFor(index);
+                    }
+                    final E result = (E) leaf[index & MASK];
+                    index += 1;
+                    return result;
+                }
+            };
+        }
+
+        private int tailOffset() {
+            return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+        }
+
+        private Object[] arrayFor(final int index) {
+            if (index >= tailOffset()) {
+                return tail;
+            }
+            Object[] node = root;
+            for (int level = shift; level > 0; level -= BITS) {
+                node = (Object[]) node[(index >>> level) & MASK];
+            }
+            return node;
+        }
+
+        private Object[] pushTail(final int level, final Object[] parent) {
+            final int subIndex = ((size - 1) >>> level) & MASK;
+            final Object[] result = Arrays.copyOf(parent, Math.max(parent.length, subIndex + 1));
+            final Object child = subIndex < parent.length ? parent[subIndex] : null;
+            if (level == BITS) {
+                result[subIndex] = tail;
+            } else if (child == null) {
+                result[subIndex] = newPath(level - BITS, tail);
+            } else {
+                result[subIndex] = pushTail(level - BITS, (Object[]) child);
+            }
+            return result;
+        }
+
+        private static Object[] newPath(final int level, final Object[] node) {
+            return level == 0 ? node : new Object[] {newPath(level - BITS, node)};
         }
-        return outMap;
-    }
 
-    @SuppressWarnings("unchecked")
-    private static Object makeObjectEmptyString(Object value) {
-        final Object result;
-        if (value instanceof List) {
-            List<Object> values = new ArrayList<>();
-            for (Object item : (List) value) {
-                values.add(
-                        item instanceof Map ? replaceEmptyValueWithEmptyString((Map) item) : item);
+        private static Object[] with(
+                final int level, final Object[] node, final int index, final Object element) {
+            final Object[] result = node.clone();
+            if (level == 0) {
+                result[index & MASK] = element;
+            } else {
+                final int subIndex = (index >>> level) & MASK;
+                result[subIndex] = with(level - BITS, (Object[]) node[subIndex], index, element);
             }
-            result = values;
-        } else if (value instanceof Map) {
-            result = replaceEmptyValueWithEmptyString((Map) value);
-        } else {
-            result = value;
+            return result;
         }
-        return result;
     }
 
-    public static Map<String, Object> forceAttributeUsage(Map<String, Object> map) {
-        Map<String, Object> outMap = new LinkedHashMap<>();
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            outMap.put(
-                    entry.getValue() instanceof Map
-                                    || entry.getValue() instanceof List
-                                    || String.valueOf(entry.getKey()).startsWith("-")
-                            ? String.valueOf(entry.getKey())
-                            : "-" + entry.getKey(),
-                    makeAttributeUsage(entry.getValue()));
+    public static final class PersistentMap<K, V> extends java.util.AbstractMap<K, V> {
+        private static final PersistentMap<Object, Object> EMPTY =
+                new PersistentMap<>(PersistentList.empty(), null, 0);
+        private final PersistentList<Map.Entry<K, V>> entries;
+        private final HashNode index;
+        private final int size;
+
+        private PersistentMap(
+                final PersistentList<Map.Entry<K, V>> entries,
+                final HashNode index,
+                final int size) {
+            this.entries = entries;
+            this.index = index;
+            this.size = size;
         }
-        return outMap;
-    }
 
-    @SuppressWarnings("unchecked")
-    private static Object makeAttributeUsage(Object value) {
-        final Object result;
-        if (value instanceof List) {
-            List<Object> values = new ArrayList<>();
-            for (Object item : (List) value) {
-                values.add(item instanceof Map ? forceAttributeUsage((Map) item) : item);
-            }
-            result = values;
-        } else if (value instanceof Map) {
-            result = forceAttributeUsage((Map) value);
-        } else {
-            result = value;
+        @SuppressWarnings("unchecked")
+        public static <K, V> PersistentMap<K, V> empty() {
+            return (PersistentMap<K, V>) EMPTY;
         }
-        return result;
-    }
 
-    public static Map<String, Object> replaceNullWithEmptyValue(Map<String, Object> map) {
-        Map<String, Object> outMap = new LinkedHashMap<>();
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            outMap.put(
-                    entry.getKey(),
-                    entry.getValue() == null
-                            ? new LinkedHashMap<>()
-                            : makeReplaceNullValue(entry.getValue()));
+        public static <K, V> PersistentMap<K, V> of(final Map<K, V> map) {
+            return of(map, null);
         }
-        return outMap;
-    }
 
-    @SuppressWarnings("unchecked")
-    private static Object makeReplaceNullValue(Object value) {
-        final Object result;
-        if (value instanceof List) {
-            List<Object> values = new ArrayList<>();
-            for (Object item : (List) value) {
-                values.add(item instanceof Map ? replaceNullWithEmptyValue((Map) item) : item);
+        @SuppressWarnings("unchecked")
+        private static <K, V> PersistentMap<K, V> of(
+                final Map<K, V> map, final Function<Object, Object> mapper) {
+            if (map instanceof PersistentMap) {
+                return (PersistentMap<K, V>) map;
             }
-            result = values;
-        } else if (value instanceof Map) {
-            result = replaceNullWithEmptyValue((Map) value);
-        } else {
-            result = value;
+            final Object[] items = new Object[map.size()];
+            HashNode index = null;
+            int position = 0;
+            for (Map.Entry<K, V> entry : map.entrySet()) {
+                items[position] =
+                        new java.util.AbstractMap.SimpleImmutableEntry<>(
+                                entry.getKey(),
+                                mapper == null ? entry.getValue() : mapper.apply(entry.getValue()));
+                index = HashNode.put(index, hash(entry.getKey()), entry.getKey(), position, 0);
+                position += 1;
+            }
+            return new PersistentMap<>(PersistentList.ofArray(items), index, items.length);
         }
-        return result;
-    }
 
-    public static Map<String, Object> replaceEmptyStringWithEmptyValue(Map<String, Object> map) {
-        Map<String, Object> outMap = new LinkedHashMap<>();
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            outMap.put(
-                    entry.getKey(),
-                    "".equals(entry.getValue())
-                            ? new LinkedHashMap<>()
-                            : makeReplaceEmptyString(entry.getValue()));
+        @Override
+        public int size() {
+            return size;
         }
-        return outMap;
-    }
 
-    @SuppressWarnings("unchecked")
-    private static Object makeReplaceEmptyString(Object value) {
-        final Object result;
-        if (value instanceof List) {
-            List<Object> values = new ArrayList<>();
-            for (Object item : (List) value) {
-                values.add(
-                        item instanceof Map ? replaceEmptyStringWithEmptyValue((Map) item) : item);
-            }
-            result = values;
-        } else if (value instanceof Map) {
-            result = replaceEmptyStringWithEmptyValue((Map) value);
-        } else {
-            result = value;
+        @Override
+        public boolean containsKey(final Object key) {
+            return HashNode.find(index, hash(key), key) >= 0;
         }
-        return result;
-    }
 
-    public static Map<String, Object> replaceNumberAndBooleanWithString(Map<String, Object> map) {
-        Map<String, Object> outMap = new LinkedHashMap<>();
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            outMap.put(
-                    entry.getKey(),
-                    entry.getValue() instanceof Boolean || entry.getValue() instanceof Number
-                            ? String.valueOf(entry.getValue())
-                            : makeReplaceNumberAndBoolean(entry.getValue()));
+        @Override
+        public V get(final Object key) {
+            final int position = HashNode.find(index, hash(key), key);
+            return position < 0 ? null : entries.get(position).getValue();
+        }
+
+        public PersistentMap<K, V> plus(final K key, final V value) {
+            final int hash = hash(key);
+            final int position = HashNode.find(index, hash, key);
+            final Map.Entry<K, V> entry =
+                    new java.util.AbstractMap.SimpleImmutableEntry<>(key, value);
+            if (position >= 0) {
+                if (entries.get(position).getValue() == value) {
+                    return this;
+                }
+                return new PersistentMap<>(entries.with(position, entry), index, size);
+            }
+            return new PersistentMap<>(
+                    entries.plus(entry),
+                    HashNode.put(index, hash, key, entries.size(), 0),
+                    size + 1);
         }
-        return outMap;
-    }
 
-    @SuppressWarnings("unchecked")
-    private static Object makeReplaceNumberAndBoolean(Object value) {
-        final Object result;
-        if (value instanceof List) {
-            List<Object> values = new ArrayList<>();
-            for (Object item : (List) value) {
-                if (item instanceof Map) {
-                    values.add(replaceNumberAndBooleanWithString((Map) item));
-                } else if (item instanceof Number || item instanceof Boolean || isNull(item)) {
-                    values.add(String.valueOf(item));
-                } else {
-                    values.add(item);
+        public PersistentMap<K, V> minus(final Object key) {
+            final int hash = hash(key);
+            final int position = HashNode.find(index, hash, key);
+            if (position < 0) {
+                return this;
+            }
+            final PersistentList<Map.Entry<K, V>> newEntries = entries.with(position, null);
+            if (newEntries.size() - size + 1 > PersistentList.WIDTH
+                    && newEntries.size() > 2 * (size - 1)) {
+                final Map<K, V> map = new LinkedHashMap<>();
+                for (Map.Entry<K, V> entry : newEntries) {
+                    if (entry != null) {
+                        map.put(entry.getKey(), entry.getValue());
+                    }
                 }
+                return of(map);
             }
-            result = values;
-        } else if (value instanceof Map) {
-            result = replaceNumberAndBooleanWithString((Map) value);
-        } else if (isNull(value)) {
-            result = "null";
-        } else {
-            result = value;
+            return new PersistentMap<>(newEntries, HashNode.remove(index, hash, key, 0), size - 1);
         }
-        return result;
-    }
 
-    public static Map<String, Object> replaceFirstLevel(Map<String, Object> map) {
-        return replaceFirstLevel(map, 0);
-    }
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new java.util.AbstractSet<Map.Entry<K, V>>() {
+                @Override
+                public int size() {
+                    return size;
+                }
 
-    @SuppressWarnings("unchecked")
-    public static Map<String, Object> replaceFirstLevel(Map<String, Object> map, int level) {
-        Map<String, Object> outMap = new LinkedHashMap<>();
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            outMap.put(entry.getKey(), makeReplaceFirstLevel(entry.getValue(), level + 1));
+                @Override
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    final Iterator<Map.Entry<K, V>> iterator = entries.iterator();
+                    return new Iterator<Map.Entry<K, V>>() {
+                        private Map.Entry<K, V> next = advance();
+
+                        private Map.Entry<K, V> advance() {
+                            while (iterator.hasNext()) {
+                                final Map.Entry<K, V> entry = iterator.next();
+                                if (entry != null) {
+                                    return entry;
+                                }
+                            }
+                            return null;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next != null;
+                        }
+
+                        @Override
+                        public Map.Entry<K, V> next() {
+                            if (next == null) {
+                                throw new java.util.NoSuchElementException();
+                            }
+                            final Map.Entry<K, V> result = next;
+                            next = advance();
+                            return result;
+                        }
+                    };
+                }
+            };
         }
-        if (level == 0 && Xml.XmlValue.getMapValue(outMap) instanceof Map) {
-            Map<String, Object> outMap2 = (Map<String, Object>) Xml.XmlValue.getMapValue(outMap);
-            if (SELF_CLOSING.equals(Xml.XmlValue.getMapKey(outMap2))
-                    && "true".equals(Xml.XmlValue.getMapValue(outMap2))) {
-                outMap2.remove(SELF_CLOSING);
-            }
-            return outMap2;
+
+        private static int hash(final Object key) {
+            final int hash = Objects.hashCode(key);
+            return hash ^ (hash >>> 16);
         }
-        return outMap;
     }
 
-    @SuppressWarnings("unchecked")
-    private static Object makeReplaceFirstLevel(Object value, int level) {
-        final Object result;
-        if (value instanceof List) {
-            List<Object> values = new ArrayList<>();
-            for (Object item : (List) value) {
-                values.add(item instanceof Map ? replaceFirstLevel((Map) item, level + 1) : item);
+    private static final class HashNode {
+        private final int bitmap;
+        private final Object[] slots;
+
+        private HashNode(final int bitmap, final Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private static int find(final HashNode root, final int hash, final Object key) {
+            HashNode node = root;
+            int shift = 0;
+            while (node != null) {
+                final int bit = 1 << ((hash >>> shift) & 31);
+                if ((node.bitmap & bit) == 0) {
+                    return -1;
+                }
+                final Object slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+                if (slot instanceof HashLeaf) {
+                    for (HashLeaf leaf = (HashLeaf) slot; leaf != null; leaf = leaf.next) {
+                        if (leaf.hash == hash && Objects.equals(leaf.key, key)) {
+                            return leaf.position;
+                        }
+                    }
+                    return -1;
+                }
+                node = (HashNode) slot;
+                shift += 5;
             }
-            result = values;
-        } else if (value instanceof Map) {
-            result = replaceFirstLevel((Map) value, level + 1);
-        } else {
-            result = value;
+            return -1;
+        }
+
+        private static HashNode put(
+                final HashNode node,
+                final int hash,
+                final Object key,
+                final int position,
+                final int shift) {
+            final HashLeaf newLeaf = new HashLeaf(hash, key, position, null);
+            final int bit = 1 << ((hash >>> shift) & 31);
+            if (node == null) {
+                return new HashNode(bit, new Object[] {newLeaf});
+            }
+            final int slotIndex = Integer.bitCount(node.bitmap & (bit - 1));
+            if ((node.bitmap & bit) == 0) {
+                final Object[] slots = new Object[node.slots.length + 1];
+                System.arraycopy(node.slots, 0, slots, 0, slotIndex);
+                slots[slotIndex] = newLeaf;
+                System.arraycopy(
+                        node.slots, slotIndex, slots, slotIndex + 1, node.slots.length - slotIndex);
+                return new HashNode(node.bitmap | bit, slots);
+            }
+            final Object slot = node.slots[slotIndex];
+            final Object newSlot;
+            if (slot instanceof HashNode) {
+                newSlot = put((HashNode) slot, hash, key, position, shift + 5);
+            } else if (((HashLeaf) slot).hash == hash) {
+                newSlot = new HashLeaf(hash, key, position, (HashLeaf) slot);
+            } else {
+                newSlot = merge((HashLeaf) slot, newLeaf, shift + 5);
+            }
+            final Object[] slots = node.slots.clone();
+            slots[slotIndex] = newSlot;
+            return new HashNode(node.bitmap, slots);
         }
-        return result;
-    }
 
-    public static Map<String, Object> replaceNilWithNull(Map<String, Object> map) {
-        Map<String, Object> outMap = new LinkedHashMap<>();
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            Object outValue = makeReplaceNilWithNull(entry.getValue());
-            if (outValue instanceof Map
-                    && (NIL_KEY.equals(Xml.XmlValue.getMapKey(outValue))
-                            || Xml.XmlValue.getMapKey(outValue).endsWith(":nil"))
-                    && "true".equals(Xml.XmlValue.getMapValue(outValue))
-                    && ((Map) outValue).containsKey(SELF_CLOSING)
-                    && "true".equals(((Map) outValue).get(SELF_CLOSING))) {
-                outValue = null;
+        private static HashNode merge(final HashLeaf leaf1, final HashLeaf leaf2, final int shift) {
+            final int index1 = (leaf1.hash >>> shift) & 31;
+            final int index2 = (leaf2.hash >>> shift) & 31;
+            if (index1 == index2) {
+                return new HashNode(1 << index1, new Object[] {merge(leaf1, leaf2, shift + 5)});
             }
-            outMap.put(entry.getKey(), outValue);
+            return new HashNode(
+                    (1 << index1) | (1 << index2),
+                    index1 < index2 ? new Object[] {leaf1, leaf2} : new Object[] {leaf2, leaf1});
         }
-        return outMap;
-    }
 
-    @SuppressWarnings("unchecked")
-    private static Object makeReplaceNilWithNull(Object value) {
-        final Object result;
-        if (value instanceof List) {
-            List<Object> values = new ArrayList<>();
-            for (Object item : (List) value) {
-                values.add(item instanceof Map ? replaceNilWithNull((Map) item) : item);
+        private static HashNode remove(
+                final HashNode node, final int hash, final Object key, final int shift) {
+            final int bit = 1 << ((hash >>> shift) & 31);
+            if ((node.bitmap & bit) == 0) {
+                return node;
             }
-            result = values;
-        } else if (value instanceof Map) {
-            result = replaceNilWithNull((Map) value);
-        } else {
-            result = value;
+            final int slotIndex = Integer.bitCount(node.bitmap & (bit - 1));
+            final Object slot = node.slots[slotIndex];
+            final Object newSlot =
+                    slot instanceof HashNode
+                            ? remove((HashNode) slot, hash, key, shift + 5)
+                            : HashLeaf.remove((HashLeaf) slot, key);
+            if (newSlot == slot) {
+                return node;
+            }
+            if (newSlot != null) {
+                final Object[] slots = node.slots.clone();
+                slots[slotIndex] = newSlot;
+                return new HashNode(node.bitmap, slots);
+            }
+            if (node.slots.length == 1) {
+                return null;
+            }
+            final Object[] slots = new Object[node.slots.length - 1];
+            System.arraycopy(node.slots, 0, slots, 0, slotIndex);
+            System.arraycopy(node.slots, slotIndex + 1, slots, slotIndex, slots.length - slotIndex);
+            return new HashNode(node.bitmap & ~bit, slots);
         }
-        return result;
     }
 
-    public static Map<String, Object> deepCopyMap(Map<String, Object> map) {
-        Map<String, Object> outMap = new LinkedHashMap<>();
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            outMap.put(entry.getKey(), makeDeepCopyMap(entry.getValue()));
+    private static final class HashLeaf {
+        private final int hash;
+        private final Object key;
+        private final int position;
+        private final HashLeaf next;
+
+        private HashLeaf(
+                final int hash, final Object key, final int position, final HashLeaf next) {
+            this.hash = hash;
+            this.key = key;
+            this.position = position;
+            this.next = next;
         }
-        return outMap;
-    }
 
-    @SuppressWarnings("unchecked")
-    private static Object makeDeepCopyMap(Object value) {
-        final Object result;
-        if (value instanceof List) {
-            List<Object> values = new ArrayList<>();
-            for (Object item : (List) value) {
-                values.add(item instanceof Map ? deepCopyMap((Map) item) : item);
+        private static HashLeaf remove(final HashLeaf leaf, final Object key) {
+            if (leaf == null) {
+                return null;
             }
-            result = values;
-        } else if (value instanceof Map) {
-            result = deepCopyMap((Map) value);
-        } else {
-            result = value;
+            if (Objects.equals(leaf.key, key)) {
+                return leaf.next;
+            }
+            final HashLeaf next = remove(leaf.next, key);
+            return next == leaf.next
+                    ? leaf
+                    : new HashLeaf(leaf.hash, leaf.key, leaf.position, next);
         }
-        return result;
     }
 
     public static Builder objectBuilder() {
@@ -3644,52 +6495,73 @@ public class U<T> extends Underscore<T> {
     }
 
     public static class Builder {
-        private final Map<String, Object> data;
+        private PersistentMap<String, Object> data;
 
         public Builder() {
-            data = new LinkedHashMap<>();
+            data = PersistentMap.empty();
         }
 
         public Builder add(final String key, final Object value) {
-            data.put(key, value);
+            data = data.plus(key, value);
             return this;
         }
 
         public Builder add(final Object value) {
-            data.put(String.valueOf(data.size()), value);
+            data = data.plus(String.valueOf(data.size()), value);
             return this;
         }
 
         public <T> T get(final String path) {
-            return U.get(data, path);
+            return get(path(path));
         }
 
         public <T> T get(final List<String> paths) {
-            return U.get(data, paths);
+            return get(new PropertyPath(paths));
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> T get(final PropertyPath path) {
+            final Object value = U.get(data, path);
+            return (T)
+                    (isPersistent(value)
+                            ? mutableView(
+                                    new PathRoot(
+                                            () -> data,
+                                            node -> data = (PersistentMap<String, Object>) node,
+                                            path,
+                                            value))
+                            : value);
         }
 
         public Builder set(final String path, final Object value) {
-            U.set(data, path, value);
-            return this;
+            return modify(path(path), value, OperationType.SET);
         }
 
         public Builder set(final List<String> paths, final Object value) {
-            U.set(data, paths, value);
-            return this;
+            return modify(new PropertyPath(paths), value, OperationType.SET);
         }
 
         public Builder remove(final String key) {
-            U.remove(data, key);
-            return this;
+            return modify(path(key), null, OperationType.REMOVE);
         }
 
         public Builder remove(final List<String> keys) {
-            U.remove(data, keys);
+            return modify(new PropertyPath(keys), null, OperationType.REMOVE);
+        }
+
+        @SuppressWarnings("unchecked")
+        private Builder modify(
+                final PropertyPath path, final Object value, final OperationType operationType) {
+            if (!path.keys.isEmpty()) {
+                data =
+                        (PersistentMap<String, Object>)
+                                persistentUpdate(data, path, 0, value, operationType);
+            }
             return this;
         }
 
         public Builder clear() {
-            data.clear();
+            data = PersistentMap.empty();
             return this;
         }
 
@@ -3702,22 +6574,29 @@ public class U<T> extends Underscore<T> {
         }
 
         public Builder add(final Builder builder) {
-            data.put(String.valueOf(data.size()), builder.build());
+            data = data.plus(String.valueOf(data.size()), builder.snapshot());
             return this;
         }
 
         public Builder add(final String key, final ArrayBuilder builder) {
-            data.put(key, builder.build());
+            data = data.plus(key, builder.snapshot());
             return this;
         }
 
         public Builder add(final String key, final Builder builder) {
-            data.put(key, builder.build());
+            data = data.plus(key, builder.snapshot());
             return this;
         }
 
         public Builder add(final Map<String, Object> map) {
-            data.putAll(deepCopyMap(map));
+            final PersistentMap<String, Object> copy = persistentCopyMap(map);
+            if (data.isEmpty()) {
+                data = copy;
+            } else {
+                for (Map.Entry<String, Object> entry : copy.entrySet()) {
+                    data = data.plus(entry.getKey(), entry.getValue());
+                }
+            }
             return this;
         }
 
@@ -3727,13 +6606,20 @@ public class U<T> extends Underscore<T> {
         }
 
         public Builder addNull(final String key) {
-            data.put(key, null);
+            data = data.plus(key, null);
             return this;
         }
 
-        @SuppressWarnings("unchecked")
         public Map<String, Object> build() {
-            return (Map<String, Object>) ((LinkedHashMap<?, ?>) data).clone();
+            final Map<String, Object> result = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : data.entrySet()) {
+                result.put(entry.getKey(), makeMutableCopy(entry.getValue()));
+            }
+            return result;
+        }
+
+        public PersistentMap<String, Object> snapshot() {
+            return data;
         }
 
         public String toXml() {
@@ -3742,13 +6628,13 @@ public class U<T> extends Underscore<T> {
 
         public static Builder fromXml(final String xml) {
             final Builder builder = new Builder();
-            builder.data.putAll(fromXmlMap(xml));
+            builder.data = persistentCopyMap(fromXmlMap(xml));
             return builder;
         }
 
         public static Builder fromMap(final Map<String, Object> map) {
             final Builder builder = new Builder();
-            builder.data.putAll(deepCopyMap(map));
+            builder.data = persistentCopyMap(map);
             return builder;
         }
 
@@ -3758,7 +6644,7 @@ public class U<T> extends Underscore<T> {
 
         public static Builder fromJson(final String json) {
             final Builder builder = new Builder();
-            builder.data.putAll(fromJsonMap(json));
+            builder.data = persistentCopyMap(fromJsonMap(json));
             return builder;
         }
 
@@ -3777,45 +6663,61 @@ public class U<T> extends Underscore<T> {
     }
 
     public static class ArrayBuilder {
-        private final List<Object> data;
+        private PersistentList<Object> data;
 
         public ArrayBuilder() {
-            data = new ArrayList<>();
+            data = PersistentList.empty();
         }
 
         public ArrayBuilder add(final Object value) {
-            data.add(value);
+            data = data.plus(value);
             return this;
         }
 
         public ArrayBuilder addNull() {
-            data.add(null);
+            data = data.plus(null);
             return this;
         }
 
         public <T> T get(final String path) {
-            return U.get(U.getStringObjectMap(data), "value." + path);
+            final PropertyPath valuePath = path("value." + path);
+            return get(
+                    new PropertyPath(valuePath.keys.subList(1, valuePath.keys.size())),
+                    U.get(U.getStringObjectMap(data), valuePath));
         }
 
         public <T> T get(final List<String> paths) {
             List<String> newPaths = new ArrayList<>();
             newPaths.add("value");
             newPaths.addAll(paths);
-            return U.get(U.getStringObjectMap(data), newPaths);
+            return get(new PropertyPath(paths), U.get(U.getStringObjectMap(data), newPaths));
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> T get(final PropertyPath path, final Object value) {
+            return (T)
+                    (isPersistent(value)
+                            ? mutableView(
+                                    new PathRoot(
+                                            () -> data,
+                                            node -> data = (PersistentList<Object>) node,
+                                            path,
+                                            value))
+                            : value);
         }
 
         public ArrayBuilder set(final int index, final Object value) {
-            data.set(index, value);
+            data = data.with(index, value);
             return this;
         }
 
         public ArrayBuilder remove(final int index) {
-            data.remove(index);
+            data = data.minus(index);
             return this;
         }
 
         public ArrayBuilder clear() {
-            data.clear();
+            data = PersistentList.empty();
             return this;
         }
 
@@ -3828,12 +6730,12 @@ public class U<T> extends Underscore<T> {
         }
 
         public ArrayBuilder add(final ArrayBuilder builder) {
-            data.addAll(builder.build());
+            data = data.plusAll(builder.snapshot());
             return this;
         }
 
         public ArrayBuilder add(final Builder builder) {
-            data.add(builder.build());
+            data = data.plus(builder.snapshot());
             return this;
         }
 
@@ -3843,9 +6745,16 @@ public class U<T> extends Underscore<T> {
             return this;
         }
 
-        @SuppressWarnings("unchecked")
         public List<Object> build() {
-            return (List<Object>) ((ArrayList<?>) data).clone();
+            final List<Object> result = new ArrayList<>(data.size());
+            for (Object item : data) {
+                result.add(makeMutableCopy(item));
+            }
+            return result;
+        }
+
+        public PersistentList<Object> snapshot() {
+            return data;
         }
 
         public String toXml() {
@@ -3854,7 +6763,7 @@ public class U<T> extends Underscore<T> {
 
         public static ArrayBuilder fromXml(final String xml) {
             final ArrayBuilder builder = new ArrayBuilder();
-            builder.data.addAll(U.<List<Object>>fromXml(xml));
+            builder.data = PersistentList.of(U.<List<Object>>fromXml(xml), U::makePersistentCopy);
             return builder;
         }
 
@@ -3864,7 +6773,7 @@ public class U<T> extends Underscore<T> {
 
         public static ArrayBuilder fromJson(final String json) {
             final ArrayBuilder builder = new ArrayBuilder();
-            builder.data.addAll(U.<List<Object>>fromJson(json));
+            builder.data = PersistentList.of(U.<List<Object>>fromJson(json), U::makePersistentCopy);
             return builder;
         }
 
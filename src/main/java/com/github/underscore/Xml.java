@@ -25,10 +25,17 @@ package com.github.underscore;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -79,11 +86,35 @@ public final class Xml {
     private static final String DOCTYPE_TEXT = "!DOCTYPE";
     private static final String ROOT = "root";
     private static final String DOCTYPE_HEADER = "<" + DOCTYPE_TEXT + " ";
+    private static final String REPORT_CDATA_EVENT =
+            "http://java.sun.com/xml/stream/properties/report-cdata-event";
+    private static final int STREAM_BUFFER_NODES = 10_000;
+    private static final int STREAM_SPOOL_BYTES = 1 << 20;
+    private static final String[] TYPE_MARKERS = {
+        NUMBER, BOOLEAN, NULL_ATTR, STRING, ARRAY, EMPTY_ARRAY
+    };
     private static final Set<Character> SKIPPED_CHARS = Set.of(' ', '\n', '\r');
     private static final Map<String, String> XML_UNESCAPE = new HashMap<>();
     private static final org.w3c.dom.Document DOCUMENT = Document.createDocument();
+    private static final byte NAME_CHAR_UNKNOWN = 0;
+    private static final byte NAME_CHAR_VALID = 1;
+    private static final byte NAME_CHAR_INVALID = 2;
+    private static final byte[] NAME_START_CHARS = new byte[Character.MAX_VALUE + 1];
+    private static final byte[] NAME_CHARS = new byte[Character.MAX_VALUE + 1];
+    private static final int NAME_CACHE_SIZE = 10_000;
+    private static final Map<String, String> ESCAPED_NAMES =
+            new java.util.concurrent.ConcurrentHashMap<>();
+    private static final Map<String, String> UNESCAPED_NAMES =
+            new java.util.concurrent.ConcurrentHashMap<>();
 
     static {
+        for (char ch = 0; ch < 128; ch++) {
+            final boolean nameStart =
+                    ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch == '_' || ch == ':';
+            final boolean name = nameStart || ch >= '0' && ch <= '9' || ch == '-' || ch == '.';
+            NAME_START_CHARS[ch] = nameStart ? NAME_CHAR_VALID : NAME_CHAR_INVALID;
+            NAME_CHARS[ch] = name ? NAME_CHAR_VALID : NAME_CHAR_INVALID;
+        }
         XML_UNESCAPE.put(QUOT, "\"");
         XML_UNESCAPE.put("&amp;", "&");
         XML_UNESCAPE.put("&lt;", "<");
@@ -96,6 +127,14 @@ public final class Xml {
         SKIP
     }
 
+    public interface NodeRewrite {
+        String key(String key, Object value);
+
+        Object value(Object value);
+
+        Object item(Object item);
+    }
+
     public static class XmlStringBuilder {
         public enum Step {
             TWO_SPACES(2),
@@ -475,6 +514,25 @@ public final class Xml {
     public static class XmlObject {
         private XmlObject() {}
 
+        public static void writeXml(
+                final Map map,
+                final String name,
+                final XmlStringBuilder builder,
+                final boolean parentTextFound,
+                final Set<String> namespaces,
+                final boolean addArray,
+                final String arrayTrue,
+                final NodeRewrite rewrite) {
+            writeXml(
+                    map == null || rewrite == null ? map : new RewrittenMap(map, rewrite),
+                    name,
+                    builder,
+                    parentTextFound,
+                    namespaces,
+                    addArray,
+                    arrayTrue);
+        }
+
         @SuppressWarnings("unchecked")
         public static void writeXml(
                 final Map map,
@@ -503,16 +561,8 @@ public final class Xml {
                         index < entries.size() - 1
                                 && !String.valueOf(entries.get(index + 1).getKey())
                                         .startsWith(TEXT);
-                if (String.valueOf(entry.getKey()).startsWith("-")
-                        && entry.getValue() instanceof String) {
-                    attrs.add(
-                            " "
-                                    + XmlValue.escapeName(
-                                            String.valueOf(entry.getKey()).substring(1), namespaces)
-                                    + "=\""
-                                    + XmlValue.escape(String.valueOf(entry.getValue()))
-                                            .replace("\"", QUOT)
-                                    + "\"");
+                if (isAttribute(entry)) {
+                    attrs.add(toAttribute(entry, namespaces));
                 } else if (String.valueOf(entry.getKey()).startsWith(TEXT)) {
                     addText(entry, elems, identStep, ident, attrKeys, attrs);
                 } else {
@@ -538,6 +588,19 @@ public final class Xml {
             addToBuilder(name, parentTextFound, builder, namespaces, attrs, elems);
         }
 
+        private static boolean isAttribute(final Map.Entry entry) {
+            return String.valueOf(entry.getKey()).startsWith("-")
+                    && entry.getValue() instanceof String;
+        }
+
+        private static String toAttribute(final Map.Entry entry, final Set<String> namespaces) {
+            return " "
+                    + XmlValue.escapeName(String.valueOf(entry.getKey()).substring(1), namespaces)
+                    + "=\""
+                    + XmlValue.escape(String.valueOf(entry.getValue())).replace("\"", QUOT)
+                    + "\"";
+        }
+
         @SuppressWarnings("unchecked")
         private static void fillNamespacesAndAttrs(
                 final Map map, final Set<String> namespaces, final Set<String> attrKeys) {
@@ -960,40 +1023,61 @@ public final class Xml {
             if (length == 0) {
                 return "__EE__EMPTY__EE__";
             }
-            final StringBuilder result = new StringBuilder();
-            char ch = name.charAt(0);
-            if (ch != ':') {
-                try {
-                    if (ch != '?') {
-                        DOCUMENT.createElement(String.valueOf(ch));
-                    }
-                    result.append(ch);
-                } catch (Exception ex) {
-                    result.append("__").append(Base32.encode(Character.toString(ch))).append("__");
+            if (name.indexOf(':', 1) != -1) {
+                return escapeName(name, length, namespaces);
+            }
+            String result = ESCAPED_NAMES.get(name);
+            if (result == null) {
+                result = escapeName(name, length, namespaces);
+                if (ESCAPED_NAMES.size() < NAME_CACHE_SIZE) {
+                    ESCAPED_NAMES.put(name, result);
                 }
-            } else {
-                result.append("__").append(Base32.encode(Character.toString(ch))).append("__");
             }
-            for (int i = 1; i < length; ++i) {
-                ch = name.charAt(i);
-                if (ch == ':'
-                        && ("xmlns".equals(name.substring(0, i))
-                                || namespaces.contains(name.substring(0, i)))) {
-                    result.append(ch);
-                } else if (ch != ':') {
-                    try {
-                        DOCUMENT.createElement("a" + ch);
+            return result;
+        }
+
+        private static String escapeName(String name, int length, Set<String> namespaces) {
+            StringBuilder result = null;
+            for (int i = 0; i < length; ++i) {
+                final char ch = name.charAt(i);
+                final boolean valid;
+                if (ch == ':') {
+                    valid = i > 0 && isNamespacePrefix(name.substring(0, i), namespaces);
+                } else if (i == 0) {
+                    valid = ch == '?' || isNameChar(NAME_START_CHARS, "", ch);
+                } else {
+                    valid = isNameChar(NAME_CHARS, "a", ch);
+                }
+                if (valid) {
+                    if (result != null) {
                         result.append(ch);
-                    } catch (Exception ex) {
-                        result.append("__")
-                                .append(Base32.encode(Character.toString(ch)))
-                                .append("__");
                     }
                 } else {
+                    if (result == null) {
+                        result = new StringBuilder(length + 16).append(name, 0, i);
+                    }
                     result.append("__").append(Base32.encode(Character.toString(ch))).append("__");
                 }
             }
-            return result.toString();
+            return result == null ? name : result.toString();
+        }
+
+        private static boolean isNamespacePrefix(String prefix, Set<String> namespaces) {
+            return "xmlns".equals(prefix) || namespaces.contains(prefix);
+        }
+
+        private static boolean isNameChar(byte[] nameChars, String prefix, char ch) {
+            byte known = nameChars[ch];
+            if (known == NAME_CHAR_UNKNOWN) {
+                try {
+                    DOCUMENT.createElement(prefix + ch);
+                    known = NAME_CHAR_VALID;
+                } catch (Exception ex) {
+                    known = NAME_CHAR_INVALID;
+                }
+                nameChars[ch] = known;
+            }
+            return known == NAME_CHAR_VALID;
         }
 
         public static String escape(String s) {
@@ -1145,14 +1229,27 @@ public final class Xml {
 
     public static String toXml(
             Map map, XmlStringBuilder.Step identStep, String newRootName, ArrayTrue arrayTrue) {
+        return toXml(map, identStep, newRootName, arrayTrue, null);
+    }
+
+    public static String toXml(
+            Map sourceMap,
+            XmlStringBuilder.Step identStep,
+            String newRootName,
+            ArrayTrue arrayTrue,
+            NodeRewrite rewrite) {
+        final Map map =
+                sourceMap == null || rewrite == null
+                        ? sourceMap
+                        : new LinkedHashMap<>(new RewrittenMap(sourceMap, rewrite));
         final XmlStringBuilder builder;
         final Map localMap;
         if (map != null && map.containsKey(ENCODING)) {
-            localMap = (Map) ((LinkedHashMap) map).clone();
+            localMap = new LinkedHashMap<Object, Object>((Map<?, ?>) map);
             builder =
                     checkStandalone(String.valueOf(localMap.remove(ENCODING)), identStep, localMap);
         } else if (map != null && map.containsKey(STANDALONE)) {
-            localMap = (Map) ((LinkedHashMap) map).clone();
+            localMap = new LinkedHashMap<Object, Object>((Map<?, ?>) map);
             builder =
                     new XmlStringBuilderWithoutRoot(
                             identStep,
@@ -1162,7 +1259,7 @@ public final class Xml {
                                     + "\"");
             localMap.remove(STANDALONE);
         } else if (map != null && map.containsKey(OMITXMLDECLARATION)) {
-            localMap = (Map) ((LinkedHashMap) map).clone();
+            localMap = new LinkedHashMap<Object, Object>((Map<?, ?>) map);
             builder = new XmlStringBuilderWithoutHeader(identStep, 0);
             localMap.remove(OMITXMLDECLARATION);
         } else {
@@ -1173,6 +1270,110 @@ public final class Xml {
         return builder.toString();
     }
 
+    private static final class RewrittenMap extends AbstractMap<String, Object> {
+        private final Map<?, ?> source;
+        private final NodeRewrite rewrite;
+        private Map<String, Object> merged;
+        private boolean checked;
+
+        private RewrittenMap(final Map<?, ?> source, final NodeRewrite rewrite) {
+            this.source = source;
+            this.rewrite = rewrite;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            if (!checked) {
+                merged = mergeRenamedKeys();
+                checked = true;
+            }
+            if (merged != null) {
+                return merged.entrySet();
+            }
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    final Iterator<? extends Map.Entry<?, ?>> iterator =
+                            source.entrySet().iterator();
+                    return new Iterator<>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, Object> next() {
+                            return rewrite(iterator.next());
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return source.size();
+                }
+            };
+        }
+
+        private Map<String, Object> mergeRenamedKeys() {
+            boolean collision = false;
+            for (Map.Entry<?, ?> entry : source.entrySet()) {
+                final String key = String.valueOf(entry.getKey());
+                final String newKey = rewrite.key(key, entry.getValue());
+                if (!newKey.equals(key) && source.containsKey(newKey)) {
+                    collision = true;
+                    break;
+                }
+            }
+            if (!collision) {
+                return null;
+            }
+            final Map<String, Object> result = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : source.entrySet()) {
+                final Map.Entry<String, Object> newEntry = rewrite(entry);
+                result.put(newEntry.getKey(), newEntry.getValue());
+            }
+            return result;
+        }
+
+        private Map.Entry<String, Object> rewrite(final Map.Entry<?, ?> entry) {
+            final Object value = entry.getValue();
+            final Object newValue;
+            if (value instanceof Map) {
+                newValue = new RewrittenMap((Map<?, ?>) value, rewrite);
+            } else if (value instanceof List) {
+                newValue = new RewrittenList((List<?>) value, rewrite);
+            } else {
+                newValue = rewrite.value(value);
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(
+                    rewrite.key(String.valueOf(entry.getKey()), value), newValue);
+        }
+    }
+
+    private static final class RewrittenList extends AbstractList<Object> {
+        private final List<?> source;
+        private final NodeRewrite rewrite;
+
+        private RewrittenList(final List<?> source, final NodeRewrite rewrite) {
+            this.source = source;
+            this.rewrite = rewrite;
+        }
+
+        @Override
+        public Object get(final int index) {
+            final Object item = source.get(index);
+            return item instanceof Map
+                    ? new RewrittenMap((Map<?, ?>) item, rewrite)
+                    : rewrite.item(item);
+        }
+
+        @Override
+        public int size() {
+            return source.size();
+        }
+    }
+
     private static void checkLocalMap(
             final XmlStringBuilder builder,
             final Map localMap,
@@ -1180,7 +1381,7 @@ public final class Xml {
             final String arrayTrue) {
         final Map localMap2;
         if (localMap != null && localMap.containsKey(DOCTYPE_TEXT)) {
-            localMap2 = (Map) ((LinkedHashMap) localMap).clone();
+            localMap2 = new LinkedHashMap<Object, Object>((Map<?, ?>) localMap);
             localMap2.remove(DOCTYPE_TEXT);
             builder.append(DOCTYPE_HEADER)
                     .append(String.valueOf(localMap.get(DOCTYPE_TEXT)))
@@ -1330,6 +1531,7 @@ public final class Xml {
             final Set<String> namespaces,
             final FromType fromType) {
         final Map<String, Object> map = new LinkedHashMap<>(attrMap);
+        final Deque<String> mapKeys = new ArrayDeque<>(map.keySet());
         final org.w3c.dom.NodeList nodeList = node.getChildNodes();
         for (int index = 0; index < nodeList.getLength(); index++) {
             final org.w3c.dom.Node currentNode = nodeList.item(index);
@@ -1368,6 +1570,7 @@ public final class Xml {
             if (currentNode.getNodeType() == org.w3c.dom.Node.DOCUMENT_TYPE_NODE) {
                 addNodeValue(
                         map,
+                        mapKeys,
                         DOCTYPE_TEXT,
                         getDoctypeValue(source),
                         elementMapper,
@@ -1378,6 +1581,7 @@ public final class Xml {
             } else {
                 addNodeValue(
                         map,
+                        mapKeys,
                         name,
                         value,
                         elementMapper,
@@ -1392,88 +1596,61 @@ public final class Xml {
 
     @SuppressWarnings("unchecked")
     private static Object checkNumberAndBoolean(final Map<String, Object> map, final String name) {
-        final Map<String, Object> localMap;
-        if (map.containsKey(NUMBER) && TRUE.equals(map.get(NUMBER)) && map.containsKey(TEXT)) {
-            localMap = (Map) ((LinkedHashMap) map).clone();
-            localMap.remove(NUMBER);
-            localMap.put(TEXT, stringToNumber(String.valueOf(localMap.get(TEXT))));
-        } else {
-            localMap = map;
-        }
-        final Map<String, Object> localMap2;
-        if (map.containsKey(BOOLEAN) && TRUE.equals(map.get(BOOLEAN)) && map.containsKey(TEXT)) {
-            localMap2 = (Map) ((LinkedHashMap) localMap).clone();
-            localMap2.remove(BOOLEAN);
-            localMap2.put(TEXT, Boolean.valueOf(String.valueOf(localMap.get(TEXT))));
-        } else {
-            localMap2 = localMap;
+        final boolean hasText = map.containsKey(TEXT);
+        final boolean number = hasText && TRUE.equals(map.get(NUMBER));
+        final boolean bool = hasText && TRUE.equals(map.get(BOOLEAN));
+        final boolean nullValue = TRUE.equals(map.get(NULL_ATTR));
+        final boolean string = TRUE.equals(map.get(STRING));
+        final boolean array = TRUE.equals(map.get(ARRAY));
+        final boolean emptyArray = TRUE.equals(map.get(EMPTY_ARRAY));
+        if (!number && !bool && !nullValue && !string && !array && !emptyArray) {
+            return map;
         }
-        return checkArray(localMap2, name);
-    }
-
-    @SuppressWarnings("unchecked")
-    private static Object checkArray(final Map<String, Object> map, final String name) {
-        final Map<String, Object> localMap = checkNullAndString(map);
-        final Object object;
-        if (map.containsKey(ARRAY) && TRUE.equals(map.get(ARRAY))) {
-            final Map<String, Object> localMap4 = (Map) ((LinkedHashMap) localMap).clone();
-            localMap4.remove(ARRAY);
-            localMap4.remove(SELF_CLOSING);
-            object =
-                    name.equals(XmlValue.getMapKey(localMap4))
-                            ? new ArrayList<>(
-                                    Collections.singletonList(
-                                            getValue(
-                                                    name,
-                                                    XmlValue.getMapValue(localMap4),
-                                                    FromType.FOR_CONVERT)))
-                            : new ArrayList<>(
-                                    Collections.singletonList(
-                                            getValue(name, localMap4, FromType.FOR_CONVERT)));
-        } else {
-            object = localMap;
-        }
-        final Object object2;
-        if (map.containsKey(EMPTY_ARRAY) && TRUE.equals(map.get(EMPTY_ARRAY))) {
-            final Map<String, Object> localMap4 = (Map) ((LinkedHashMap) map).clone();
-            localMap4.remove(EMPTY_ARRAY);
-            if (localMap4.containsKey(ARRAY)
-                    && TRUE.equals(localMap4.get(ARRAY))
-                    && localMap4.size() == 1) {
-                object2 = new ArrayList<>();
-                ((List) object2).add(new ArrayList<>());
-            } else {
-                object2 = localMap4.isEmpty() ? new ArrayList<>() : localMap4;
+        final Map<String, Object> localMap = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            final String key = entry.getKey();
+            if (number && NUMBER.equals(key)
+                    || bool && BOOLEAN.equals(key)
+                    || emptyArray && EMPTY_ARRAY.equals(key)
+                    || !emptyArray
+                            && (nullValue && NULL_ATTR.equals(key)
+                                    || string && STRING.equals(key)
+                                    || array && (ARRAY.equals(key) || SELF_CLOSING.equals(key)))) {
+                continue;
             }
-        } else {
-            object2 = object;
-        }
-        return object2;
-    }
-
-    @SuppressWarnings("unchecked")
-    private static Map<String, Object> checkNullAndString(final Map<String, Object> map) {
-        final Map<String, Object> localMap;
-        if (map.containsKey(NULL_ATTR) && TRUE.equals(map.get(NULL_ATTR))) {
-            localMap = (Map) ((LinkedHashMap) map).clone();
-            localMap.remove(NULL_ATTR);
-            if (!map.containsKey(TEXT)) {
-                localMap.put(TEXT, null);
+            Object value = entry.getValue();
+            if (TEXT.equals(key)) {
+                if (number) {
+                    value = stringToNumber(String.valueOf(value));
+                }
+                if (bool) {
+                    value = Boolean.valueOf(String.valueOf(value));
+                }
             }
-        } else {
-            localMap = map;
+            localMap.put(key, value);
         }
-        final Map<String, Object> localMap2;
-        if (map.containsKey(STRING) && TRUE.equals(map.get(STRING))) {
-            localMap2 = (Map) ((LinkedHashMap) localMap).clone();
-            localMap2.remove(STRING);
-            if (!map.containsKey(TEXT)) {
-                localMap2.put(TEXT, "");
+        if (emptyArray) {
+            if (array && localMap.size() == 1) {
+                final List<Object> result = new ArrayList<>();
+                result.add(new ArrayList<>());
+                return result;
             }
-        } else {
-            localMap2 = localMap;
+            return localMap.isEmpty() ? new ArrayList<>() : localMap;
+        }
+        if (!hasText && (nullValue || string)) {
+            localMap.put(TEXT, string ? "" : null);
+        }
+        if (array) {
+            return new ArrayList<>(
+                    Collections.singletonList(
+                            name.equals(XmlValue.getMapKey(localMap))
+                                    ? getValue(
+                                            name,
+                                            XmlValue.getMapValue(localMap),
+                                            FromType.FOR_CONVERT)
+                                    : getValue(name, localMap, FromType.FOR_CONVERT)));
         }
-        return localMap2;
+        return localMap;
     }
 
     private static Object addElement(
@@ -1486,6 +1663,7 @@ public final class Xml {
             final Set<String> namespaces,
             final FromType fromType) {
         final Map<String, Object> attrMapLocal = new LinkedHashMap<>();
+        final Deque<String> attrKeys = new ArrayDeque<>();
         if (currentNode.getAttributes().getLength() > 0) {
             final Map<String, String> attributes =
                     parseAttributes(getAttributes(sourceIndex[0], source));
@@ -1497,6 +1675,7 @@ public final class Xml {
             for (Map.Entry<String, String> attribute : attributes.entrySet()) {
                 addNodeValue(
                         attrMapLocal,
+                        attrKeys,
                         '-' + attribute.getKey(),
                         attribute.getValue(),
                         elementMapper,
@@ -1581,7 +1760,18 @@ public final class Xml {
         if (!name.contains("__")) {
             return name;
         }
-        StringBuilder result = new StringBuilder();
+        String result = UNESCAPED_NAMES.get(name);
+        if (result == null) {
+            result = decodeName(name, length);
+            if (UNESCAPED_NAMES.size() < NAME_CACHE_SIZE) {
+                UNESCAPED_NAMES.put(name, result);
+            }
+        }
+        return result;
+    }
+
+    private static String decodeName(final String name, final int length) {
+        StringBuilder result = new StringBuilder(length);
         int underlineCount = 0;
         StringBuilder lastChars = new StringBuilder();
         int i = 0;
@@ -1625,6 +1815,7 @@ public final class Xml {
     @SuppressWarnings("unchecked")
     private static void addNodeValue(
             final Map<String, Object> map,
+            final Deque<String> mapKeys,
             final String name,
             final Object value,
             final BiFunction<Object, Set<String>, String> elementMapper,
@@ -1635,57 +1826,74 @@ public final class Xml {
         final String elementName = unescapeName(elementMapper.apply(name, namespaces));
         if (map.containsKey(elementName)) {
             if (TEXT.equals(elementName)) {
-                map.put(
+                putNewKey(
+                        map,
+                        mapKeys,
                         elementName + uniqueIds[0],
                         nodeMapper.apply(getValue(name, value, fromType)));
                 uniqueIds[0] += 1;
             } else if (COMMENT.equals(elementName)) {
-                map.put(
+                putNewKey(
+                        map,
+                        mapKeys,
                         elementName + uniqueIds[1],
                         nodeMapper.apply(getValue(name, value, fromType)));
                 uniqueIds[1] += 1;
             } else if (CDATA.equals(elementName)) {
-                map.put(
+                putNewKey(
+                        map,
+                        mapKeys,
                         elementName + uniqueIds[2],
                         nodeMapper.apply(getValue(name, value, fromType)));
                 uniqueIds[2] += 1;
             } else {
                 final Object object = map.get(elementName);
                 if (object instanceof List) {
-                    addText(map, elementName, (List<Object>) object, value, fromType);
+                    addText(map, mapKeys, elementName, (List<Object>) object, value, fromType);
                 } else {
                     final List<Object> objects = new ArrayList<>();
                     objects.add(object);
-                    addText(map, elementName, objects, value, fromType);
+                    addText(map, mapKeys, elementName, objects, value, fromType);
                     map.put(elementName, objects);
                 }
             }
         } else {
             if (elementName != null) {
-                map.put(elementName, nodeMapper.apply(getValue(name, value, fromType)));
+                putNewKey(
+                        map,
+                        mapKeys,
+                        elementName,
+                        nodeMapper.apply(getValue(name, value, fromType)));
             }
         }
     }
 
+    private static void putNewKey(
+            final Map<String, Object> map,
+            final Deque<String> mapKeys,
+            final String key,
+            final Object value) {
+        if (!map.containsKey(key)) {
+            mapKeys.addLast(key);
+        }
+        map.put(key, value);
+    }
+
     private static void addText(
             final Map<String, Object> map,
+            final Deque<String> mapKeys,
             final String name,
             final List<Object> objects,
             final Object value,
             final FromType fromType) {
-        int lastIndex = map.size() - 1;
         final int index = objects.size();
-        while (true) {
-            final Map.Entry lastElement = (Map.Entry) map.entrySet().toArray()[lastIndex];
-            if (name.equals(String.valueOf(lastElement.getKey()))) {
-                break;
-            }
+        while (!mapKeys.isEmpty() && !name.equals(mapKeys.peekLast())) {
+            final String lastKey = mapKeys.pollLast();
             final Map<String, Object> item = new LinkedHashMap<>();
             final Map<String, Object> text = new LinkedHashMap<>();
-            text.put(String.valueOf(lastElement.getKey()), map.remove(lastElement.getKey()));
+            text.put(lastKey, map.remove(lastKey));
             item.put("#item", text);
             objects.add(index, item);
-            lastIndex -= 1;
         }
         final Object newValue = getValue(name, value, fromType);
         if (newValue instanceof List) {
@@ -1730,31 +1938,43 @@ public final class Xml {
         }
     }
 
-    @SuppressWarnings("unchecked")
     private static boolean checkResult(
             final String xml,
             org.w3c.dom.Document document,
             final Object result,
             final FromType fromType) {
-        final Map<String, String> headerAttributes = getHeaderAttributes(xml);
-        if (document.getXmlEncoding() != null
-                && !"UTF-8".equalsIgnoreCase(document.getXmlEncoding())) {
-            ((Map) result).put(ENCODING, document.getXmlEncoding());
-            if (headerAttributes.containsKey(STANDALONE.substring(1))) {
-                ((Map) result).put(STANDALONE, headerAttributes.get(STANDALONE.substring(1)));
-            }
-        } else if (headerAttributes.containsKey(STANDALONE.substring(1))) {
-            ((Map) result).put(STANDALONE, headerAttributes.get(STANDALONE.substring(1)));
+        return checkResult(
+                document.getXmlEncoding(),
+                getHeaderAttributes(xml).get(STANDALONE.substring(1)),
+                xml.startsWith(XML_HEADER),
+                result,
+                fromType);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean checkResult(
+            final String encoding,
+            final String standalone,
+            final boolean hasHeader,
+            final Object result,
+            final FromType fromType) {
+        if (encoding != null && !"UTF-8".equalsIgnoreCase(encoding)) {
+            ((Map) result).put(ENCODING, encoding);
+            if (standalone != null) {
+                ((Map) result).put(STANDALONE, standalone);
+            }
+        } else if (standalone != null) {
+            ((Map) result).put(STANDALONE, standalone);
         } else if (fromType == FromType.FOR_CONVERT
                 && Xml.XmlValue.getMapKey(result).equals(ROOT)
                 && (Xml.XmlValue.getMapValue(result) instanceof List
                         || Xml.XmlValue.getMapValue(result) instanceof Map)) {
-            if (xml.startsWith(XML_HEADER)) {
+            if (hasHeader) {
                 return true;
             } else {
                 ((Map) result).put(OMITXMLDECLARATION, YES);
             }
-        } else if (!xml.startsWith(XML_HEADER)) {
+        } else if (!hasHeader) {
             ((Map) result).put(OMITXMLDECLARATION, YES);
         }
         return false;
@@ -1839,111 +2059,2602 @@ public final class Xml {
         }
     }
 
-    public static Object fromXmlMakeArrays(final String xml) {
-        try {
-            org.w3c.dom.Document document = Document.createDocument(xml);
-            final Object result =
-                    createMap(
-                            document,
-                            (object, namespaces) -> String.valueOf(object),
-                            object ->
-                                    object instanceof List
-                                            ? object
-                                            : new ArrayList<>(Collections.singletonList(object)),
-                            Collections.emptyMap(),
-                            new int[] {1, 1, 1},
-                            xml,
-                            new int[] {0},
-                            new LinkedHashSet<>(),
-                            FromType.FOR_CONVERT);
-            if (checkResult(xml, document, result, FromType.FOR_CONVERT)) {
-                return ((Map.Entry) ((Map) result).entrySet().iterator().next()).getValue();
-            }
-            return result;
-        } catch (Exception ex) {
-            throw new IllegalArgumentException(ex);
+    static final class PathQuery {
+        private static final Set<String> TYPE_ATTRIBUTES =
+                Set.of(
+                        "number",
+                        "boolean",
+                        "null",
+                        "string",
+                        "array",
+                        "empty-array",
+                        "self-closing");
+        private static final String[] OPERATORS = {"!=", "<=", ">=", "=", "<", ">"};
+        private static final java.util.regex.Pattern XPATH_NUMBER =
+                java.util.regex.Pattern.compile("[ \t\r\n]*-?(\\d+(\\.\\d*)?|\\.\\d+)[ \t\r\n]*");
+        private static final RuntimeException UNSUPPORTED =
+                new RuntimeException("unsupported", null, false, false) {};
+        private static final int ELEMENT = 0;
+        private static final int TEXT_NODE = 1;
+        private static final int ATTRIBUTE = 2;
+        private static final int SELF = 3;
+        private static final int LAST = -1;
+        private static final int NO_POSITION = Integer.MIN_VALUE;
+        private final List<PathStep> steps;
+
+        private PathQuery(final List<PathStep> steps) {
+            this.steps = steps;
         }
-    }
 
-    public static Object fromXmlWithElementMapper(
-            final String xml, final BiFunction<Object, Set<String>, String> elementMapper) {
-        try {
-            org.w3c.dom.Document document = Document.createDocument(xml);
-            final Object result =
-                    createMap(
-                            document,
-                            elementMapper,
-                            object -> object,
-                            Collections.emptyMap(),
-                            new int[] {1, 1, 1},
-                            xml,
-                            new int[] {0},
-                            new LinkedHashSet<>(),
-                            FromType.FOR_CONVERT);
-            if (checkResult(xml, document, result, FromType.FOR_CONVERT)) {
-                return ((Map.Entry) ((Map) result).entrySet().iterator().next()).getValue();
+        private static final class PathStep {
+            private final boolean descendant;
+            private final int kind;
+            private final String name;
+            private final List<PathPredicate> predicates = new ArrayList<>();
+
+            private PathStep(final boolean descendant, final int kind, final String name) {
+                this.descendant = descendant;
+                this.kind = kind;
+                this.name = name;
             }
-            return result;
-        } catch (Exception ex) {
-            throw new IllegalArgumentException(ex);
         }
-    }
 
-    public static Object fromXmlWithoutNamespaces(final String xml) {
-        return fromXmlWithElementMapper(
-                xml,
-                (object, namespaces) -> {
-                    final String localString = String.valueOf(object);
-                    final String result;
-                    String substring =
-                            localString.substring(Math.max(0, localString.indexOf(':') + 1));
-                    if (localString.startsWith("-")
-                            && namespaces.contains(
-                                    localString.substring(
-                                            1, Math.max(1, localString.indexOf(':'))))) {
-                        result = "-" + substring;
-                    } else if (namespaces.contains(
-                            localString.substring(0, Math.max(0, localString.indexOf(':'))))) {
-                        result = substring;
-                    } else {
-                        result = String.valueOf(object);
-                    }
-                    return result;
-                });
-    }
+        private static final class PathPredicate {
+            private int position = NO_POSITION;
+            private int kind;
+            private String name;
+            private String operator;
+            private String literal;
+            private double number = Double.NaN;
+        }
 
-    public static Object fromXmlWithoutAttributes(final String xml) {
-        return fromXmlWithElementMapper(
-                xml,
-                (object, namespaces) ->
-                        String.valueOf(object).startsWith("-") ? null : String.valueOf(object));
-    }
+        private static final class PathNode {
+            private final PathNode parent;
+            private final int index;
+            private final int kind;
+            private final String name;
+            private final Object value;
 
-    public static Object fromXmlWithoutNamespacesAndAttributes(final String xml) {
-        return fromXmlWithElementMapper(
-                xml,
-                (object, namespaces) -> {
-                    final String localString = String.valueOf(object);
-                    final String result;
-                    if (localString.startsWith("-")) {
-                        result = null;
-                    } else if (namespaces.contains(
-                            localString.substring(0, Math.max(0, localString.indexOf(':'))))) {
-                        result = localString.substring(Math.max(0, localString.indexOf(':') + 1));
-                    } else {
-                        result = String.valueOf(object);
-                    }
-                    return result;
-                });
-    }
+            private PathNode(
+                    final PathNode parent,
+                    final int index,
+                    final int kind,
+                    final String name,
+                    final Object value) {
+                this.parent = parent;
+                this.index = index;
+                this.kind = kind;
+                this.name = name;
+                this.value = value;
+            }
 
-    public static String formatXml(String xml, XmlStringBuilder.Step identStep) {
-        Object result = fromXml(xml, FromType.FOR_FORMAT);
-        return toXml((Map) result, identStep, ROOT);
-    }
+            private int depth() {
+                int depth = 0;
+                for (PathNode node = parent; node != null; node = node.parent) {
+                    depth += 1;
+                }
+                return depth;
+            }
+        }
 
-    public static String formatXml(String xml) {
-        return formatXml(xml, XmlStringBuilder.Step.TWO_SPACES);
+        static PathQuery compile(final String expression) {
+            final int[] pos = {0};
+            final List<PathStep> steps = new ArrayList<>();
+            boolean descendant = false;
+            if (expression.startsWith("//")) {
+                descendant = true;
+                pos[0] = 2;
+            } else if (expression.startsWith("/")) {
+                pos[0] = 1;
+            }
+            while (true) {
+                final PathStep step = parseStep(expression, pos, descendant);
+                if (step == null
+                        || !steps.isEmpty() && steps.get(steps.size() - 1).kind != ELEMENT) {
+                    return null;
+                }
+                steps.add(step);
+                if (pos[0] == expression.length()) {
+                    return new PathQuery(steps);
+                }
+                if (expression.startsWith("//", pos[0])) {
+                    descendant = true;
+                    pos[0] += 2;
+                } else if (expression.charAt(pos[0]) == '/') {
+                    descendant = false;
+                    pos[0] += 1;
+                } else {
+                    return null;
+                }
+            }
+        }
+
+        private static PathStep parseStep(
+                final String expression, final int[] pos, final boolean descendant) {
+            if (expression.startsWith("text()", pos[0])) {
+                pos[0] += "text()".length();
+                return new PathStep(descendant, TEXT_NODE, null);
+            }
+            if (expression.startsWith("@", pos[0])) {
+                pos[0] += 1;
+                final String name = parseName(expression, pos);
+                return name == null || TYPE_ATTRIBUTES.contains(name)
+                        ? null
+                        : new PathStep(descendant, ATTRIBUTE, name);
+            }
+            final PathStep step;
+            if (expression.startsWith("*", pos[0])) {
+                pos[0] += 1;
+                step = new PathStep(descendant, ELEMENT, null);
+            } else {
+                final String name = parseName(expression, pos);
+                if (name == null) {
+                    return null;
+                }
+                step = new PathStep(descendant, ELEMENT, name);
+            }
+            while (expression.startsWith("[", pos[0])) {
+                pos[0] += 1;
+                final PathPredicate predicate = parsePredicate(expression, pos);
+                if (predicate == null) {
+                    return null;
+                }
+                step.predicates.add(predicate);
+            }
+            return step;
+        }
+
+        private static PathPredicate parsePredicate(final String expression, final int[] pos) {
+            final PathPredicate predicate = new PathPredicate();
+            skipSpaces(expression, pos);
+            if (pos[0] < expression.length() && Character.isDigit(expression.charAt(pos[0]))) {
+                final int start = pos[0];
+                while (pos[0] < expression.length()
+                        && Character.isDigit(expression.charAt(pos[0]))) {
+                    pos[0] += 1;
+                }
+                if (pos[0] - start > 9) {
+                    return null;
+                }
+                predicate.position = Integer.parseInt(expression.substring(start, pos[0]));
+            } else if (expression.startsWith("last()", pos[0])) {
+                pos[0] += "last()".length();
+                predicate.position = LAST;
+            } else if (!parseComparison(expression, pos, predicate)) {
+                return null;
+            }
+            skipSpaces(expression, pos);
+            if (!expression.startsWith("]", pos[0])) {
+                return null;
+            }
+            pos[0] += 1;
+            return predicate;
+        }
+
+        private static boolean parseComparison(
+                final String expression, final int[] pos, final PathPredicate predicate) {
+            if (expression.startsWith("text()", pos[0])) {
+                pos[0] += "text()".length();
+                predicate.kind = TEXT_NODE;
+            } else if (expression.startsWith("@", pos[0])) {
+                pos[0] += 1;
+                predicate.kind = ATTRIBUTE;
+                predicate.name = parseName(expression, pos);
+                if (predicate.name == null || TYPE_ATTRIBUTES.contains(predicate.name)) {
+                    return false;
+                }
+            } else if (expression.startsWith(".", pos[0])) {
+                pos[0] += 1;
+                predicate.kind = SELF;
+            } else {
+                predicate.kind = ELEMENT;
+                predicate.name = parseName(expression, pos);
+                if (predicate.name == null) {
+                    return false;
+                }
+            }
+            skipSpaces(expression, pos);
+            for (String operator : OPERATORS) {
+                if (expression.startsWith(operator, pos[0])) {
+                    predicate.operator = operator;
+                    pos[0] += operator.length();
+                    break;
+                }
+            }
+            if (predicate.operator == null) {
+                return expression.startsWith("]", pos[0]);
+            }
+            skipSpaces(expression, pos);
+            if (pos[0] >= expression.length()) {
+                return false;
+            }
+            final char quote = expression.charAt(pos[0]);
+            if (quote == '\'' || quote == '"') {
+                final int end = expression.indexOf(quote, pos[0] + 1);
+                if (end == -1) {
+                    return false;
+                }
+                predicate.literal = expression.substring(pos[0] + 1, end);
+                pos[0] = end + 1;
+                return true;
+            }
+            final int start = pos[0];
+            while (pos[0] < expression.length()
+                    && (Character.isDigit(expression.charAt(pos[0]))
+                            || expression.charAt(pos[0]) == '.')) {
+                pos[0] += 1;
+            }
+            predicate.number = toNumber(expression.substring(start, pos[0]));
+            return start < pos[0] && !Double.isNaN(predicate.number);
+        }
+
+        private static String parseName(final String expression, final int[] pos) {
+            final int start = pos[0];
+            if (start >= expression.length()
+                    || !Character.isLetter(expression.charAt(start))
+                            && expression.charAt(start) != '_') {
+                return null;
+            }
+            pos[0] += 1;
+            while (pos[0] < expression.length()) {
+                final char ch = expression.charAt(pos[0]);
+                if (!Character.isLetterOrDigit(ch) && ch != '_' && ch != '-' && ch != '.') {
+                    break;
+                }
+                pos[0] += 1;
+            }
+            final String name = expression.substring(start, pos[0]);
+            return name.contains("__") || expression.startsWith("(", pos[0]) ? null : name;
+        }
+
+        private static void skipSpaces(final String expression, final int[] pos) {
+            while (pos[0] < expression.length() && expression.charAt(pos[0]) == ' ') {
+                pos[0] += 1;
+            }
+        }
+
+        private static double toNumber(final String value) {
+            return XPATH_NUMBER.matcher(value).matches()
+                    ? Double.parseDouble(value.trim())
+                    : Double.NaN;
+        }
+
+        List<String> evaluate(final Map<String, Object> map) {
+            try {
+                List<PathNode> context = Collections.singletonList(createDocument(map));
+                for (PathStep step : steps) {
+                    final List<PathNode> result = new ArrayList<>();
+                    for (PathNode node : context) {
+                        if (step.descendant) {
+                            for (PathNode source : descendantsOrSelf(node, new ArrayList<>())) {
+                                applyStep(step, source, result);
+                            }
+                        } else {
+                            applyStep(step, node, result);
+                        }
+                    }
+                    context = step.descendant || context.size() > 1 ? sortNodes(result) : result;
+                }
+                final List<String> values = new ArrayList<>();
+                for (PathNode node : context) {
+                    values.add(node.kind == ELEMENT ? null : (String) node.value);
+                }
+                return values;
+            } catch (RuntimeException ex) {
+                if (ex == UNSUPPORTED) {
+                    return null;
+                }
+                throw ex;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static PathNode createDocument(final Map<String, Object> map) {
+            if (map == null) {
+                throw UNSUPPORTED;
+            }
+            final Map<String, Object> localMap = new LinkedHashMap<>(map);
+            if (localMap.containsKey(ENCODING)) {
+                localMap.remove(ENCODING);
+                localMap.remove(STANDALONE);
+            } else if (localMap.containsKey(STANDALONE)) {
+                localMap.remove(STANDALONE);
+            } else {
+                localMap.remove(OMITXMLDECLARATION);
+            }
+            for (String key : localMap.keySet()) {
+                if (key.startsWith("#") && !key.startsWith(COMMENT)
+                        || key.startsWith("?")
+                        || DOCTYPE_TEXT.equals(key)) {
+                    throw UNSUPPORTED;
+                }
+            }
+            if (!(localMap.size() == 1
+                            && !XmlValue.getMapKey(localMap).startsWith("-")
+                            && !(XmlValue.getMapValue(localMap) instanceof List))
+                    && ROOT.equals(XmlValue.getMapKey(localMap))) {
+                throw UNSUPPORTED;
+            }
+            final Map<String, Object> document;
+            if (getRootName(localMap, ROOT) == null) {
+                document = localMap;
+            } else {
+                document = new LinkedHashMap<>();
+                document.put(ROOT, localMap);
+            }
+            return new PathNode(null, 0, SELF, null, document);
+        }
+
+        private static void applyStep(
+                final PathStep step, final PathNode node, final List<PathNode> result) {
+            if (step.kind == TEXT_NODE) {
+                final List<String> texts = texts(node);
+                for (int index = 0; index < texts.size(); index++) {
+                    result.add(new PathNode(node, index, TEXT_NODE, null, texts.get(index)));
+                }
+            } else if (step.kind == ATTRIBUTE) {
+                final String value = attribute(node, step.name);
+                if (value != null) {
+                    result.add(new PathNode(node, -1, ATTRIBUTE, step.name, value));
+                }
+            } else {
+                List<PathNode> matched = new ArrayList<>();
+                for (PathNode child : elements(node)) {
+                    if (step.name == null || matches(step.name, child)) {
+                        matched.add(child);
+                    }
+                }
+                for (PathPredicate predicate : step.predicates) {
+                    final List<PathNode> filtered = new ArrayList<>();
+                    for (int index = 0; index < matched.size(); index++) {
+                        if (test(predicate, matched.get(index), index + 1, matched.size())) {
+                            filtered.add(matched.get(index));
+                        }
+                    }
+                    matched = filtered;
+                }
+                result.addAll(matched);
+            }
+        }
+
+        private static boolean test(
+                final PathPredicate predicate,
+                final PathNode node,
+                final int position,
+                final int size) {
+            if (predicate.position == LAST) {
+                return position == size;
+            }
+            if (predicate.position != NO_POSITION) {
+                return position == predicate.position;
+            }
+            final List<String> values = new ArrayList<>();
+            if (predicate.kind == ATTRIBUTE) {
+                final String value = attribute(node, predicate.name);
+                if (value != null) {
+                    values.add(value);
+                }
+            } else if (predicate.kind == TEXT_NODE) {
+                values.addAll(texts(node));
+            } else if (predicate.kind == SELF) {
+                values.add(stringValue(node));
+            } else {
+                for (PathNode child : elements(node)) {
+                    if (matches(predicate.name, child)) {
+                        values.add(predicate.operator == null ? "" : stringValue(child));
+                    }
+                }
+            }
+            if (predicate.operator == null) {
+                return !values.isEmpty();
+            }
+            for (String value : values) {
+                if (compare(value, predicate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean matches(final String name, final PathNode node) {
+            return name.equals(node.name)
+                    && name.equals(XmlValue.escapeName(node.name, Collections.emptySet()));
+        }
+
+        private static boolean compare(final String value, final PathPredicate predicate) {
+            if (predicate.literal != null
+                    && ("=".equals(predicate.operator) || "!=".equals(predicate.operator))) {
+                return value.equals(predicate.literal) == "=".equals(predicate.operator);
+            }
+            final double left = toNumber(value);
+            final double right =
+                    predicate.literal == null ? predicate.number : toNumber(predicate.literal);
+            switch (predicate.operator) {
+                case "=":
+                    return left == right;
+                case "!=":
+                    return left != right;
+                case "<":
+                    return left < right;
+                case "<=":
+                    return left <= right;
+                case ">":
+                    return left > right;
+                default:
+                    return left >= right;
+            }
+        }
+
+        private static List<PathNode> descendantsOrSelf(
+                final PathNode node, final List<PathNode> result) {
+            result.add(node);
+            for (PathNode child : elements(node)) {
+                descendantsOrSelf(child, result);
+            }
+            return result;
+        }
+
+        private static List<PathNode> sortNodes(final List<PathNode> nodes) {
+            if (nodes.size() < 2) {
+                return nodes;
+            }
+            final Map<PathNode, int[]> nodePaths = new java.util.IdentityHashMap<>();
+            for (PathNode node : nodes) {
+                final int[] path = new int[node.depth() + 1];
+                int level = path.length - 1;
+                for (PathNode current = node; current != null; current = current.parent) {
+                    path[level--] = current.kind == ATTRIBUTE ? -1 : current.index;
+                }
+                nodePaths.put(node, path);
+            }
+            final List<PathNode> sorted = new ArrayList<>(nodes);
+            sorted.sort(
+                    (first, second) -> Arrays.compare(nodePaths.get(first), nodePaths.get(second)));
+            final List<PathNode> result = new ArrayList<>();
+            int[] previous = null;
+            for (PathNode node : sorted) {
+                final int[] path = nodePaths.get(node);
+                if (previous == null || !Arrays.equals(previous, path)) {
+                    result.add(node);
+                }
+                previous = path;
+            }
+            return result;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static List<PathNode> elements(final PathNode node) {
+            if (!(node.value instanceof Map)) {
+                return Collections.emptyList();
+            }
+            final List<PathNode> result = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) node.value).entrySet()) {
+                final String key = String.valueOf(entry.getKey());
+                final Object value = entry.getValue();
+                if (key.startsWith("-")) {
+                    if (!(value instanceof String)
+                            || key.contains(":")
+                            || key.startsWith("-xmlns")
+                            || SELF_CLOSING.equals(key)) {
+                        throw UNSUPPORTED;
+                    }
+                } else if (key.startsWith(TEXT)
+                        || key.startsWith(COMMENT)
+                        || key.startsWith(CDATA)) {
+                    continue;
+                } else if (key.startsWith("#") || key.startsWith("?") || key.contains(":")) {
+                    throw UNSUPPORTED;
+                } else if (value instanceof List && !((List<Object>) value).isEmpty()) {
+                    for (Object item : (List<Object>) value) {
+                        if (item instanceof List
+                                || item instanceof Map
+                                        && ((Map<String, Object>) item).size() == 1
+                                        && "#item".equals(XmlValue.getMapKey(item))) {
+                            throw UNSUPPORTED;
+                        }
+                        result.add(createElement(node, result.size(), key, item));
+                    }
+                } else {
+                    result.add(createElement(node, result.size(), key, value));
+                }
+            }
+            return result;
+        }
+
+        private static PathNode createElement(
+                final PathNode parent, final int index, final String name, final Object value) {
+            if (value != null
+                    && !(value instanceof Map)
+                    && !(value instanceof List)
+                    && !(value instanceof String)
+                    && !(value instanceof Boolean)
+                    && !(value instanceof Number)
+                    || value instanceof Double
+                            && (((Double) value).isInfinite() || ((Double) value).isNaN())
+                    || value instanceof Float
+                            && (((Float) value).isInfinite() || ((Float) value).isNaN())) {
+                throw UNSUPPORTED;
+            }
+            return new PathNode(parent, index, ELEMENT, name, value);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static List<String> texts(final PathNode node) {
+            if (node.kind != ELEMENT || node.value == null || node.value instanceof List) {
+                return Collections.emptyList();
+            }
+            Object text = node.value;
+            if (node.value instanceof Map) {
+                if (!elements(node).isEmpty()) {
+                    throw UNSUPPORTED;
+                }
+                text = null;
+                int count = 0;
+                for (Map.Entry<String, Object> entry :
+                        ((Map<String, Object>) node.value).entrySet()) {
+                    final String key = String.valueOf(entry.getKey());
+                    if (key.startsWith(TEXT)) {
+                        text = entry.getValue();
+                        count += 1;
+                    } else if (key.startsWith(COMMENT) || key.startsWith(CDATA)) {
+                        throw UNSUPPORTED;
+                    }
+                }
+                if (count > 1 || text instanceof Map || text instanceof List) {
+                    throw UNSUPPORTED;
+                }
+            }
+            if (text == null || "".equals(text)) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(toText(String.valueOf(text), false));
+        }
+
+        @SuppressWarnings("unchecked")
+        private static String attribute(final PathNode node, final String name) {
+            if (node.kind != ELEMENT || !(node.value instanceof Map)) {
+                return null;
+            }
+            final Object value = ((Map<String, Object>) node.value).get("-" + name);
+            if (value == null) {
+                return null;
+            }
+            if (!(value instanceof String)) {
+                throw UNSUPPORTED;
+            }
+            return toText((String) value, true);
+        }
+
+        private static String stringValue(final PathNode node) {
+            return String.join("", texts(node));
+        }
+
+        private static String toText(final String value, final boolean attribute) {
+            final StringBuilder result = new StringBuilder(value.length());
+            for (int index = 0; index < value.length(); index++) {
+                final char ch = value.charAt(index);
+                if (ch == '\b' || ch == '\f') {
+                    result.append(ch == '\b' ? "\\b" : "\\f");
+                } else if (attribute && (ch == '\n' || ch == '\t')) {
+                    result.append(' ');
+                } else if (ch < ' ' && ch != '\n' && ch != '\t' && ch != '\r'
+                        || ch == '\uFFFE'
+                        || ch == '\uFFFF'
+                        || Character.isSurrogate(ch)) {
+                    throw UNSUPPORTED;
+                } else {
+                    result.append(ch);
+                }
+            }
+            return result.toString();
+        }
+    }
+
+    public static Object fromXmlMakeArrays(final String xml) {
+        try {
+            org.w3c.dom.Document document = Document.createDocument(xml);
+            final Object result =
+                    createMap(
+                            document,
+                            (object, namespaces) -> String.valueOf(object),
+                            object ->
+                                    object instanceof List
+                                            ? object
+                                            : new ArrayList<>(Collections.singletonList(object)),
+                            Collections.emptyMap(),
+                            new int[] {1, 1, 1},
+                            xml,
+                            new int[] {0},
+                            new LinkedHashSet<>(),
+                            FromType.FOR_CONVERT);
+            if (checkResult(xml, document, result, FromType.FOR_CONVERT)) {
+                return ((Map.Entry) ((Map) result).entrySet().iterator().next()).getValue();
+            }
+            return result;
+        } catch (Exception ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    public static Object fromXmlWithElementMapper(
+            final String xml, final BiFunction<Object, Set<String>, String> elementMapper) {
+        try {
+            org.w3c.dom.Document document = Document.createDocument(xml);
+            final Object result =
+                    createMap(
+                            document,
+                            elementMapper,
+                            object -> object,
+                            Collections.emptyMap(),
+                            new int[] {1, 1, 1},
+                            xml,
+                            new int[] {0},
+                            new LinkedHashSet<>(),
+                            FromType.FOR_CONVERT);
+            if (checkResult(xml, document, result, FromType.FOR_CONVERT)) {
+                return ((Map.Entry) ((Map) result).entrySet().iterator().next()).getValue();
+            }
+            return result;
+        } catch (Exception ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    public static Object fromXmlWithoutNamespaces(final String xml) {
+        return fromXmlWithElementMapper(xml, Xml::withoutNamespaces);
+    }
+
+    private static String withoutNamespaces(final Object object, final Set<String> namespaces) {
+        final String localString = String.valueOf(object);
+        final String result;
+        String substring = localString.substring(Math.max(0, localString.indexOf(':') + 1));
+        if (localString.startsWith("-")
+                && namespaces.contains(
+                        localString.substring(1, Math.max(1, localString.indexOf(':'))))) {
+            result = "-" + substring;
+        } else if (namespaces.contains(
+                localString.substring(0, Math.max(0, localString.indexOf(':'))))) {
+            result = substring;
+        } else {
+            result = String.valueOf(object);
+        }
+        return result;
+    }
+
+    public static Object fromXmlWithoutAttributes(final String xml) {
+        return fromXmlWithElementMapper(
+                xml,
+                (object, namespaces) ->
+                        String.valueOf(object).startsWith("-") ? null : String.valueOf(object));
+    }
+
+    public static Object fromXmlWithoutNamespacesAndAttributes(final String xml) {
+        return fromXmlWithElementMapper(
+                xml,
+                (object, namespaces) -> {
+                    final String localString = String.valueOf(object);
+                    final String result;
+                    if (localString.startsWith("-")) {
+                        result = null;
+                    } else if (namespaces.contains(
+                            localString.substring(0, Math.max(0, localString.indexOf(':'))))) {
+                        result = localString.substring(Math.max(0, localString.indexOf(':') + 1));
+                    } else {
+                        result = String.valueOf(object);
+                    }
+                    return result;
+                });
+    }
+
+    public static void toJson(
+            final java.io.InputStream xmlInputStream,
+            final java.io.Writer jsonWriter,
+            final Json.JsonStringBuilder.Step identStep,
+            final U.XmlToJsonMode mode)
+            throws java.io.IOException {
+        toJson(
+                xmlInputStream,
+                new Json.JsonWriter(jsonWriter, identStep, System.lineSeparator()),
+                mode,
+                STREAM_BUFFER_NODES);
+    }
+
+    static void toJson(
+            final java.io.InputStream xmlInputStream,
+            final Json.JsonWriter jsonWriter,
+            final U.XmlToJsonMode mode,
+            final int bufferNodes)
+            throws java.io.IOException {
+        new JsonStreamConverter(jsonWriter, mode, bufferNodes).convert(xmlInputStream);
+        jsonWriter.flush();
+    }
+
+    static javax.xml.stream.XMLInputFactory createXmlInputFactory() {
+        final javax.xml.stream.XMLInputFactory factory =
+                javax.xml.stream.XMLInputFactory.newInstance();
+        factory.setProperty(javax.xml.stream.XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(
+                javax.xml.stream.XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(javax.xml.stream.XMLInputFactory.IS_COALESCING, false);
+        try {
+            factory.setProperty(REPORT_CDATA_EVENT, true);
+        } catch (IllegalArgumentException ignored) {
+            // ignored
+        }
+        return factory;
+    }
+
+    private static final class StreamFrame {
+        private final StreamFrame parent;
+        private final String name;
+        private final int offset;
+        private final Map<String, Object> map = new LinkedHashMap<>();
+        private final Deque<String> mapKeys = new ArrayDeque<>();
+        private final Set<String> written = new HashSet<>();
+        private int childNodes;
+        private String blankText;
+        private int size;
+        private int nextCheck;
+        private boolean live;
+        private boolean arrayShape;
+        private String openArray;
+
+        private StreamFrame(
+                final StreamFrame parent,
+                final String name,
+                final int offset,
+                final int nextCheck) {
+            this.parent = parent;
+            this.name = name;
+            this.offset = offset;
+            this.nextCheck = nextCheck;
+        }
+    }
+
+    private static final class JsonStreamConverter {
+        private final Json.JsonWriter writer;
+        private final U.XmlToJsonMode mode;
+        private final int bufferNodes;
+        private final BiFunction<Object, Set<String>, String> elementMapper;
+        private final int[] uniqueIds = {1, 1, 1};
+        private final Set<String> namespaces = new LinkedHashSet<>();
+        private final StringBuilder text = new StringBuilder();
+        private String encoding;
+        private String standalone;
+        private boolean hasHeader;
+        private boolean transparent;
+        private boolean rawOutput;
+        private StreamFrame document;
+        private StreamFrame current;
+
+        private JsonStreamConverter(
+                final Json.JsonWriter writer, final U.XmlToJsonMode mode, final int bufferNodes) {
+            this.writer = writer;
+            this.mode = mode;
+            this.bufferNodes = bufferNodes;
+            this.elementMapper =
+                    mode == U.XmlToJsonMode.WITHOUT_NAMESPACES
+                            ? Xml::withoutNamespaces
+                            : (object, namespaces) -> String.valueOf(object);
+        }
+
+        private void convert(final java.io.InputStream xmlInputStream) throws java.io.IOException {
+            javax.xml.stream.XMLStreamReader reader = null;
+            try {
+                reader = createXmlInputFactory().createXMLStreamReader(xmlInputStream);
+                encoding = reader.getCharacterEncodingScheme();
+                hasHeader = reader.getVersion() != null;
+                if (reader.standaloneSet()) {
+                    standalone = reader.isStandalone() ? YES : "no";
+                }
+                document = new StreamFrame(null, "#document", -1, Integer.MAX_VALUE);
+                current = document;
+                while (reader.hasNext()) {
+                    readEvent(reader, reader.next());
+                }
+                endDocument();
+            } catch (javax.xml.stream.XMLStreamException ex) {
+                throw new IllegalArgumentException(ex);
+            } finally {
+                closeReader(reader);
+            }
+        }
+
+        private void startRecord() {
+            Arrays.fill(uniqueIds, 1);
+            namespaces.clear();
+            text.setLength(0);
+            document = new StreamFrame(null, "#document", -1, Integer.MAX_VALUE);
+            current = document;
+        }
+
+        private Object endRecord() {
+            final Object result = checkNumberAndBoolean(document.map, document.name);
+            checkResult(null, null, false, result, FromType.FOR_CONVERT);
+            return result;
+        }
+
+        private void readEvent(final javax.xml.stream.XMLStreamReader reader, final int event)
+                throws java.io.IOException {
+            switch (event) {
+                case javax.xml.stream.XMLStreamConstants.START_ELEMENT:
+                    startElement(reader);
+                    break;
+                case javax.xml.stream.XMLStreamConstants.END_ELEMENT:
+                    endElement(reader.getLocation().getCharacterOffset());
+                    break;
+                case javax.xml.stream.XMLStreamConstants.CHARACTERS:
+                case javax.xml.stream.XMLStreamConstants.SPACE:
+                    if (current != document) {
+                        text.append(
+                                reader.getTextCharacters(),
+                                reader.getTextStart(),
+                                reader.getTextLength());
+                    }
+                    break;
+                case javax.xml.stream.XMLStreamConstants.COMMENT:
+                    addNode(COMMENT, reader.getText());
+                    break;
+                case javax.xml.stream.XMLStreamConstants.CDATA:
+                    addNode(CDATA, reader.getText());
+                    break;
+                case javax.xml.stream.XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    addNode(
+                            "?" + reader.getPITarget(),
+                            reader.getPIData() == null ? "" : reader.getPIData());
+                    break;
+                case javax.xml.stream.XMLStreamConstants.DTD:
+                    addNode(DOCTYPE_TEXT, getDoctypeValue(reader.getText()));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void startElement(final javax.xml.stream.XMLStreamReader reader)
+                throws java.io.IOException {
+            flushText();
+            current.childNodes += 1;
+            final StreamFrame frame =
+                    new StreamFrame(
+                            current,
+                            qualifiedName(reader.getPrefix(), reader.getLocalName()),
+                            reader.getLocation().getCharacterOffset(),
+                            bufferNodes);
+            for (int index = 0; index < reader.getNamespaceCount(); index++) {
+                final String prefix = reader.getNamespacePrefix(index);
+                if (prefix != null && !prefix.isEmpty()) {
+                    namespaces.add(prefix);
+                }
+            }
+            for (int index = 0; index < reader.getNamespaceCount(); index++) {
+                addAttribute(
+                        frame,
+                        qualifiedName("xmlns", reader.getNamespacePrefix(index)),
+                        reader.getNamespaceURI(index));
+            }
+            for (int index = 0; index < reader.getAttributeCount(); index++) {
+                addAttribute(
+                        frame,
+                        qualifiedName(
+                                reader.getAttributePrefix(index),
+                                reader.getAttributeLocalName(index)),
+                        reader.getAttributeValue(index));
+            }
+            current = frame;
+        }
+
+        private void addAttribute(final StreamFrame frame, final String name, final String value) {
+            addNodeValue(
+                    frame.map,
+                    frame.mapKeys,
+                    '-' + name,
+                    value == null ? "" : value.replace("&", "&amp;"),
+                    elementMapper,
+                    Function.identity(),
+                    uniqueIds,
+                    namespaces,
+                    FromType.FOR_CONVERT);
+        }
+
+        private void endElement(final int offset) throws java.io.IOException {
+            flushText();
+            final StreamFrame frame = current;
+            current = frame.parent;
+            if (frame.live) {
+                if (frame.arrayShape) {
+                    writer.endArray();
+                } else {
+                    flushAll(frame);
+                    writer.endObject();
+                }
+                return;
+            }
+            if (frame.childNodes == 0
+                    && frame.offset == offset
+                    && isSelfClosingAllowed(frame.map)) {
+                putNewKey(frame.map, frame.mapKeys, SELF_CLOSING, TRUE);
+            }
+            if (frame.childNodes == 1 && frame.blankText != null) {
+                putNewKey(frame.map, frame.mapKeys, TEXT, frame.blankText);
+            }
+            appendNode(
+                    current,
+                    frame.name,
+                    checkNumberAndBoolean(frame.map, frame.name),
+                    frame.size + 1);
+        }
+
+        private void addNode(final String name, final String value) throws java.io.IOException {
+            flushText();
+            current.childNodes += 1;
+            appendNode(current, name, value, 1);
+        }
+
+        private void flushText() throws java.io.IOException {
+            if (text.length() == 0) {
+                return;
+            }
+            final String value = text.toString();
+            text.setLength(0);
+            current.childNodes += 1;
+            if (!value.trim().isEmpty()) {
+                appendNode(current, TEXT, value, 1);
+            } else if (current.childNodes == 1) {
+                current.blankText = value;
+            }
+        }
+
+        private void appendNode(
+                final StreamFrame frame, final String name, final Object value, final int size)
+                throws java.io.IOException {
+            if (frame.live) {
+                appendLive(frame, name, value, size);
+                return;
+            }
+            addNodeValue(
+                    frame.map,
+                    frame.mapKeys,
+                    name,
+                    value,
+                    elementMapper,
+                    Function.identity(),
+                    uniqueIds,
+                    namespaces,
+                    FromType.FOR_CONVERT);
+            frame.size += size;
+            if (frame.size > frame.nextCheck && !goLive(frame, null)) {
+                frame.nextCheck = Math.max(frame.nextCheck, frame.size) * 2;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void appendLive(
+                final StreamFrame frame, final String name, final Object value, final int size)
+                throws java.io.IOException {
+            if (frame == document && transparent) {
+                return;
+            }
+            final String key = mapName(name);
+            if (key == null) {
+                return;
+            }
+            final int uniqueIndex = uniqueIndex(key);
+            if (uniqueIndex >= 0 && containsKey(frame, key)) {
+                putNewKey(
+                        frame.map,
+                        frame.mapKeys,
+                        key + uniqueIds[uniqueIndex],
+                        getValue(name, value, FromType.FOR_CONVERT));
+                uniqueIds[uniqueIndex] += 1;
+            } else if (key.equals(frame.openArray)) {
+                wrapPending(frame);
+                final Object newValue = getValue(name, value, FromType.FOR_CONVERT);
+                writer.value(
+                        transformItem(
+                                newValue instanceof List ? ((List) newValue).get(0) : newValue));
+                return;
+            } else if (frame.arrayShape || frame.written.contains(key)) {
+                throw notStreamable(key);
+            } else {
+                addNodeValue(
+                        frame.map,
+                        frame.mapKeys,
+                        name,
+                        value,
+                        elementMapper,
+                        Function.identity(),
+                        uniqueIds,
+                        namespaces,
+                        FromType.FOR_CONVERT);
+            }
+            frame.size += size;
+            flushPending(frame);
+        }
+
+        private boolean goLive(final StreamFrame frame, final String childName)
+                throws java.io.IOException {
+            if (frame.live) {
+                return true;
+            }
+            if (frame == document || hasTypeMarker(frame.map)) {
+                return false;
+            }
+            final String child = childName == null ? null : mapName(childName);
+            final boolean arrayShape;
+            if (frame.map.size() == 1 && frame.map.containsKey(ELEMENT_TEXT)) {
+                if (ELEMENT_TEXT.equals(child)
+                        || child == null && frame.map.get(ELEMENT_TEXT) instanceof List) {
+                    arrayShape = true;
+                } else if (child == null) {
+                    return false;
+                } else {
+                    arrayShape = false;
+                }
+            } else if (frame.map.isEmpty() && (child == null || ELEMENT_TEXT.equals(child))) {
+                return false;
+            } else {
+                arrayShape = false;
+            }
+            final String key = mapName(frame.name);
+            if (frame.parent == document) {
+                if (!goLiveDocument(key, arrayShape)) {
+                    return false;
+                }
+            } else {
+                if (arrayShape && containsKey(frame.parent, key)
+                        || !goLive(frame.parent, frame.name)) {
+                    return false;
+                }
+                positionChild(frame.parent, key);
+            }
+            frame.live = true;
+            frame.arrayShape = arrayShape;
+            frame.size = 0;
+            if (arrayShape) {
+                writer.beginArray();
+                frame.mapKeys.clear();
+                writeItems(frame.map.remove(ELEMENT_TEXT));
+                frame.openArray = ELEMENT_TEXT;
+            } else {
+                writer.beginObject();
+                flushPending(frame);
+            }
+            return true;
+        }
+
+        private boolean goLiveDocument(final String rootKey, final boolean arrayShape)
+                throws java.io.IOException {
+            final boolean firstKey = document.map.isEmpty();
+            if (firstKey
+                    && hasHeader
+                    && ROOT.equals(rootKey)
+                    && (encoding == null || "UTF-8".equalsIgnoreCase(encoding))
+                    && standalone == null) {
+                if (arrayShape) {
+                    rawOutput = true;
+                } else if (mode == U.XmlToJsonMode.REMOVE_FIRST_LEVEL) {
+                    return false;
+                }
+                transparent = true;
+            } else if (firstKey && !arrayShape && mode == U.XmlToJsonMode.REMOVE_FIRST_LEVEL) {
+                transparent = true;
+            } else {
+                writer.beginObject();
+                flushAll(document);
+                writer.name(transformKey(rootKey));
+                document.written.add(rootKey);
+            }
+            document.live = true;
+            return true;
+        }
+
+        private void positionChild(final StreamFrame frame, final String key)
+                throws java.io.IOException {
+            if (key.equals(frame.openArray)) {
+                wrapPending(frame);
+            } else if (frame.arrayShape || frame.written.contains(key)) {
+                throw notStreamable(key);
+            } else if (frame.map.containsKey(key)) {
+                openArray(frame, key);
+            } else {
+                flushAll(frame);
+                writer.name(transformKey(key));
+                frame.written.add(key);
+            }
+        }
+
+        private void flushPending(final StreamFrame frame) throws java.io.IOException {
+            if (frame.arrayShape || frame.size <= bufferNodes) {
+                return;
+            }
+            closeArray(frame);
+            while (frame.map.size() > 1) {
+                writeFirst(frame);
+            }
+            if (!frame.map.isEmpty() && frame.map.get(frame.mapKeys.peekFirst()) instanceof List) {
+                openArray(frame, frame.mapKeys.peekFirst());
+            }
+            frame.size = 0;
+        }
+
+        private void flushAll(final StreamFrame frame) throws java.io.IOException {
+            closeArray(frame);
+            while (!frame.map.isEmpty()) {
+                writeFirst(frame);
+            }
+            frame.size = 0;
+        }
+
+        private void openArray(final StreamFrame frame, final String key)
+                throws java.io.IOException {
+            closeArray(frame);
+            while (!key.equals(frame.mapKeys.peekFirst())) {
+                writeFirst(frame);
+            }
+            frame.mapKeys.pollFirst();
+            final Object value = frame.map.remove(key);
+            writer.name(transformKey(key));
+            writer.beginArray();
+            writeItems(value);
+            frame.openArray = key;
+            wrapPending(frame);
+        }
+
+        private void closeArray(final StreamFrame frame) throws java.io.IOException {
+            if (frame.openArray != null && !frame.arrayShape) {
+                writer.endArray();
+                frame.written.add(frame.openArray);
+                frame.openArray = null;
+            }
+        }
+
+        private void wrapPending(final StreamFrame frame) throws java.io.IOException {
+            while (!frame.mapKeys.isEmpty()) {
+                final String key = frame.mapKeys.pollFirst();
+                final Map<String, Object> text = new LinkedHashMap<>();
+                text.put(key, frame.map.remove(key));
+                final Map<String, Object> item = new LinkedHashMap<>();
+                item.put("#item", text);
+                writer.value(transformItem(item));
+            }
+            frame.size = 0;
+        }
+
+        private void writeFirst(final StreamFrame frame) throws java.io.IOException {
+            final String key = frame.mapKeys.pollFirst();
+            final Object value = frame.map.remove(key);
+            if (uniqueIndex(key) >= 0
+                    || !key.startsWith(TEXT)
+                            && !key.startsWith(COMMENT)
+                            && !key.startsWith(CDATA)) {
+                frame.written.add(key);
+            }
+            if (isSelfClosingDropped() && SELF_CLOSING.equals(key) && TRUE.equals(value)) {
+                return;
+            }
+            writer.name(transformKey(key));
+            writer.value(transformValue(value));
+        }
+
+        private void writeItems(final Object value) throws java.io.IOException {
+            if (value instanceof List) {
+                for (Object item : (List<?>) value) {
+                    writer.value(transformItem(item));
+                }
+            } else {
+                writer.value(transformItem(value));
+            }
+        }
+
+        private void endDocument() throws java.io.IOException {
+            if (document.live) {
+                if (transparent) {
+                    return;
+                }
+                flushAll(document);
+                if (encoding != null && !"UTF-8".equalsIgnoreCase(encoding)) {
+                    writer.name(ENCODING).value(encoding);
+                    if (standalone != null) {
+                        writer.name(STANDALONE).value(standalone);
+                    }
+                } else if (standalone != null) {
+                    writer.name(STANDALONE).value(standalone);
+                } else if (!hasHeader) {
+                    writer.name(OMITXMLDECLARATION).value(YES);
+                }
+                writer.endObject();
+                return;
+            }
+            Object result = checkNumberAndBoolean(document.map, document.name);
+            if (checkResult(encoding, standalone, hasHeader, result, FromType.FOR_CONVERT)) {
+                result = XmlValue.getMapValue(result);
+            }
+            writer.value(
+                    result instanceof Map
+                            ? U.applyXmlToJsonMode(toStringMap(result), mode)
+                            : result);
+        }
+
+        private boolean containsKey(final StreamFrame frame, final String key) {
+            return frame.map.containsKey(key)
+                    || frame.written.contains(key)
+                    || key.equals(frame.openArray);
+        }
+
+        private String mapName(final String name) {
+            return unescapeName(elementMapper.apply(name, namespaces));
+        }
+
+        private String transformKey(final String key) {
+            if (!rawOutput
+                    && (mode == U.XmlToJsonMode.REPLACE_MINUS_WITH_AT
+                            || mode
+                                    == U.XmlToJsonMode
+                                            .REPLACE_EMPTY_TAG_WITH_NULL_AND_MINUS_WITH_AT)
+                    && key.startsWith("-")) {
+                return "@" + key.substring(1);
+            }
+            return key;
+        }
+
+        private Object transformValue(final Object value) {
+            if (value instanceof List && !rawOutput) {
+                final List<Object> values = new ArrayList<>();
+                for (Object item : (List<?>) value) {
+                    values.add(transformItem(item));
+                }
+                return values;
+            }
+            return transformItem(value);
+        }
+
+        private Object transformItem(final Object value) {
+            if (!(value instanceof Map) || rawOutput || mode == null) {
+                return value;
+            }
+            final Map<String, Object> map = toStringMap(value);
+            switch (mode) {
+                case REPLACE_SELF_CLOSING_WITH_NULL:
+                    return U.replaceSelfClosingWithValue(map, null);
+                case REPLACE_SELF_CLOSING_WITH_STRING:
+                    return U.replaceSelfClosingWithValue(map, "");
+                case REPLACE_EMPTY_VALUE_WITH_NULL:
+                    return U.replaceEmptyValueWithNull(map);
+                case REPLACE_MINUS_WITH_AT:
+                    return U.replaceMinusWithAt(map);
+                case REPLACE_EMPTY_TAG_WITH_NULL:
+                    return replaceEmptyValue(U.replaceSelfClosingWithValue(map, null), false);
+                case REPLACE_EMPTY_TAG_WITH_NULL_AND_MINUS_WITH_AT:
+                    final Object result =
+                            replaceEmptyValue(U.replaceSelfClosingWithValue(map, null), false);
+                    return result instanceof Map
+                            ? U.replaceMinusWithAt(toStringMap(result))
+                            : result;
+                case REPLACE_EMPTY_TAG_WITH_STRING:
+                    return replaceEmptyValue(U.replaceSelfClosingWithValue(map, ""), true);
+                default:
+                    return map;
+            }
+        }
+
+        private boolean isSelfClosingDropped() {
+            return !rawOutput
+                    && (mode == U.XmlToJsonMode.REPLACE_SELF_CLOSING_WITH_NULL
+                            || mode == U.XmlToJsonMode.REPLACE_SELF_CLOSING_WITH_STRING
+                            || mode == U.XmlToJsonMode.REPLACE_EMPTY_TAG_WITH_NULL
+                            || mode == U.XmlToJsonMode.REPLACE_EMPTY_TAG_WITH_NULL_AND_MINUS_WITH_AT
+                            || mode == U.XmlToJsonMode.REPLACE_EMPTY_TAG_WITH_STRING);
+        }
+
+        private static Object replaceEmptyValue(final Object value, final boolean withString) {
+            if (!(value instanceof Map)) {
+                return value;
+            }
+            return withString
+                    ? U.replaceEmptyValueWithEmptyString(toStringMap(value))
+                    : U.replaceEmptyValueWithNull(toStringMap(value));
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Map<String, Object> toStringMap(final Object value) {
+            return (Map<String, Object>) value;
+        }
+
+        private static int uniqueIndex(final String key) {
+            if (TEXT.equals(key)) {
+                return 0;
+            }
+            if (COMMENT.equals(key)) {
+                return 1;
+            }
+            return CDATA.equals(key) ? 2 : -1;
+        }
+
+        private static boolean hasTypeMarker(final Map<String, Object> map) {
+            for (String marker : TYPE_MARKERS) {
+                if (TRUE.equals(map.get(marker))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isSelfClosingAllowed(final Map<String, Object> map) {
+            return !map.containsKey(SELF_CLOSING)
+                    && (map.size() != 1
+                            || !TRUE.equals(map.get(STRING)) && !TRUE.equals(map.get(NULL_ATTR)));
+        }
+
+        private static String qualifiedName(final String prefix, final String localName) {
+            if (prefix == null || prefix.isEmpty()) {
+                return localName;
+            }
+            if (localName == null || localName.isEmpty()) {
+                return prefix;
+            }
+            return prefix + ":" + localName;
+        }
+
+        private static IllegalArgumentException notStreamable(final String key) {
+            return new IllegalArgumentException(
+                    "Element \""
+                            + key
+                            + "\" repeats after its siblings were already written,"
+                            + " convert this document with U.xmlToJson");
+        }
+
+        private static void closeReader(final javax.xml.stream.XMLStreamReader reader) {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (javax.xml.stream.XMLStreamException ignored) {
+                    // ignored
+                }
+            }
+        }
+    }
+
+    public static Iterator<Map<String, Object>> iterate(
+            final java.io.InputStream xmlInputStream, final String recordPath) {
+        final String[] path = recordPath.replaceFirst("^/", "").split("/");
+        if (recordPath.isEmpty() || Arrays.asList(path).contains("")) {
+            throw new IllegalArgumentException("Invalid record path: " + recordPath);
+        }
+        try {
+            return new XmlRecordIterator(
+                    createXmlInputFactory().createXMLStreamReader(xmlInputStream), path);
+        } catch (javax.xml.stream.XMLStreamException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    public static java.util.stream.Stream<Map<String, Object>> stream(
+            final java.io.InputStream xmlInputStream, final String recordPath) {
+        final XmlRecordIterator iterator =
+                (XmlRecordIterator) iterate(xmlInputStream, recordPath);
+        return java.util.stream.StreamSupport.stream(
+                        java.util.Spliterators.spliteratorUnknownSize(
+                                iterator,
+                                java.util.Spliterator.ORDERED | java.util.Spliterator.NONNULL),
+                        false)
+                .onClose(iterator::close);
+    }
+
+    private static final class XmlRecordIterator implements Iterator<Map<String, Object>> {
+        private final javax.xml.stream.XMLStreamReader reader;
+        private final String[] path;
+        private final JsonStreamConverter builder =
+                new JsonStreamConverter(null, null, Integer.MAX_VALUE);
+        private int depth;
+        private int matched;
+        private boolean closed;
+        private Map<String, Object> nextRecord;
+
+        private XmlRecordIterator(
+                final javax.xml.stream.XMLStreamReader reader, final String[] path) {
+            this.reader = reader;
+            this.path = path;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextRecord == null && !closed) {
+                nextRecord = readRecord();
+            }
+            return nextRecord != null;
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (!hasNext()) {
+                throw new java.util.NoSuchElementException();
+            }
+            final Map<String, Object> record = nextRecord;
+            nextRecord = null;
+            return record;
+        }
+
+        private void close() {
+            closed = true;
+            JsonStreamConverter.closeReader(reader);
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<String, Object> readRecord() {
+            try {
+                while (reader.hasNext()) {
+                    final int event = reader.next();
+                    if (event == javax.xml.stream.XMLStreamConstants.START_ELEMENT) {
+                        if (matched == depth
+                                && depth < path.length
+                                && path[depth].equals(
+                                        JsonStreamConverter.qualifiedName(
+                                                reader.getPrefix(), reader.getLocalName()))) {
+                            matched += 1;
+                        }
+                        depth += 1;
+                        if (matched == path.length && depth == path.length) {
+                            return (Map<String, Object>) readRecordElement();
+                        }
+                    } else if (event == javax.xml.stream.XMLStreamConstants.END_ELEMENT) {
+                        depth -= 1;
+                        matched = Math.min(matched, depth);
+                    }
+                }
+                close();
+                return null;
+            } catch (javax.xml.stream.XMLStreamException | java.io.IOException ex) {
+                close();
+                throw new IllegalArgumentException(ex);
+            }
+        }
+
+        private Object readRecordElement()
+                throws javax.xml.stream.XMLStreamException, java.io.IOException {
+            builder.startRecord();
+            builder.readEvent(reader, javax.xml.stream.XMLStreamConstants.START_ELEMENT);
+            int level = 1;
+            while (level > 0) {
+                final int event = reader.next();
+                if (event == javax.xml.stream.XMLStreamConstants.START_ELEMENT) {
+                    level += 1;
+                } else if (event == javax.xml.stream.XMLStreamConstants.END_ELEMENT) {
+                    level -= 1;
+                }
+                builder.readEvent(reader, event);
+            }
+            depth -= 1;
+            matched = depth;
+            return builder.endRecord();
+        }
+    }
+
+    public static void toXml(
+            final java.nio.file.Path jsonPath,
+            final java.io.OutputStream xmlOutputStream,
+            final XmlStringBuilder.Step identStep)
+            throws java.io.IOException {
+        toXml(jsonPath, xmlOutputStream, identStep, STREAM_BUFFER_NODES);
+    }
+
+    static void toXml(
+            final java.nio.file.Path jsonPath,
+            final java.io.OutputStream xmlOutputStream,
+            final XmlStringBuilder.Step identStep,
+            final int bufferNodes)
+            throws java.io.IOException {
+        new XmlStreamConverter(() -> U.openText(jsonPath), xmlOutputStream, identStep, bufferNodes)
+                .convert();
+    }
+
+    public static void toXml(
+            final java.io.InputStream jsonInputStream,
+            final java.io.OutputStream xmlOutputStream,
+            final XmlStringBuilder.Step identStep)
+            throws java.io.IOException {
+        toXml(jsonInputStream, xmlOutputStream, identStep, STREAM_SPOOL_BYTES);
+    }
+
+    static void toXml(
+            final java.io.InputStream jsonInputStream,
+            final java.io.OutputStream xmlOutputStream,
+            final XmlStringBuilder.Step identStep,
+            final int spoolBytes)
+            throws java.io.IOException {
+        final byte[] head = jsonInputStream.readNBytes(spoolBytes + 1);
+        if (head.length <= spoolBytes) {
+            new XmlStreamConverter(
+                            () -> U.openText(new java.io.ByteArrayInputStream(head)),
+                            xmlOutputStream,
+                            identStep,
+                            STREAM_BUFFER_NODES)
+                    .convert();
+            return;
+        }
+        final java.nio.file.Path jsonPath =
+                java.nio.file.Files.createTempFile("underscore", ".json");
+        try {
+            try (java.io.OutputStream spool = java.nio.file.Files.newOutputStream(jsonPath)) {
+                spool.write(head);
+                jsonInputStream.transferTo(spool);
+            }
+            toXml(jsonPath, xmlOutputStream, identStep, STREAM_BUFFER_NODES);
+        } finally {
+            java.nio.file.Files.deleteIfExists(jsonPath);
+        }
+    }
+
+    private interface JsonSource {
+        java.io.Reader open() throws java.io.IOException;
+    }
+
+    private static final class XmlStreamFrame {
+        private final XmlStreamFrame parent;
+        private final String key;
+        private final Map<String, Object> map;
+        private final List<Object> list;
+        private String pendingName;
+        private String firstKey;
+        private int size;
+        private int nextCheck;
+        private boolean live;
+        private String name;
+        private String tagName;
+        private int ident;
+        private int childIdent;
+        private boolean parentTextFound;
+        private boolean hasElems;
+        private boolean lastText;
+        private boolean newLinePending;
+        private boolean wrapped;
+        private boolean rootList;
+        private boolean skipRest;
+        private Set<String> attrKeys;
+
+        private XmlStreamFrame(
+                final XmlStreamFrame parent, final boolean object, final int nextCheck) {
+            this.parent = parent;
+            this.key = parent == null ? null : parent.pendingName;
+            this.map = object ? new LinkedHashMap<>() : null;
+            this.list = object ? null : new ArrayList<>();
+            this.nextCheck = nextCheck;
+        }
+    }
+
+    private static final class XmlStreamConverter {
+        private final JsonSource jsonSource;
+        private final java.io.OutputStream xmlOutputStream;
+        private final XmlStringBuilder.Step identStep;
+        private final int bufferNodes;
+        private final Set<String> namespaces = new LinkedHashSet<>();
+        private final Set<String> skippedKeys = new HashSet<>();
+        private java.io.Writer writer;
+        private XmlStreamFrame current;
+        private Object result;
+        private XmlStringBuilder header;
+        private String encoding = UTF_8.name();
+        private boolean arrayRoot;
+        private boolean unsupportedRoot;
+        private String rootName;
+
+        private XmlStreamConverter(
+                final JsonSource jsonSource,
+                final java.io.OutputStream xmlOutputStream,
+                final XmlStringBuilder.Step identStep,
+                final int bufferNodes) {
+            this.jsonSource = jsonSource;
+            this.xmlOutputStream = xmlOutputStream;
+            this.identStep = identStep;
+            this.bufferNodes = bufferNodes;
+        }
+
+        private void convert() throws java.io.IOException {
+            try (java.io.Reader reader = jsonSource.open()) {
+                final Json.JsonReader jsonReader = new Json.JsonReader(reader);
+                for (Json.JsonReader.Token token = jsonReader.next();
+                        token != Json.JsonReader.Token.END_DOCUMENT;
+                        token = jsonReader.next()) {
+                    readToken(jsonReader, token);
+                }
+            }
+            if (writer == null) {
+                writeResult();
+            }
+            writer.flush();
+        }
+
+        private void readToken(final Json.JsonReader jsonReader, final Json.JsonReader.Token token)
+                throws java.io.IOException {
+            switch (token) {
+                case BEGIN_OBJECT:
+                case BEGIN_ARRAY:
+                    current =
+                            new XmlStreamFrame(
+                                    current,
+                                    token == Json.JsonReader.Token.BEGIN_OBJECT,
+                                    bufferNodes);
+                    break;
+                case NAME:
+                    readName(jsonReader);
+                    break;
+                case VALUE:
+                    addValue(jsonReader.getValue(), 1);
+                    break;
+                default:
+                    endFrame();
+                    break;
+            }
+        }
+
+        private void readName(final Json.JsonReader jsonReader) throws java.io.IOException {
+            final String key = jsonReader.getName();
+            final XmlStreamFrame frame = current;
+            if (frame.live) {
+                if (frame.skipRest || frame.parent == null && skippedKeys.contains(key)) {
+                    jsonReader.skipValue();
+                    return;
+                }
+                if (frame.newLinePending && !key.startsWith(TEXT)) {
+                    newLine();
+                }
+                frame.newLinePending = false;
+            }
+            if (frame.firstKey == null) {
+                frame.firstKey = key;
+            }
+            frame.pendingName = key;
+        }
+
+        private void addValue(final Object value, final int size) throws java.io.IOException {
+            final XmlStreamFrame frame = current;
+            if (frame == null) {
+                result = value;
+                return;
+            }
+            if (frame.map != null) {
+                final String key = frame.pendingName;
+                frame.pendingName = null;
+                if (frame.live) {
+                    writeEntry(frame, key, value);
+                    return;
+                }
+                frame.map.put(key, value);
+            } else {
+                if (frame.live) {
+                    writeItem(frame, value);
+                    return;
+                }
+                frame.list.add(value);
+            }
+            frame.size += size;
+            if (frame.size > frame.nextCheck && !goLive(frame, null)) {
+                frame.nextCheck = Math.max(frame.nextCheck, frame.size) * 2;
+            }
+        }
+
+        private void endFrame() throws java.io.IOException {
+            final XmlStreamFrame frame = current;
+            current = frame.parent;
+            if (!frame.live) {
+                addValue(frame.map == null ? frame.list : frame.map, frame.size + 1);
+                return;
+            }
+            closeFrame(frame);
+            if (current == null) {
+                return;
+            }
+            if (current.map == null) {
+                current.parentTextFound = false;
+            } else {
+                current.hasElems = true;
+                current.lastText = false;
+            }
+            current.newLinePending = true;
+        }
+
+        private boolean goLive(final XmlStreamFrame frame, final XmlStreamFrame child)
+                throws java.io.IOException {
+            if (frame.live) {
+                return true;
+            }
+            if (!canGoLive(frame, child)) {
+                return false;
+            }
+            if (frame.parent == null) {
+                if (!goLiveDocument(frame, child)) {
+                    return false;
+                }
+            } else if (goLive(frame.parent, frame)) {
+                positionChild(frame.parent, frame);
+            } else {
+                return false;
+            }
+            frame.live = true;
+            if (frame.map == null) {
+                openList(frame);
+            } else {
+                openObject(frame, child);
+            }
+            return true;
+        }
+
+        private static boolean canGoLive(final XmlStreamFrame frame, final XmlStreamFrame child) {
+            if (frame.key != null
+                    && (frame.key.startsWith(TEXT)
+                            || frame.key.startsWith(COMMENT)
+                            || frame.key.startsWith(CDATA))) {
+                return false;
+            }
+            if (frame.map == null) {
+                return frame.list.size() + (child == null ? 0 : 1) > 1;
+            }
+            return !TRUE.equals(frame.map.get(SELF_CLOSING))
+                    && (frame.parent == null
+                            || frame.parent.map != null
+                            || !"#item".equals(frame.firstKey));
+        }
+
+        private boolean goLiveDocument(final XmlStreamFrame frame, final XmlStreamFrame child)
+                throws java.io.IOException {
+            if (frame.map == null) {
+                openWriter(UTF_8.name());
+                write(new XmlStringBuilderWithoutRoot(identStep, UTF_8.name(), "").toString());
+                frame.rootList = true;
+                return true;
+            }
+            if (header == null) {
+                header = scan();
+            }
+            if (unsupportedRoot
+                    || child != null && skippedKeys.contains(child.key)
+                    || arrayRoot
+                            && (child == null
+                                    ? !frame.map.containsKey(ROOT)
+                                    : !ROOT.equals(child.key))) {
+                return false;
+            }
+            openWriter(encoding);
+            write(header.toString());
+            frame.name = rootName;
+            return true;
+        }
+
+        private XmlStringBuilder scan() throws java.io.IOException {
+            final Map<String, Object> headerValues = new LinkedHashMap<>();
+            final Map<String, Integer> headerIndexes = new HashMap<>();
+            String firstKey = null;
+            int firstIndex = -1;
+            boolean firstList = false;
+            int size = 0;
+            int attrs = 0;
+            int elements = 0;
+            int listElements = 0;
+            try (java.io.Reader reader = jsonSource.open()) {
+                final Json.JsonReader jsonReader = new Json.JsonReader(reader);
+                jsonReader.next();
+                for (int index = 0;
+                        jsonReader.next() == Json.JsonReader.Token.NAME;
+                        index += 1) {
+                    final String key = jsonReader.getName();
+                    if (ENCODING.equals(key)
+                            || STANDALONE.equals(key)
+                            || OMITXMLDECLARATION.equals(key)
+                            || DOCTYPE_TEXT.equals(key)) {
+                        headerValues.put(key, jsonReader.readValue());
+                        headerIndexes.putIfAbsent(key, index);
+                        continue;
+                    }
+                    final int items = skipValue(jsonReader);
+                    if (firstIndex < 0) {
+                        firstIndex = index;
+                        firstKey = key;
+                        firstList = items >= 0;
+                    }
+                    size += 1;
+                    if (key.startsWith("-")) {
+                        attrs += 1;
+                    } else if (!key.startsWith(COMMENT)
+                            && !key.startsWith(CDATA)
+                            && !key.startsWith("?")) {
+                        listElements += items > 1 ? 1 : 0;
+                        elements += 1;
+                    }
+                }
+            }
+            final XmlStringBuilder xmlHeader = createHeader(headerValues);
+            for (Map.Entry<String, Object> entry : headerValues.entrySet()) {
+                if (skippedKeys.contains(entry.getKey())) {
+                    continue;
+                }
+                size += 1;
+                elements += 1;
+                if (entry.getValue() instanceof List && ((List) entry.getValue()).size() > 1) {
+                    listElements += 1;
+                }
+                final int index = headerIndexes.get(entry.getKey());
+                if (firstIndex < 0 || index < firstIndex) {
+                    firstIndex = index;
+                    firstKey = entry.getKey();
+                    firstList = entry.getValue() instanceof List;
+                }
+            }
+            arrayRoot =
+                    (size != 1 || firstKey.startsWith("-") || firstList) && ROOT.equals(firstKey);
+            unsupportedRoot = arrayRoot && !firstList;
+            rootName = attrs == 0 && elements == 1 && listElements == 0 ? null : ROOT;
+            return xmlHeader;
+        }
+
+        private XmlStringBuilder createHeader(final Map<String, Object> headerValues) {
+            final XmlStringBuilder xmlHeader;
+            final String standalone =
+                    " standalone=\""
+                            + (YES.equals(headerValues.get(STANDALONE)) ? YES : "no")
+                            + "\"";
+            if (headerValues.containsKey(ENCODING)) {
+                encoding = String.valueOf(headerValues.get(ENCODING));
+                xmlHeader =
+                        new XmlStringBuilderWithoutRoot(
+                                identStep,
+                                encoding,
+                                headerValues.containsKey(STANDALONE) ? standalone : "");
+                skippedKeys.add(ENCODING);
+                skippedKeys.add(STANDALONE);
+            } else if (headerValues.containsKey(STANDALONE)) {
+                xmlHeader = new XmlStringBuilderWithoutRoot(identStep, UTF_8.name(), standalone);
+                skippedKeys.add(STANDALONE);
+            } else if (headerValues.containsKey(OMITXMLDECLARATION)) {
+                xmlHeader = new XmlStringBuilderWithoutHeader(identStep, 0);
+                skippedKeys.add(OMITXMLDECLARATION);
+            } else {
+                xmlHeader = new XmlStringBuilderWithoutRoot(identStep, UTF_8.name(), "");
+            }
+            if (headerValues.containsKey(DOCTYPE_TEXT)) {
+                xmlHeader.append(DOCTYPE_HEADER)
+                        .append(String.valueOf(headerValues.get(DOCTYPE_TEXT)))
+                        .append(">")
+                        .newLine();
+            }
+            skippedKeys.add(DOCTYPE_TEXT);
+            return xmlHeader;
+        }
+
+        private void positionChild(final XmlStreamFrame frame, final XmlStreamFrame child)
+                throws java.io.IOException {
+            child.ident = frame.childIdent;
+            if (frame.skipRest) {
+                child.rootList = true;
+            } else if (frame.map != null) {
+                child.name = child.key;
+                child.parentTextFound = frame.hasElems && frame.lastText;
+                if (!frame.hasElems && frame.name != null) {
+                    newLine();
+                }
+                frame.hasElems = true;
+                frame.lastText = false;
+            } else {
+                writeItemNewLine(frame, signature(child));
+                child.name = frame.name == null ? ELEMENT_TEXT : frame.name;
+                child.parentTextFound = frame.parentTextFound;
+                child.wrapped = child.list != null;
+            }
+        }
+
+        private String signature(final XmlStreamFrame frame) {
+            if (frame.map == null) {
+                return "";
+            }
+            if (!frame.map.isEmpty()) {
+                return XmlValue.getMapKey(XmlValue.getMapValue(frame.map));
+            }
+            XmlStreamFrame child = current;
+            while (child != null && child.parent != frame) {
+                child = child.parent;
+            }
+            return child == null || child.firstKey == null ? "" : child.firstKey;
+        }
+
+        private void openObject(final XmlStreamFrame frame, final XmlStreamFrame child)
+                throws java.io.IOException {
+            if (frame.parent == null && arrayRoot) {
+                frame.skipRest = true;
+                if (child == null) {
+                    final XmlStringBuilder builder =
+                            new XmlStringBuilderWithoutHeader(identStep, 0);
+                    writeArray((List) frame.map.get(ROOT), builder, ARRAY_TRUE);
+                    write(builder.toString());
+                }
+                frame.map.clear();
+                return;
+            }
+            final List<Map.Entry<String, Object>> entries = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : frame.map.entrySet()) {
+                if (frame.parent != null || !skippedKeys.contains(entry.getKey())) {
+                    entries.add(entry);
+                }
+            }
+            frame.attrKeys = new LinkedHashSet<>();
+            XmlObject.fillNamespacesAndAttrs(frame.map, namespaces, frame.attrKeys);
+            frame.childIdent = frame.ident + (frame.name == null ? 0 : identStep.getIdent());
+            final List<String> attrs = new ArrayList<>();
+            final List<XmlStringBuilder> elems = new ArrayList<>();
+            boolean newLinePending = false;
+            for (int index = 0; index < entries.size(); index += 1) {
+                final Map.Entry<String, Object> entry = entries.get(index);
+                final boolean addNewLine =
+                        index < entries.size() - 1
+                                ? !entries.get(index + 1).getKey().startsWith(TEXT)
+                                : child != null;
+                newLinePending = false;
+                if (XmlObject.isAttribute(entry)) {
+                    attrs.add(XmlObject.toAttribute(entry, namespaces));
+                } else if (entry.getKey().startsWith(TEXT)) {
+                    XmlObject.addText(
+                            entry, elems, identStep, frame.childIdent, frame.attrKeys, attrs);
+                } else {
+                    final int size = elems.size();
+                    XmlObject.processElements(
+                            entry,
+                            identStep,
+                            frame.childIdent,
+                            addNewLine,
+                            elems,
+                            namespaces,
+                            !elems.isEmpty()
+                                            && elems.get(elems.size() - 1)
+                                                    instanceof XmlStringBuilderText
+                                    || frame.parentTextFound,
+                            ARRAY_TRUE);
+                    newLinePending = !addNewLine && elems.size() > size;
+                }
+            }
+            frame.map.clear();
+            if (frame.name != null) {
+                frame.tagName = XmlValue.escapeName(frame.name, namespaces);
+                final XmlStringBuilder builder =
+                        new XmlStringBuilderWithoutHeader(identStep, frame.ident);
+                if (!frame.parentTextFound) {
+                    builder.fillSpaces();
+                }
+                builder.append("<" + frame.tagName + String.join("", attrs) + ">");
+                write(builder.toString());
+            }
+            writeElems(frame, elems, 0);
+            frame.newLinePending = child == null && newLinePending;
+        }
+
+        private void openList(final XmlStreamFrame frame) throws java.io.IOException {
+            final XmlStringBuilder builder =
+                    new XmlStringBuilderWithoutHeader(identStep, frame.ident);
+            if (frame.rootList) {
+                builder.append("<" + ROOT + ">").newLine();
+            } else if (frame.wrapped) {
+                frame.tagName = XmlValue.escapeName(frame.name, namespaces);
+                builder.fillSpaces().append("<" + frame.tagName + ARRAY_TRUE + ">").newLine();
+            } else {
+                frame.name = frame.key;
+            }
+            write(builder.toString());
+            frame.childIdent =
+                    frame.ident + (frame.rootList || frame.wrapped ? identStep.getIdent() : 0);
+            for (Object item : frame.list) {
+                writeItem(frame, item);
+            }
+            frame.list.clear();
+        }
+
+        private void closeFrame(final XmlStreamFrame frame) throws java.io.IOException {
+            final XmlStringBuilder builder =
+                    new XmlStringBuilderWithoutHeader(identStep, frame.ident);
+            if (frame.skipRest) {
+                return;
+            }
+            if (frame.rootList) {
+                builder.newLine().append("</" + ROOT + ">");
+            } else if (frame.wrapped) {
+                builder.newLine().fillSpaces().append("</" + frame.tagName + ">");
+            } else if (frame.map != null && frame.name != null) {
+                if (frame.hasElems && !frame.lastText) {
+                    builder.newLine().fillSpaces();
+                }
+                builder.append("</" + frame.tagName + ">");
+            }
+            write(builder.toString());
+        }
+
+        private void writeEntry(final XmlStreamFrame frame, final String key, final Object value)
+                throws java.io.IOException {
+            if (key.startsWith("-") && !(value instanceof Map) && !(value instanceof List)) {
+                throw notStreamable(key);
+            }
+            final List<XmlStringBuilder> elems = new ArrayList<>();
+            if (frame.hasElems && frame.lastText) {
+                elems.add(new XmlStringBuilderText(identStep, 0));
+            }
+            final int from = elems.size();
+            final Map.Entry<String, Object> entry = new AbstractMap.SimpleEntry<>(key, value);
+            if (key.startsWith(TEXT)) {
+                final List<String> attrs = new ArrayList<>();
+                XmlObject.addText(entry, elems, identStep, frame.childIdent, frame.attrKeys, attrs);
+                if (!attrs.isEmpty()) {
+                    throw notStreamable(key);
+                }
+                writeElems(frame, elems, from);
+                return;
+            }
+            XmlObject.processElements(
+                    entry,
+                    identStep,
+                    frame.childIdent,
+                    false,
+                    elems,
+                    namespaces,
+                    frame.hasElems && frame.lastText || frame.parentTextFound,
+                    ARRAY_TRUE);
+            writeElems(frame, elems, from);
+            frame.newLinePending = elems.size() > from;
+        }
+
+        private void writeElems(
+                final XmlStreamFrame frame, final List<XmlStringBuilder> elems, final int from)
+                throws java.io.IOException {
+            for (int index = from; index < elems.size(); index += 1) {
+                final boolean text = elems.get(index) instanceof XmlStringBuilderText;
+                if (!frame.hasElems && frame.name != null && !text) {
+                    newLine();
+                }
+                frame.hasElems = true;
+                frame.lastText = text;
+                write(elems.get(index).toString());
+            }
+        }
+
+        private void writeItem(final XmlStreamFrame frame, final Object value)
+                throws java.io.IOException {
+            writeItemNewLine(frame, XmlValue.getMapKey(XmlValue.getMapValue(value)));
+            final XmlStringBuilder builder =
+                    new XmlStringBuilderWithoutHeader(identStep, frame.childIdent);
+            frame.newLinePending = true;
+            if (value == null) {
+                builder.fillSpaces()
+                        .append(
+                                "<"
+                                        + (frame.name == null
+                                                ? ELEMENT_TEXT
+                                                : XmlValue.escapeName(frame.name, namespaces))
+                                        + NULL_TRUE);
+            } else if (value instanceof Map
+                    && ((Map) value).size() == 1
+                    && XmlValue.getMapKey(value).equals("#item")
+                    && XmlValue.getMapValue(value) instanceof Map) {
+                XmlObject.writeXml(
+                        (Map) XmlValue.getMapValue(value),
+                        null,
+                        builder,
+                        frame.parentTextFound,
+                        namespaces,
+                        true,
+                        ARRAY_TRUE);
+                frame.parentTextFound =
+                        XmlValue.getMapKey(XmlValue.getMapValue(value)).startsWith(TEXT);
+                frame.newLinePending = !frame.parentTextFound;
+            } else {
+                XmlValue.writeXml(
+                        value,
+                        frame.name == null ? ELEMENT_TEXT : frame.name,
+                        builder,
+                        frame.parentTextFound,
+                        namespaces,
+                        value instanceof Collection,
+                        ARRAY_TRUE);
+                frame.parentTextFound = false;
+            }
+            write(builder.toString());
+        }
+
+        private void writeItemNewLine(final XmlStreamFrame frame, final String signature)
+                throws java.io.IOException {
+            if (frame.newLinePending && !signature.startsWith(TEXT)) {
+                newLine();
+            }
+            frame.newLinePending = false;
+        }
+
+        private void writeResult() throws java.io.IOException {
+            if (result instanceof Map) {
+                final String xml = toXml((Map) result, identStep);
+                openWriter(
+                        ((Map) result).containsKey(ENCODING)
+                                ? String.valueOf(((Map) result).get(ENCODING))
+                                : UTF_8.name());
+                write(xml);
+            } else {
+                final String xml = toXml((List) result, identStep);
+                openWriter(UTF_8.name());
+                write(xml);
+            }
+        }
+
+        private void openWriter(final String encoding) {
+            writer =
+                    new java.io.BufferedWriter(
+                            new java.io.OutputStreamWriter(
+                                    xmlOutputStream,
+                                    java.nio.charset.Charset.forName(encoding)
+                                            .newEncoder()
+                                            .onMalformedInput(
+                                                    java.nio.charset.CodingErrorAction.REPLACE)
+                                            .onUnmappableCharacter(
+                                                    java.nio.charset.CodingErrorAction.REPLACE)));
+        }
+
+        private void newLine() throws java.io.IOException {
+            if (identStep != XmlStringBuilder.Step.COMPACT) {
+                write("\n");
+            }
+        }
+
+        private void write(final String xml) throws java.io.IOException {
+            writer.write(U.formatString(xml, System.lineSeparator()));
+        }
+
+        private static int skipValue(final Json.JsonReader jsonReader) throws java.io.IOException {
+            if (jsonReader.peek() != Json.JsonReader.Token.BEGIN_ARRAY) {
+                jsonReader.skipValue();
+                return -1;
+            }
+            jsonReader.next();
+            int items = 0;
+            while (jsonReader.peek() != Json.JsonReader.Token.END_ARRAY) {
+                jsonReader.skipValue();
+                items += 1;
+            }
+            jsonReader.next();
+            return items;
+        }
+
+        private static IllegalArgumentException notStreamable(final String key) {
+            return new IllegalArgumentException(
+                    "Key \""
+                            + key
+                            + "\" changes an element that was already written,"
+                            + " convert this document with U.jsonToXml");
+        }
+    }
+
+    public static String formatXml(String xml, XmlStringBuilder.Step identStep) {
+        if (xml != null && hasPlainAttributes(xml)) {
+            final java.io.StringWriter writer = new java.io.StringWriter(xml.length());
+            try {
+                if (new XmlFormatter(writer, identStep, true)
+                        .format(new java.io.StringReader(xml))) {
+                    return writer.toString();
+                }
+            } catch (IllegalArgumentException | java.io.IOException ex) {
+                // reported by the parser below
+            }
+        }
+        Object result = fromXml(xml, FromType.FOR_FORMAT);
+        return toXml((Map) result, identStep, ROOT);
+    }
+
+    private static boolean hasPlainAttributes(final String xml) {
+        int index = 0;
+        while (index >= 0 && index < xml.length()) {
+            index = xml.indexOf('<', index);
+            if (index == -1) {
+                break;
+            }
+            if (xml.startsWith("<!--", index)) {
+                index = xml.indexOf("-->", index);
+            } else if (xml.startsWith("<![CDATA[", index)) {
+                index = xml.indexOf("]]>", index);
+            } else if (xml.startsWith("<?", index)) {
+                index = xml.indexOf("?>", index);
+            } else {
+                boolean inQuotes = false;
+                boolean namespaceName = false;
+                boolean attributeFound = false;
+                for (index += 1; index < xml.length(); index += 1) {
+                    final char ch = xml.charAt(index);
+                    if (ch == '"') {
+                        inQuotes = !inQuotes;
+                    } else if (inQuotes) {
+                        if (ch == '\n' || ch == '\r' || ch == '\t' || xml.startsWith("&#", index)) {
+                            return false;
+                        }
+                    } else if (ch == '>') {
+                        break;
+                    } else if (ch == '\'' || ch == '\t') {
+                        return false;
+                    } else if (ch == ' ' || ch == '\n' || ch == '\r') {
+                        namespaceName = isNamespaceName(xml, index + 1);
+                        if (namespaceName && attributeFound) {
+                            return false;
+                        }
+                    } else if (ch == '=') {
+                        attributeFound |= !namespaceName;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNamespaceName(final String xml, final int index) {
+        final int end = index + "xmlns".length();
+        return xml.startsWith("xmlns", index)
+                && end < xml.length()
+                && (xml.charAt(end) == ':' || xml.charAt(end) == '=' || xml.charAt(end) == ' ');
+    }
+
+    public static String formatXml(String xml) {
+        return formatXml(xml, XmlStringBuilder.Step.TWO_SPACES);
+    }
+
+    public static void formatXml(
+            final java.io.Reader xmlReader,
+            final java.io.Writer xmlWriter,
+            final XmlStringBuilder.Step identStep)
+            throws java.io.IOException {
+        new XmlFormatter(xmlWriter, identStep, false).format(xmlReader);
+    }
+
+    static class XmlIndentFrame {
+        static final int TEXT_NODE = 0;
+        static final int CDATA_NODE = 1;
+        static final int OTHER_NODE = 2;
+        final String name;
+        final int ident;
+        final boolean parentTextFound;
+        int childNodes;
+        int lastKind = -1;
+        boolean textFound;
+
+        XmlIndentFrame(final String name, final int ident, final boolean parentTextFound) {
+            this.name = name;
+            this.ident = ident;
+            this.parentTextFound = parentTextFound;
+        }
+    }
+
+    static final class XmlIndentWriter {
+        private final java.io.Writer writer;
+        private final XmlStringBuilder.Step identStep;
+
+        XmlIndentWriter(final java.io.Writer writer, final XmlStringBuilder.Step identStep) {
+            this.writer = writer;
+            this.identStep = identStep;
+        }
+
+        boolean beginNode(final XmlIndentFrame frame, final int kind) throws java.io.IOException {
+            final int lastKind = frame.lastKind;
+            if (frame.name != null && lastKind == -1) {
+                writer.write(">");
+            }
+            frame.childNodes += 1;
+            frame.lastKind = kind;
+            frame.textFound |= kind != XmlIndentFrame.OTHER_NODE;
+            if (lastKind == -1) {
+                if (frame.name != null && kind == XmlIndentFrame.OTHER_NODE) {
+                    newLine();
+                }
+                return false;
+            }
+            if (lastKind != XmlIndentFrame.TEXT_NODE && kind != XmlIndentFrame.TEXT_NODE) {
+                newLine();
+            }
+            return lastKind != XmlIndentFrame.OTHER_NODE;
+        }
+
+        void fillSpaces(final int ident) throws java.io.IOException {
+            if (ident > 0) {
+                writer.write(
+                        String.valueOf(identStep == XmlStringBuilder.Step.TABS ? '\t' : ' ')
+                                .repeat(ident));
+            }
+        }
+
+        void newLine() throws java.io.IOException {
+            if (identStep != XmlStringBuilder.Step.COMPACT) {
+                writer.write("\n");
+            }
+        }
+    }
+
+    private static final class XmlFormatFrame extends XmlIndentFrame {
+        private final int offset;
+        private Set<String> names;
+        private String blankText;
+
+        private XmlFormatFrame(
+                final String name,
+                final int ident,
+                final int offset,
+                final boolean parentTextFound) {
+            super(name, ident, parentTextFound);
+            this.offset = offset;
+        }
+    }
+
+    private static final class XmlFormatter {
+        private final java.io.Writer writer;
+        private final XmlStringBuilder.Step identStep;
+        private final XmlIndentWriter indentWriter;
+        private final Set<String> namespaces = new LinkedHashSet<>();
+        private final Deque<XmlFormatFrame> frames = new ArrayDeque<>();
+        private final List<String> prolog = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private final boolean checkLayout;
+        private String doctype;
+        private boolean rootFound;
+        private boolean repeatedNames;
+        private boolean mixedContent;
+        private boolean compatible = true;
+
+        private XmlFormatter(
+                final java.io.Writer writer,
+                final XmlStringBuilder.Step identStep,
+                final boolean checkLayout) {
+            this.writer = writer;
+            this.identStep = identStep;
+            this.indentWriter = new XmlIndentWriter(writer, identStep);
+            this.checkLayout = checkLayout;
+        }
+
+        private boolean format(final java.io.Reader xmlReader) throws java.io.IOException {
+            javax.xml.stream.XMLStreamReader reader = null;
+            try {
+                reader = createXmlInputFactory().createXMLStreamReader(xmlReader);
+                writeHeader(reader);
+                frames.push(new XmlFormatFrame(null, -identStep.getIdent(), -1, false));
+                while (compatible && reader.hasNext()) {
+                    readEvent(reader, reader.next());
+                }
+                if (!rootFound) {
+                    throw new IllegalArgumentException("Root element is missing");
+                }
+                return compatible;
+            } catch (javax.xml.stream.XMLStreamException ex) {
+                throw new IllegalArgumentException(ex);
+            } finally {
+                JsonStreamConverter.closeReader(reader);
+            }
+        }
+
+        private void writeHeader(final javax.xml.stream.XMLStreamReader reader)
+                throws java.io.IOException {
+            final String encoding = reader.getCharacterEncodingScheme();
+            final boolean customEncoding =
+                    encoding != null && !UTF_8.name().equalsIgnoreCase(encoding);
+            if (!customEncoding && !reader.standaloneSet() && reader.getVersion() == null) {
+                return;
+            }
+            writer.write(
+                    "<?xml version=\"1.0\" encoding=\""
+                            + XmlValue.escape(customEncoding ? encoding : UTF_8.name())
+                                    .replace("\"", QUOT)
+                            + "\""
+                            + (reader.standaloneSet()
+                                    ? " standalone=\"" + (reader.isStandalone() ? YES : "no") + "\""
+                                    : "")
+                            + "?>");
+            indentWriter.newLine();
+        }
+
+        private void readEvent(final javax.xml.stream.XMLStreamReader reader, final int event)
+                throws java.io.IOException {
+            switch (event) {
+                case javax.xml.stream.XMLStreamConstants.START_ELEMENT:
+                    startElement(reader);
+                    break;
+                case javax.xml.stream.XMLStreamConstants.END_ELEMENT:
+                    endElement(reader.getLocation().getCharacterOffset());
+                    break;
+                case javax.xml.stream.XMLStreamConstants.CHARACTERS:
+                case javax.xml.stream.XMLStreamConstants.SPACE:
+                    if (frames.size() > 1) {
+                        text.append(
+                                reader.getTextCharacters(),
+                                reader.getTextStart(),
+                                reader.getTextLength());
+                    }
+                    break;
+                case javax.xml.stream.XMLStreamConstants.COMMENT:
+                    addNode(XmlFormatFrame.OTHER_NODE, true, "<!--" + reader.getText() + "-->");
+                    break;
+                case javax.xml.stream.XMLStreamConstants.CDATA:
+                    addNode(
+                            XmlFormatFrame.CDATA_NODE,
+                            false,
+                            "<![CDATA[" + reader.getText() + "]]>");
+                    break;
+                case javax.xml.stream.XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    final String data = reader.getPIData();
+                    checkName(frames.peek(), "?" + reader.getPITarget());
+                    addNode(
+                            XmlFormatFrame.OTHER_NODE,
+                            false,
+                            "<"
+                                    + XmlValue.escapeName("?" + reader.getPITarget(), namespaces)
+                                    + (data == null || data.isEmpty()
+                                            ? ""
+                                            : " " + XmlValue.escape(data))
+                                    + "?>");
+                    break;
+                case javax.xml.stream.XMLStreamConstants.DTD:
+                    final String dtd = reader.getText();
+                    doctype = getDoctypeValue(dtd);
+                    compatible &=
+                            !checkLayout
+                                    || dtd.startsWith(DOCTYPE_HEADER) && dtd.indexOf('[') == -1;
+                    break;
+                case javax.xml.stream.XMLStreamConstants.ENTITY_REFERENCE:
+                    compatible &= !checkLayout;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void startElement(final javax.xml.stream.XMLStreamReader reader)
+                throws java.io.IOException {
+            final XmlFormatFrame parent = frames.peek();
+            if (frames.size() == 1) {
+                if (rootFound) {
+                    throw new IllegalArgumentException("Multiple root elements");
+                }
+                rootFound = true;
+                writeProlog();
+            } else {
+                flushText(parent);
+            }
+            final boolean textFound = indentWriter.beginNode(parent, XmlFormatFrame.OTHER_NODE);
+            if (!textFound) {
+                indentWriter.fillSpaces(parent.ident + identStep.getIdent());
+            }
+            for (int index = 0; index < reader.getNamespaceCount(); index++) {
+                final String prefix = reader.getNamespacePrefix(index);
+                if (prefix != null && !prefix.isEmpty()) {
+                    namespaces.add(prefix);
+                }
+            }
+            final String qualifiedName =
+                    JsonStreamConverter.qualifiedName(reader.getPrefix(), reader.getLocalName());
+            checkName(parent, qualifiedName);
+            final String name = XmlValue.escapeName(qualifiedName, namespaces);
+            writer.write("<" + name);
+            for (int index = 0; index < reader.getNamespaceCount(); index++) {
+                writeAttribute(
+                        JsonStreamConverter.qualifiedName(
+                                "xmlns", reader.getNamespacePrefix(index)),
+                        reader.getNamespaceURI(index));
+            }
+            for (int index = 0; index < reader.getAttributeCount(); index++) {
+                final String attributeName =
+                        JsonStreamConverter.qualifiedName(
+                                reader.getAttributePrefix(index),
+                                reader.getAttributeLocalName(index));
+                checkAttribute(attributeName);
+                writeAttribute(attributeName, reader.getAttributeValue(index));
+            }
+            frames.push(
+                    new XmlFormatFrame(
+                            name,
+                            parent.ident + identStep.getIdent(),
+                            reader.getLocation().getCharacterOffset(),
+                            textFound));
+        }
+
+        private void checkName(final XmlFormatFrame parent, final String name) {
+            if (!checkLayout) {
+                return;
+            }
+            if (parent.names == null) {
+                parent.names = new HashSet<>();
+            }
+            if (!parent.names.add(name)) {
+                repeatedNames = true;
+            }
+            if (name.contains("__") || repeatedNames && mixedContent) {
+                compatible = false;
+            }
+        }
+
+        private void checkAttribute(final String name) {
+            if (checkLayout
+                    && (name.contains("__")
+                            || SELF_CLOSING.equals("-" + name)
+                            || Arrays.asList(TYPE_MARKERS).contains("-" + name))) {
+                compatible = false;
+            }
+        }
+
+        private void writeAttribute(final String name, final String value)
+                throws java.io.IOException {
+            writer.write(
+                    " "
+                            + XmlValue.escapeName(name, namespaces)
+                            + "=\""
+                            + XmlValue.escape(value == null ? "" : value)
+                                    .replace("\"", QUOT)
+                                    .replace("\n", "&#xA;")
+                                    .replace("\t", "&#x9;")
+                            + "\"");
+        }
+
+        private void endElement(final int offset) throws java.io.IOException {
+            final XmlFormatFrame frame = frames.peek();
+            flushText(frame);
+            frames.pop();
+            if (frame.textFound && frame.childNodes > 1) {
+                mixedContent = true;
+                compatible &= !checkLayout || !repeatedNames;
+            }
+            if (frame.childNodes == 0) {
+                writer.write(frame.offset == offset ? "/>" : "></" + frame.name + ">");
+                return;
+            }
+            if (frame.blankText != null && frame.childNodes == 1) {
+                indentWriter.beginNode(frame, XmlFormatFrame.TEXT_NODE);
+                writer.write(XmlValue.escape(frame.blankText));
+            } else if (frame.lastKind == -1) {
+                writer.write(">");
+            }
+            if (frame.lastKind == XmlFormatFrame.OTHER_NODE) {
+                indentWriter.newLine();
+                indentWriter.fillSpaces(frame.ident);
+            }
+            writer.write("</" + frame.name + ">");
+        }
+
+        private void addNode(final int kind, final boolean comment, final String node)
+                throws java.io.IOException {
+            final XmlFormatFrame parent = frames.peek();
+            if (frames.size() == 1 && !rootFound) {
+                prolog.add(node);
+                return;
+            }
+            flushText(parent);
+            final boolean textFound = indentWriter.beginNode(parent, kind);
+            if (kind == XmlFormatFrame.OTHER_NODE
+                    && !textFound
+                    && !(comment && parent.parentTextFound)) {
+                indentWriter.fillSpaces(parent.ident + identStep.getIdent());
+            }
+            writer.write(node);
+        }
+
+        private void writeProlog() throws java.io.IOException {
+            if (doctype != null) {
+                writer.write(DOCTYPE_HEADER + doctype + ">");
+                indentWriter.newLine();
+            }
+            final XmlFormatFrame document = frames.peek();
+            for (String node : prolog) {
+                indentWriter.beginNode(document, XmlFormatFrame.OTHER_NODE);
+                writer.write(node);
+            }
+            prolog.clear();
+        }
+
+        private void flushText(final XmlFormatFrame frame) throws java.io.IOException {
+            if (text.length() == 0) {
+                return;
+            }
+            final String value = text.toString();
+            text.setLength(0);
+            if (!value.trim().isEmpty()) {
+                indentWriter.beginNode(frame, XmlFormatFrame.TEXT_NODE);
+                writer.write(XmlValue.escape(value));
+            } else {
+                frame.childNodes += 1;
+                if (frame.childNodes == 1) {
+                    frame.blankText = value;
+                }
+            }
+        }
     }
 
     @SuppressWarnings("unchecked")
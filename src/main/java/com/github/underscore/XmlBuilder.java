@@ -23,16 +23,25 @@
  */
 package com.github.underscore;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class XmlBuilder {
     private static final String SELF_CLOSING = "-self-closing";
     private static final String TRUE = "true";
+    private static final String ITEM = "#item";
     private final Map<String, Object> data;
-    private String path;
+    private final StringBuilder path;
+    private final List<Object> nodes = new ArrayList<>();
+    private Tree tree = new Tree();
+    private boolean nodesResolved;
+    private int nodesModCount;
     private String savedPath;
 
     XmlBuilder(String rootName) {
@@ -40,13 +49,30 @@ public class XmlBuilder {
         Map<String, Object> value = new LinkedHashMap<>();
         value.put(SELF_CLOSING, TRUE);
         data.put(rootName, value);
-        path = rootName;
+        path = new StringBuilder().append(rootName);
     }
 
     public static XmlBuilder create(String rootName) {
         return new XmlBuilder(rootName);
     }
 
+    public static Streaming streaming(
+            String rootName, java.io.Writer writer, Xml.XmlStringBuilder.Step identStep)
+            throws java.io.IOException {
+        return new Streaming(writer, identStep).e(rootName);
+    }
+
+    public static Streaming streaming(
+            String rootName, java.io.OutputStream outputStream, Xml.XmlStringBuilder.Step identStep)
+            throws java.io.IOException {
+        return streaming(
+                rootName,
+                new java.io.BufferedWriter(
+                        new java.io.OutputStreamWriter(
+                                outputStream, java.nio.charset.StandardCharsets.UTF_8)),
+                identStep);
+    }
+
     public static XmlBuilder parse(String xml) {
         Map<String, Object> xmlData = U.fromXmlMap(xml);
         XmlBuilder xmlBuilder = new XmlBuilder(Xml.XmlValue.getMapKey(xmlData));
@@ -56,75 +82,103 @@ public class XmlBuilder {
 
     @SuppressWarnings("unchecked")
     public XmlBuilder e(String elementName) {
-        U.remove(data, path + "." + SELF_CLOSING);
+        final Map<String, Object> current = removeSelfClosing(elementName);
+        if (current == null) {
+            Map<String, Object> value = new LinkedHashMap<>();
+            value.put(SELF_CLOSING, TRUE);
+            Object object = U.get(data, path + "." + elementName);
+            if (object instanceof Map) {
+                List<Object> list = new ArrayList<>();
+                list.add(object);
+                list.add(value);
+                U.set(data, path + "." + elementName, list);
+                path.append('.').append(elementName).append(".1");
+                savedPath = path.toString();
+            } else if (object instanceof List) {
+                path.append('.')
+                        .append(elementName)
+                        .append('.')
+                        .append(((List<Object>) object).size());
+                savedPath = path.toString();
+                ((List<Object>) object).add(value);
+            } else {
+                U.set(data, path + "." + elementName, value);
+                path.append('.').append(elementName);
+            }
+            invalidateNodes();
+            return this;
+        }
         Map<String, Object> value = new LinkedHashMap<>();
         value.put(SELF_CLOSING, TRUE);
-        Object object = U.get(data, path + "." + elementName);
+        Object object = current.get(elementName);
         if (object instanceof Map) {
             List<Object> list = new ArrayList<>();
             list.add(object);
             list.add(value);
-            U.set(data, path + "." + elementName, list);
-            path += "." + elementName + ".1";
-            savedPath = path;
+            current.put(elementName, list);
+            enterItem(elementName, list, value);
         } else if (object instanceof List) {
-            path += "." + elementName + "." + ((List<Object>) object).size();
-            savedPath = path;
             ((List<Object>) object).add(value);
+            enterItem(elementName, (List<Object>) object, value);
         } else {
-            U.set(data, path + "." + elementName, value);
-            path += "." + elementName;
+            current.put(elementName, value);
+            path.append('.').append(elementName);
+            nodes.add(value);
         }
         return this;
     }
 
     public XmlBuilder a(String attributeName, String value) {
-        U.remove(data, path + "." + SELF_CLOSING);
-        U.set(data, path + ".-" + attributeName, value);
+        final Map<String, Object> current = removeSelfClosing("-" + attributeName);
+        if (current == null) {
+            U.set(data, path + ".-" + attributeName, value);
+            invalidateNodes();
+        } else {
+            current.put("-" + attributeName, value);
+        }
         return this;
     }
 
     public XmlBuilder c(String comment) {
-        U.remove(data, path + "." + SELF_CLOSING);
-        U.update(data, path + ".#comment", comment);
-        return this;
+        return update("#comment", comment);
     }
 
     public XmlBuilder i(String target, String value) {
-        U.remove(data, path + "." + SELF_CLOSING);
+        removeSelfClosing(SELF_CLOSING);
         U.set(data, "?" + target, value);
+        invalidateNodes();
         return this;
     }
 
     public XmlBuilder d(String cdata) {
-        U.remove(data, path + "." + SELF_CLOSING);
-        U.update(data, path + ".#cdata-section", cdata);
-        return this;
+        return update("#cdata-section", cdata);
     }
 
     public XmlBuilder t(String text) {
-        U.remove(data, path + "." + SELF_CLOSING);
-        U.update(data, path + ".#text", text);
-        return this;
+        return update("#text", text);
     }
 
     public XmlBuilder importXmlBuilder(XmlBuilder xmlBuilder) {
         data.putAll(xmlBuilder.data);
+        tree.merge(xmlBuilder.tree);
+        invalidateNodes();
         return this;
     }
 
     public XmlBuilder up() {
-        if (path.equals(savedPath)) {
-            path = path.substring(0, path.lastIndexOf("."));
+        if (savedPath != null && savedPath.contentEquals(path)) {
+            removeLastKey();
         }
-        path = path.substring(0, path.lastIndexOf("."));
+        removeLastKey();
         return this;
     }
 
     public XmlBuilder root() {
         int index = path.indexOf(".");
-        XmlBuilder xmlBuilder = new XmlBuilder(index == -1 ? path : path.substring(0, index));
+        XmlBuilder xmlBuilder =
+                new XmlBuilder(index == -1 ? path.toString() : path.substring(0, index));
         xmlBuilder.setData(data);
+        xmlBuilder.tree = tree;
         return xmlBuilder;
     }
 
@@ -138,11 +192,13 @@ public class XmlBuilder {
 
     public XmlBuilder set(final String path, final Object value) {
         U.set(data, path, value);
+        invalidateNodes();
         return this;
     }
 
     public XmlBuilder remove(final String key) {
         U.remove(data, key);
+        invalidateNodes();
         return this;
     }
 
@@ -152,6 +208,7 @@ public class XmlBuilder {
 
     public XmlBuilder clear() {
         data.clear();
+        invalidateNodes();
         return this;
     }
 
@@ -186,5 +243,310 @@ public class XmlBuilder {
     private void setData(Map<String, Object> newData) {
         data.clear();
         data.putAll(newData);
+        invalidateNodes();
+    }
+
+    private XmlBuilder update(final String key, final String value) {
+        final Map<String, Object> current = removeSelfClosing(key);
+        if (current == null) {
+            U.update(data, path + "." + key, value);
+            invalidateNodes();
+        } else {
+            current.put(current.containsKey(key) ? U.uniqueId(key) : key, value);
+        }
+        return this;
+    }
+
+    private void enterItem(final String key, final List<Object> list, final Object value) {
+        path.append('.').append(key).append('.').append(list.size() - 1);
+        savedPath = path.toString();
+        nodes.add(list);
+        nodes.add(value);
+    }
+
+    private void removeLastKey() {
+        path.setLength(path.lastIndexOf("."));
+        if (nodesResolved) {
+            nodes.remove(nodes.size() - 1);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> removeSelfClosing(final String key) {
+        final Object current = isPathKey(key) && resolveNodes() ? currentNode() : null;
+        if (!(current instanceof Map)) {
+            U.remove(data, path + "." + SELF_CLOSING);
+            return null;
+        }
+        ((Map<String, Object>) current).remove(SELF_CLOSING);
+        final Tree root = tree.root();
+        root.modCount += 1;
+        nodesModCount = root.modCount;
+        if (skipItems(current) != current) {
+            return null;
+        }
+        return (Map<String, Object>) current;
+    }
+
+    private Object currentNode() {
+        return skipItems(nodes.get(nodes.size() - 1));
+    }
+
+    private boolean resolveNodes() {
+        final Tree root = tree.root();
+        if (nodesResolved && nodesModCount == root.modCount) {
+            return true;
+        }
+        nodes.clear();
+        Object node = data;
+        int start = 0;
+        for (int index = 0; index <= path.length(); index += 1) {
+            if (index == path.length() || path.charAt(index) == '.') {
+                final String key = path.substring(start, index);
+                if (!isPathKey(key)) {
+                    nodes.clear();
+                    return false;
+                }
+                node = getValue(node, key);
+                nodes.add(node);
+                start = index + 1;
+            }
+        }
+        nodesResolved = true;
+        nodesModCount = root.modCount;
+        return true;
+    }
+
+    private void invalidateNodes() {
+        tree.root().modCount += 1;
+        nodesResolved = false;
+    }
+
+    private static boolean isPathKey(final String key) {
+        if (key == null || key.isEmpty() || ITEM.equals(key)) {
+            return false;
+        }
+        for (int index = 0; index < key.length(); index += 1) {
+            final char ch = key.charAt(index);
+            if (ch == '.' || ch == '[' || ch == ']') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Object skipItems(final Object node) {
+        Object result = node;
+        while (result instanceof Map && !((Map<?, ?>) result).isEmpty()) {
+            final Map.Entry<?, ?> entry = ((Map<?, ?>) result).entrySet().iterator().next();
+            if (!ITEM.equals(entry.getKey())) {
+                break;
+            }
+            result = entry.getValue();
+        }
+        return result;
+    }
+
+    private static Object getValue(final Object node, final String key) {
+        final Object container = skipItems(node);
+        if (container instanceof Map) {
+            return ((Map<?, ?>) container).get(key);
+        }
+        if (container instanceof List) {
+            try {
+                return ((List<?>) container).get(Integer.parseInt(key));
+            } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static final class Tree {
+        private Tree merged;
+        private int modCount;
+
+        private Tree root() {
+            Tree result = this;
+            while (result.merged != null) {
+                result = result.merged;
+            }
+            return result;
+        }
+
+        private void merge(final Tree other) {
+            final Tree root = root();
+            final Tree otherRoot = other.root();
+            if (root != otherRoot) {
+                otherRoot.merged = root;
+                root.modCount = Math.max(root.modCount, otherRoot.modCount) + 1;
+            }
+        }
+    }
+
+    public static class Streaming implements java.io.Closeable {
+        private final java.io.Writer writer;
+        private final Xml.XmlStringBuilder.Step identStep;
+        private final Xml.XmlIndentWriter indentWriter;
+        private final Deque<StreamingFrame> frames = new ArrayDeque<>();
+        private final Set<String> namespaces = new HashSet<>();
+        private final Map<String, String> attributes = new LinkedHashMap<>();
+        private StreamingFrame openFrame;
+        private boolean selfClosing;
+        private boolean closed;
+
+        private Streaming(java.io.Writer writer, Xml.XmlStringBuilder.Step identStep)
+                throws java.io.IOException {
+            this.writer = writer;
+            this.identStep = identStep;
+            this.indentWriter = new Xml.XmlIndentWriter(writer, identStep);
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            indentWriter.newLine();
+            frames.push(new StreamingFrame(null, -identStep.getIdent(), false));
+        }
+
+        public Streaming e(String elementName) throws java.io.IOException {
+            checkNotClosed();
+            writeOpenElement();
+            final StreamingFrame parent = frames.peek();
+            final boolean textFound = indentWriter.beginNode(parent, StreamingFrame.OTHER_NODE);
+            if (!textFound) {
+                indentWriter.fillSpaces(parent.ident + identStep.getIdent());
+            }
+            openFrame =
+                    new StreamingFrame(elementName, parent.ident + identStep.getIdent(), textFound);
+            selfClosing = true;
+            frames.push(openFrame);
+            return this;
+        }
+
+        public Streaming a(String attributeName, String value) {
+            checkNotClosed();
+            if (openFrame == null) {
+                throw new IllegalStateException("Attribute is not expected here");
+            }
+            if (attributeName.startsWith("xmlns:")) {
+                namespaces.add(attributeName.substring(6));
+            }
+            attributes.put(attributeName, value);
+            selfClosing = false;
+            return this;
+        }
+
+        public Streaming c(String comment) throws java.io.IOException {
+            final StreamingFrame parent = beginChild();
+            final boolean textFound = indentWriter.beginNode(parent, StreamingFrame.OTHER_NODE);
+            if (!textFound && !parent.parentTextFound) {
+                indentWriter.fillSpaces(parent.ident + identStep.getIdent());
+            }
+            writer.write("<!--" + comment + "-->");
+            return this;
+        }
+
+        public Streaming i(String target, String value) throws java.io.IOException {
+            final StreamingFrame parent = beginChild();
+            if (!indentWriter.beginNode(parent, StreamingFrame.OTHER_NODE)) {
+                indentWriter.fillSpaces(parent.ident + identStep.getIdent());
+            }
+            writer.write(
+                    "<"
+                            + Xml.XmlValue.escapeName("?" + target, namespaces)
+                            + (value == null || value.isEmpty()
+                                    ? ""
+                                    : " " + Xml.XmlValue.escape(value))
+                            + "?>");
+            return this;
+        }
+
+        public Streaming d(String cdata) throws java.io.IOException {
+            indentWriter.beginNode(beginChild(), StreamingFrame.CDATA_NODE);
+            writer.write("<![CDATA[" + cdata + "]]>");
+            return this;
+        }
+
+        public Streaming t(String text) throws java.io.IOException {
+            indentWriter.beginNode(beginChild(), StreamingFrame.TEXT_NODE);
+            writer.write(Xml.XmlValue.escape(text));
+            return this;
+        }
+
+        public Streaming up() throws java.io.IOException {
+            checkNotClosed();
+            if (frames.size() <= 2) {
+                throw new IllegalStateException("Root element can not be closed, use close()");
+            }
+            writeCloseElement();
+            return this;
+        }
+
+        public void flush() throws java.io.IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws java.io.IOException {
+            if (closed) {
+                return;
+            }
+            while (frames.size() > 1) {
+                writeCloseElement();
+            }
+            closed = true;
+            writer.close();
+        }
+
+        private void checkNotClosed() {
+            if (closed) {
+                throw new IllegalStateException("Streaming builder is closed");
+            }
+        }
+
+        private StreamingFrame beginChild() throws java.io.IOException {
+            checkNotClosed();
+            writeOpenElement();
+            return frames.peek();
+        }
+
+        private void writeOpenElement() throws java.io.IOException {
+            if (openFrame == null) {
+                return;
+            }
+            openFrame.escapedName = Xml.XmlValue.escapeName(openFrame.name, namespaces);
+            writer.write("<" + openFrame.escapedName);
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                writer.write(
+                        " "
+                                + Xml.XmlValue.escapeName(entry.getKey(), namespaces)
+                                + "=\""
+                                + Xml.XmlValue.escape(String.valueOf(entry.getValue()))
+                                        .replace("\"", "&quot;")
+                                + "\"");
+            }
+            attributes.clear();
+            openFrame = null;
+        }
+
+        private void writeCloseElement() throws java.io.IOException {
+            final boolean emptyElement = openFrame != null;
+            writeOpenElement();
+            final StreamingFrame frame = frames.pop();
+            if (emptyElement) {
+                writer.write(selfClosing ? "/>" : "></" + frame.escapedName + ">");
+                return;
+            }
+            if (frame.lastKind == StreamingFrame.OTHER_NODE) {
+                indentWriter.newLine();
+                indentWriter.fillSpaces(frame.ident);
+            }
+            writer.write("</" + frame.escapedName + ">");
+        }
+    }
+
+    private static class StreamingFrame extends Xml.XmlIndentFrame {
+        private String escapedName;
+
+        private StreamingFrame(String name, int ident, boolean parentTextFound) {
+            super(name, ident, parentTextFound);
+        }
     }
 }
@@ -28,6 +28,10 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
 class Base32Test {
 
     @Test
@@ -56,4 +60,46 @@ class Base32Test {
     void encodeEmpty() {
         assertEquals("", Base32.encode(""));
     }
+
+    @Test
+    void encodeUtf8() {
+        assertEquals("YOUQ", Base32.encode("\u00e9"));
+        assertEquals("\u00e9", Base32.decode("YOUQ"));
+        assertEquals("\ud83d\ude00", Base32.decode(Base32.encode("\ud83d\ude00")));
+    }
+
+    @Test
+    void encodeBuffers() {
+        ByteBuffer input = ByteBuffer.wrap("-Hello world!+-".getBytes(StandardCharsets.UTF_8));
+        CharBuffer output = CharBuffer.allocate(10);
+        StringBuilder encoded = new StringBuilder();
+        while (input.hasRemaining()) {
+            Base32.encode(input, output, true);
+            encoded.append(output.flip());
+            output.clear();
+        }
+        assertEquals("FVEGKbDMNcQHObbSNRSCCKZN", encoded.toString());
+        ByteBuffer partial = ByteBuffer.wrap(new byte[] {'!'});
+        Base32.encode(partial, output, false);
+        assertEquals(1, partial.remaining());
+        Base32.encode(partial, output, true);
+        assertEquals("EE", output.flip().toString());
+    }
+
+    @Test
+    void decodeBuffers() {
+        CharBuffer input = CharBuffer.wrap("FVEGKbDMNcQHObbSNRSCCKZN");
+        ByteBuffer output = ByteBuffer.allocate(6);
+        StringBuilder decoded = new StringBuilder();
+        while (input.hasRemaining()) {
+            Base32.decode(input, output, true);
+            decoded.append(
+                    new String(output.array(), 0, output.position(), StandardCharsets.UTF_8));
+            output.clear();
+        }
+        assertEquals("-Hello world!+-", decoded.toString());
+        assertThrows(
+                Base32.DecodingException.class,
+                () -> Base32.decode(CharBuffer.wrap("EE\u00e9"), ByteBuffer.allocate(1), true));
+    }
 }
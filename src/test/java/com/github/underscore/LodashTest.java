@@ -26,6 +26,7 @@ package com.github.underscore;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -33,12 +34,14 @@ import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -48,6 +51,8 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Underscore library unit test.
@@ -455,6 +460,134 @@ class LodashTest {
         assertNull(U.<String>get(U.fromJson("{\"a\":[{\"b\":{\"c\":\"d\"}}]}"), "a[0].d.c"));
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    void path() {
+        U.PropertyPath path = U.path("a[0].b.c");
+        assertSame(path, U.path("a[0].b.c"));
+        assertEquals(asList("a", "0", "b", "c"), path.getKeys());
+        assertEquals("[a, 0, b, c]", path.toString());
+        assertThrows(UnsupportedOperationException.class, () -> path.getKeys().add("d"));
+        Map<String, Object> map =
+                (Map<String, Object>) U.fromJson("{\"a\":[{\"b\":{\"c\":\"d\"}}]}");
+        assertEquals("d", U.<String>get(map, path));
+        assertEquals("d", U.<String>set(map, path, "e"));
+        assertEquals("e", U.<String>update(map, path, "f"));
+        assertEquals(
+                "{c=e, c1=f}",
+                U.get(map, U.path("a[0].b")).toString().replaceAll("c\\d+", "c1"));
+        assertEquals("e", U.<String>remove(map, path));
+        assertNull(U.get(map, U.path("a[0].x")));
+        assertThrows(IndexOutOfBoundsException.class, () -> U.get(map, U.path("a[-1]")));
+        assertThrows(NumberFormatException.class, () -> U.get(map, U.path("a.b")));
+        assertThrows(NumberFormatException.class, () -> U.get(map, U.path("a[99999999999]")));
+    }
+
+    @Test
+    void getAll() {
+        Map<String, Object> map =
+                U.fromJsonMap(
+                        "{\"envelope\":{\"body\":{\"order\":{\"id\":1,"
+                                + "\"items\":[{\"sku\":\"a\"},{\"sku\":\"b\"}]}}}}");
+        Map<String, Object> result =
+                U.getAll(
+                        map,
+                        asList(
+                                "envelope.body.order.items[1].sku",
+                                "envelope.body.order.id",
+                                "envelope.body.order.items[0].sku",
+                                "envelope.body.order.missing.value",
+                                "envelope.body.order.id.value",
+                                "",
+                                "envelope.body.order.id"));
+        assertEquals(
+                "{envelope.body.order.items[1].sku=b, envelope.body.order.id=1,"
+                        + " envelope.body.order.items[0].sku=a,"
+                        + " envelope.body.order.missing.value=null,"
+                        + " envelope.body.order.id.value=null, =null}",
+                result.toString());
+        assertEquals("{a=null}", U.getAll(null, singletonList("a")).toString());
+        assertThrows(
+                NumberFormatException.class,
+                () -> U.getAll(map, singletonList("envelope.body.order.items.sku")));
+    }
+
+    @Test
+    void index() {
+        List<Map<String, Object>> list =
+                U.fromJson(
+                        "[{\"id\":1,\"code\":\"a\",\"price\":10},"
+                                + "{\"id\":2,\"code\":\"b\",\"price\":20},"
+                                + "{\"id\":3,\"code\":\"a\",\"price\":30},"
+                                + "{\"id\":4,\"code\":\"c\"}]");
+        U.Index<Map<String, Object>> index = U.index(list, "id", "code", "price");
+        assertEquals("[{id=3, code=a, price=30}]", index.get("id", 3L).toString());
+        assertEquals(
+                "[{id=1, code=a, price=10}, {id=3, code=a, price=30}]",
+                index.get("code", "a").toString());
+        assertEquals(
+                "[{id=3, code=a, price=30}]",
+                index.where(
+                                asList(
+                                        Map.<String, Object>entry("code", "a"),
+                                        Map.<String, Object>entry("price", 30L)))
+                        .toString());
+        assertEquals(
+                "{id=4, code=c}",
+                index.findWhere(singletonList(Map.<String, Object>entry("code", "c")))
+                        .get()
+                        .toString());
+        assertEquals(
+                "[]",
+                index.where(
+                                asList(
+                                        Map.<String, Object>entry("code", "a"),
+                                        Map.<String, Object>entry("missing", 1)))
+                        .toString());
+        assertEquals("[a, b, c]", index.groupBy("code").keySet().toString());
+        assertEquals(
+                "[{id=2, code=b, price=20}, {id=3, code=a, price=30}]",
+                index.range("price", 10L, false, 30L, true).toString());
+        assertEquals("[]", index.range("price", 30L, true, 10L, true).toString());
+        assertEquals(4, index.range("id", null, true, null, true).size());
+        Map<String, Object> added = new LinkedHashMap<>();
+        added.put("id", 5L);
+        added.put("code", "a");
+        added.put("price", 25L);
+        index.add(added);
+        assertEquals(5, index.size());
+        assertEquals(
+                "[{id=5, code=a, price=25}, {id=3, code=a, price=30}]",
+                index.range("price", 25L, true, null, true).toString());
+        assertTrue(index.remove(list.get(2)));
+        assertEquals(false, index.remove(list.get(2)));
+        assertEquals(4, index.size());
+        assertEquals(
+                "[{id=5, code=a, price=25}]",
+                index.range("price", 20L, false, null, true).toString());
+        assertEquals(
+                "[{id=1, code=a, price=10}, {id=5, code=a, price=25}]",
+                index.get("code", "a").toString());
+        assertEquals("[{id=1, code=a, price=10}]", index.get("id", 1).toString());
+        assertEquals(1, index.where(singletonList(Map.<String, Object>entry("price", 10))).size());
+        assertEquals(3, index.range("price", 10, true, 25, true).size());
+        Map<String, Object> invalid = new LinkedHashMap<>();
+        invalid.put("id", 6L);
+        invalid.put("price", "x");
+        assertThrows(ClassCastException.class, () -> index.add(invalid));
+        assertEquals(4, index.size());
+        assertEquals("[]", index.get("id", 6L).toString());
+        Map<String, Object> first = list.get(0);
+        first.put("id", 50L);
+        assertTrue(index.remove(first));
+        assertEquals(3, index.size());
+        assertEquals("[]", index.get("id", 1L).toString());
+        assertEquals("[{id=5, code=a, price=25}]", index.get("code", "a").toString());
+        assertThrows(IllegalArgumentException.class, () -> index.get("missing", 1L));
+        assertThrows(
+                IllegalArgumentException.class, () -> U.index(singletonList("text"), "missing"));
+    }
+
     @Test
     void selectTokenGetBookTitleWrittenAfter2001() {
         String inventory =
@@ -589,6 +722,116 @@ class LodashTest {
         assertThrows(IllegalArgumentException.class, () -> U.selectTokens(objectMap, "\\"));
     }
 
+    @Test
+    void query() {
+        Object store =
+                U.fromJson(
+                        "{\"store\":{\"book\":["
+                                + "{\"category\":\"reference\",\"author\":\"Nigel Rees\","
+                                + "\"price\":8.95},"
+                                + "{\"category\":\"fiction\",\"author\":\"Evelyn Waugh\","
+                                + "\"price\":12.99},"
+                                + "{\"category\":\"fiction\",\"author\":\"Herman Melville\","
+                                + "\"isbn\":\"0-553-21311-3\",\"price\":8.99}],"
+                                + "\"bicycle\":{\"color\":\"red\",\"price\":399}}}");
+        assertEquals(
+                "[Nigel Rees, Evelyn Waugh, Herman Melville]",
+                U.query(store, "$.store.book[*].author").toString());
+        assertEquals("[8.95, 12.99, 8.99, 399]", U.query(store, "$..price").toString());
+        assertEquals("[red]", U.query(store, "$['store'][\"bicycle\"].color").toString());
+        assertEquals(
+                "[Nigel Rees, Herman Melville]",
+                U.query(store, "$..book[0,-1].author").toString());
+        assertEquals("[12.99, 8.99]", U.query(store, "$.store.book[1:].price").toString());
+        assertEquals("[8.99, 8.95]", U.query(store, "$.store.book[::-2].price").toString());
+        assertEquals("[Herman Melville]", U.query(store, "$..book[?(@.isbn)].author").toString());
+        assertEquals(
+                "[Nigel Rees, Herman Melville]",
+                U.query(store, "$..book[?(@.price < 10)].author").toString());
+        assertEquals(
+                "[Herman Melville]",
+                U.query(
+                                store,
+                                "$..book[?@.category == 'fiction' && !(@.price > 10)"
+                                        + " || @.price >= $.store.bicycle.price].author")
+                        .toString());
+        assertEquals("[]", U.query(store, "$.store.book[5]").toString());
+        assertSame(U.compileJsonPath("$..price"), U.compileJsonPath("$..price"));
+        List<Object> prices = new ArrayList<>();
+        U.compileJsonPath("$.store.bicycle.*").evaluate(store, prices::add);
+        assertEquals("[red, 399]", prices.toString());
+        assertThrows(IllegalArgumentException.class, () -> U.query(store, "store"));
+        assertThrows(IllegalArgumentException.class, () -> U.query(store, "$[?(@.price ==)]"));
+        assertThrows(IllegalArgumentException.class, () -> U.query(store, "$['store'"));
+    }
+
+    @Test
+    void selectTokensWithPathQueries() {
+        Map<String, Object> objectMap =
+                U.fromJsonMap(
+                        "{\"inventory\": {\"-id\": \"i1\", \"book\": ["
+                                + "{\"-year\": \"2000\", \"title\": \"Snow Crash\","
+                                + " \"price\": 14.95},"
+                                + "{\"-year\": \"2005\", \"title\": \"Burning Tower\","
+                                + " \"price\": 5.99,"
+                                + " \"author\": [\"Larry Niven\", \"Jerry Pournelle\"]},"
+                                + "{\"-year\": \"1995\", \"title\": \"Zodiac\", \"price\": 7.5,"
+                                + " \"author\": \"Neal Stephenson\", \"available\": true}]}}");
+        assertEquals("i1", U.selectToken(objectMap, "/inventory/@id"));
+        assertEquals("Snow Crash", U.selectToken(objectMap, "inventory/book[1]/title/text()"));
+        assertEquals("1995", U.selectToken(objectMap, "//book[last()]/@year"));
+        assertEquals(
+                "Zodiac",
+                U.selectToken(objectMap, "//book[price < 7.6][@year != '2005']/title/text()"));
+        assertEquals(
+                "Zodiac",
+                U.selectToken(objectMap, "//book[author='Neal Stephenson']/title/text()"));
+        assertEquals(
+                "[Snow Crash, Burning Tower, Zodiac]",
+                U.selectTokens(objectMap, "//*/title/text()").toString());
+        assertEquals("[true]", U.selectTokens(objectMap, "//book/available/text()").toString());
+        assertEquals(
+                "[5.99]", U.selectTokens(objectMap, "//book[author][1]/price/text()").toString());
+        assertEquals(
+                "[Jerry Pournelle]", U.selectTokens(objectMap, "//author[2]/text()").toString());
+        assertEquals("[null, null]", U.selectTokens(objectMap, "//book[@year>1999]").toString());
+        assertEquals(
+                "[Burning Tower, Zodiac]",
+                U.selectTokens(objectMap, "//book[@year='2005' or @year='1995']/title/text()")
+                        .toString());
+        assertNull(U.selectToken(objectMap, "//book[@year>2005]/title/text()"));
+    }
+
+    @Test
+    void compileSelector() {
+        U.Selector selector = U.compileSelector("//book[@year>2001]/title/text()");
+        assertSame(selector, U.compileSelector("//book[@year>2001]/title/text()"));
+        U.Selector fallback = U.compileSelector("//book[@year>2001 and @year<2020]/title/text()");
+        List<String> titles =
+                IntStream.range(0, 200)
+                        .parallel()
+                        .mapToObj(
+                                index -> {
+                                    Map<String, Object> objectMap =
+                                            U.fromJsonMap(
+                                                    "{\"inventory\": {\"book\": ["
+                                                            + "{\"-year\": \"2000\","
+                                                            + " \"title\": \"a\"}, {\"-year\": \""
+                                                            + (2002 + index % 10)
+                                                            + "\", \"title\": \"b"
+                                                            + index
+                                                            + "\"}]}}");
+                                    assertEquals(
+                                            fallback.selectTokens(objectMap),
+                                            selector.selectTokens(objectMap));
+                                    return selector.selectToken(objectMap);
+                                })
+                        .collect(Collectors.toList());
+        assertEquals("b0", titles.get(0));
+        assertEquals("b199", titles.get(199));
+        assertThrows(IllegalArgumentException.class, () -> U.compileSelector("\\"));
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     void fetchGet() {
@@ -639,10 +882,9 @@ class LodashTest {
     }
 
     @Test
-    void decompressGzip() throws IOException {
-        Path path = Paths.get("file.txt");
-        Files.deleteIfExists(path);
-        U.decompressGzip("src/test/resources/file.gz", "file.txt");
+    void decompressGzip(@TempDir Path tempDir) throws IOException {
+        Path path = tempDir.resolve("file.txt");
+        U.decompressGzip("src/test/resources/file.gz", path.toString());
         assertEquals(65, Files.readAllBytes(path).length);
     }
 
@@ -1075,6 +1317,55 @@ class LodashTest {
                 U.XmlToJsonMode.REPLACE_EMPTY_TAG_WITH_NULL_AND_MINUS_WITH_AT);
     }
 
+    @Test
+    void xmlToJsonWithCombinedModes() {
+        String xml = "<a c=\"1\"><b/><b></b><b d=\"2\"/><e><f/></e><g>text</g></a>";
+        Map<String, Object> map = U.fromXmlMap(xml);
+        assertEquals(
+                Json.toJson(
+                        U.replaceMinusWithAt(
+                                U.replaceEmptyValueWithNull(U.replaceSelfClosingWithNull(map))),
+                        Json.JsonStringBuilder.Step.COMPACT),
+                U.xmlToJson(
+                        xml,
+                        Json.JsonStringBuilder.Step.COMPACT,
+                        U.XmlToJsonMode.REPLACE_EMPTY_TAG_WITH_NULL_AND_MINUS_WITH_AT));
+        assertEquals(
+                "{\"a\":{\"@c\":\"1\",\"b\":[null,null,{\"@d\":\"2\"}],\"e\":{\"f\":null},"
+                        + "\"g\":\"text\"},\"#omit-xml-declaration\":\"yes\"}",
+                U.xmlToJson(
+                        xml,
+                        Json.JsonStringBuilder.Step.COMPACT,
+                        U.XmlToJsonMode.REPLACE_EMPTY_TAG_WITH_NULL_AND_MINUS_WITH_AT));
+        assertEquals(
+                U.replaceEmptyValueWithEmptyString(U.replaceSelfClosingWithEmpty(map)),
+                U.applyXmlToJsonMode(map, U.XmlToJsonMode.REPLACE_EMPTY_TAG_WITH_STRING));
+        assertEquals(
+                Json.toJson(U.replaceSelfClosingWithNull(map)),
+                U.xmlToJson(xml, U.XmlToJsonMode.REPLACE_SELF_CLOSING_WITH_NULL));
+        Map<String, Object> selfClosing = new LinkedHashMap<>();
+        selfClosing.put("-self-closing", "true");
+        assertNull(U.applyXmlToJsonMode(selfClosing, U.XmlToJsonMode.REPLACE_EMPTY_TAG_WITH_NULL));
+        assertEquals(
+                Collections.emptyMap(),
+                U.applyXmlToJsonMode(
+                        selfClosing, U.XmlToJsonMode.REPLACE_SELF_CLOSING_WITH_STRING));
+        assertEquals(
+                "",
+                U.applyXmlToJsonMode(selfClosing, U.XmlToJsonMode.REPLACE_EMPTY_TAG_WITH_STRING));
+        Json.JsonStringBuilder builder =
+                new Json.JsonStringBuilder(Json.JsonStringBuilder.Step.COMPACT);
+        U.XmlToJsonTransform.of(U.XmlToJsonMode.REPLACE_EMPTY_TAG_WITH_STRING)
+                .writeJson(selfClosing, builder);
+        assertEquals("\"\"", builder.toString());
+        Map<String, Object> renamed = new LinkedHashMap<>();
+        renamed.put("-x", "1");
+        renamed.put("@x", "2");
+        builder = new Json.JsonStringBuilder(Json.JsonStringBuilder.Step.COMPACT);
+        U.XmlToJsonTransform.of(U.XmlToJsonMode.REPLACE_MINUS_WITH_AT).writeJson(renamed, builder);
+        assertEquals("{\"@x\":\"2\"}", builder.toString());
+    }
+
     @Test
     void xmpToJson4() {
         assertEquals(
@@ -1234,6 +1525,43 @@ class LodashTest {
         assertEquals("", U.mergeXmlsOrJsonsToXml(List.of("")));
     }
 
+    @Test
+    void xmlOrJsonMerger() {
+        U.XmlOrJsonMerger merger =
+                new U.XmlOrJsonMerger()
+                        .add("{\"a\":{\"b\":1,\"l\":[1,2]},\"c\":\"x\"}")
+                        .add("<a><b>2</b><l>3</l></a>")
+                        .add("text")
+                        .addAll(List.of("{\"a\":{\"l\":[2,4,4]},\"c\":[\"x\",\"y\"]}"));
+        assertEquals(
+                "{a={b=2, l=[1, 2, 3, 4, 4]}, c=[x, y], #omit-xml-declaration=yes}",
+                merger.getResult().toString());
+        assertEquals(
+                "{\"a\":{\"b\":\"2\",\"l\":[1,2,\"3\",4,4]},\"c\":[\"x\",\"y\"],"
+                        + "\"#omit-xml-declaration\":\"yes\"}",
+                merger.toJson(Json.JsonStringBuilder.Step.COMPACT));
+        assertEquals(
+                "", new U.XmlOrJsonMerger().add("text").toXml(Xml.XmlStringBuilder.Step.COMPACT));
+        List<String> fragments = new ArrayList<>();
+        for (int index = 0; index < 50; index++) {
+            fragments.add(
+                    "{\"config\":{\"k" + index + "\":" + index + ",\"all\":[" + index % 7 + "]}}");
+        }
+        assertEquals(
+                U.mergeXmlsOrJsonsToJson(fragments),
+                U.mergeXmlsOrJsonsToJson(fragments, Json.JsonStringBuilder.Step.TWO_SPACES, 4));
+        assertEquals(
+                U.mergeXmlsOrJsonsToXml(fragments),
+                U.mergeXmlsOrJsonsToXml(fragments, Xml.XmlStringBuilder.Step.TWO_SPACES, 4));
+        List<String> invalid = List.of("{\"a\":1}", "{\"a\":}");
+        assertThrows(
+                Json.ParseException.class,
+                () -> U.mergeXmlsOrJsonsToJson(invalid, Json.JsonStringBuilder.Step.COMPACT, 2));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new U.XmlOrJsonMerger().addAll(invalid, 0));
+    }
+
     @Test
     void removeMapKey() {
         Map<String, Object> map = new LinkedHashMap<>();
@@ -1285,6 +1613,31 @@ class LodashTest {
         U.rename(map2, "test", "test1");
     }
 
+    @Test
+    void renameSharesUnchangedSubtrees() {
+        Map<String, Object> map =
+                U.fromJsonMap(
+                        "{\"a\":{\"b\":1,\"c\":[{\"d\":\"-1\"},\"e\"]},"
+                                + "\"f\":{\"old\":2},\"g\":[1,2]}");
+        Map<String, Object> renamed = U.rename(map, "old", "new");
+        assertEquals("{a={b=1, c=[{d=-1}, e]}, f={new=2}, g=[1, 2]}", renamed.toString());
+        assertEquals("{a={b=1, c=[{d=-1}, e]}, f={old=2}, g=[1, 2]}", map.toString());
+        assertSame(map.get("a"), renamed.get("a"));
+        assertSame(map.get("g"), renamed.get("g"));
+        assertSame(map, U.rename(map, "missing", "new"));
+        assertSame(map, U.setValue(map, "missing", 1));
+        assertSame(map, U.replaceNilWithNull(map));
+        Map<String, Object> converted = U.removeMinusesAndConvertNumbers(map);
+        assertEquals(Long.class, U.<Object>get(converted, "a.c.0.d").getClass());
+        assertSame(map.get("f"), converted.get("f"));
+        Map<String, Object> replaced = U.replaceNumberAndBooleanWithString(map);
+        assertEquals("{a={b=1, c=[{d=-1}, e]}, f={old=2}, g=[1, 2]}", replaced.toString());
+        assertSame(
+                U.<List<Object>>get(map, "a.c").get(1),
+                U.<List<Object>>get(replaced, "a.c").get(1));
+        assertEquals(String.class, U.<Object>get(replaced, "g.0").getClass());
+    }
+
     @Test
     void renameRoot() {
         assertEquals(
@@ -1419,6 +1772,45 @@ class LodashTest {
                         U.JsonToXmlMode.REMOVE_ATTRIBUTES));
     }
 
+    @Test
+    void jsonToXmlWithNodeRewrite() {
+        String json =
+                "{\"a\":{\"b\":\"1\",\"-b\":\"2\",\"c\":[{\"d\":null,\"e\":\"\"},[{\"f\":1}]],"
+                        + "\"g\":true}}";
+        Map<String, Object> map = U.fromJsonMap(json);
+        assertEquals(
+                Xml.toXml(U.forceAttributeUsage(map), Xml.XmlStringBuilder.Step.TWO_SPACES, "root"),
+                U.jsonToXml(json, U.JsonToXmlMode.FORCE_ATTRIBUTE_USAGE, "root"));
+        assertEquals(
+                Xml.toXml(U.replaceNullWithEmptyValue(map)),
+                U.jsonToXml(json, U.JsonToXmlMode.REPLACE_NULL_WITH_EMPTY_VALUE));
+        assertEquals(
+                Xml.toXml(U.replaceEmptyStringWithEmptyValue(map)),
+                U.jsonToXml(json, U.JsonToXmlMode.REPLACE_EMPTY_STRING_WITH_EMPTY_VALUE));
+        assertEquals(
+                Xml.toXml(
+                        U.replaceNumberAndBooleanWithString(map),
+                        Xml.XmlStringBuilder.Step.TWO_SPACES,
+                        "root",
+                        Xml.ArrayTrue.SKIP),
+                U.jsonToXml(json, U.JsonToXmlMode.REMOVE_ATTRIBUTES));
+        Xml.XmlStringBuilder builder =
+                new Xml.XmlStringBuilderWithoutHeader(Xml.XmlStringBuilder.Step.COMPACT, 0);
+        Xml.XmlObject.writeXml(
+                (Map) map.get("a"),
+                "a",
+                builder,
+                false,
+                new LinkedHashSet<>(),
+                false,
+                "",
+                U.JsonToXmlRewrite.REPLACE_NUMBER_AND_BOOLEAN_WITH_STRING);
+        assertEquals(
+                "<a b=\"2\"><b>1</b><c><d>null</d><e string=\"true\"/></c>"
+                        + "<c><c><f number=\"true\">1</f></c></c><g>true</g></a>",
+                builder.toString());
+    }
+
     @Test
     void updateMapKey() {
         Map<String, Object> map = new LinkedHashMap<>();
@@ -1571,6 +1963,55 @@ class LodashTest {
         assertEquals("<a number=\"true\">2.01</a>", U.formatXml("<a number=\"true\">2.01</a>"));
     }
 
+    @Test
+    void formatXmlWithWriter() throws IOException {
+        final String xml =
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?><!--c--><a x=\"1\"><b>t</b><c/>"
+                        + "<![CDATA[d]]><?pi data?><e></e></a>";
+        StringWriter writer = new StringWriter();
+        U.formatXml(new StringReader(xml), writer, Xml.XmlStringBuilder.Step.TWO_SPACES);
+        assertEquals(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!--c-->\n<a x=\"1\">\n  <b>t</b>\n"
+                        + "  <c/>\n<![CDATA[d]]>\n<?pi data?>\n  <e></e>\n</a>",
+                writer.toString());
+        assertEquals(U.formatXml(xml), writer.toString());
+        StringWriter tabsWriter = new StringWriter();
+        U.formatXml(
+                new StringReader("<a>\n  <b></b>\n  <b></b>\n</a>"),
+                tabsWriter,
+                Xml.XmlStringBuilder.Step.TABS);
+        assertEquals("<a>\n\t<b></b>\n\t<b></b>\n</a>", tabsWriter.toString());
+        assertEquals(
+                "<item>\n  <b>x</b>hello  <c>y</c>\n  <b/>\n</item>",
+                U.formatXml("<item><b>x</b>hello<c>y</c><b/></item>"));
+        final String namespaces =
+                "<a x=\"1\" xmlns:p=\"u\" xmlns=\"d\"><p:b y=\"2\" xmlns:q=\"v\"/></a>";
+        assertEquals(
+                "<a x=\"1\" xmlns:p=\"u\" xmlns=\"d\">\n  <p:b y=\"2\" xmlns:q=\"v\"/>\n</a>",
+                U.formatXml(namespaces));
+        assertEquals(
+                "<a x=\"1\" xmlns:p=\"u\" xmlns=\"d\">\n\t<p:b y=\"2\" xmlns:q=\"v\"/>\n</a>",
+                U.formatXml(namespaces, Xml.XmlStringBuilder.Step.TABS));
+        assertEquals(
+                "<a x=\"1\" xmlns:p=\"u\" xmlns=\"d\"><p:b y=\"2\" xmlns:q=\"v\"/></a>",
+                U.formatXml(namespaces, Xml.XmlStringBuilder.Step.COMPACT));
+        assertEquals(
+                "<a xmlns:p=\"u\" x=\"1\"><b/></a>",
+                U.formatXml(
+                        "<a xmlns:p=\"u\" x=\"1\"><b/></a>", Xml.XmlStringBuilder.Step.COMPACT));
+        StringWriter controlWriter = new StringWriter();
+        U.formatXml(
+                new StringReader("<a b=\"x&#10;y&#13;z&#9;w\">1&#13;2</a>"),
+                controlWriter,
+                Xml.XmlStringBuilder.Step.TWO_SPACES);
+        assertEquals("<a b=\"x&#xA;y&#xD;z&#x9;w\">1&#xD;2</a>", controlWriter.toString());
+        StringReader reader = new StringReader("<a/>1");
+        StringWriter errorWriter = new StringWriter();
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> U.formatXml(reader, errorWriter, Xml.XmlStringBuilder.Step.TWO_SPACES));
+    }
+
     @Test
     void forceAttributeUsage() {
         assertEquals(
@@ -1766,6 +2207,25 @@ class LodashTest {
                 U.formatJson("{\n  \"a\": {\n  }\n}", Json.JsonStringBuilder.Step.TABS));
     }
 
+    @Test
+    void formatJsonWithWriter() throws IOException {
+        StringWriter writer = new StringWriter();
+        U.formatJson(
+                new StringReader("{\"a\":[1.00,{\"b\":null}],\"c\":\"d\"}"),
+                writer,
+                Json.JsonStringBuilder.Step.TWO_SPACES);
+        assertEquals(
+                U.formatJson("{\"a\":[1.00,{\"b\":null}],\"c\":\"d\"}"), writer.toString());
+        assertEquals(
+                "{\"a\":2}",
+                U.formatJson("{\"a\":1,\"a\":2}", Json.JsonStringBuilder.Step.COMPACT));
+        StringReader reader = new StringReader("{\"a\":1}1");
+        StringWriter errorWriter = new StringWriter();
+        assertThrows(
+                Json.ParseException.class,
+                () -> U.formatJson(reader, errorWriter, Json.JsonStringBuilder.Step.TWO_SPACES));
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     void removeMinusesAndConvertNumbers() {
@@ -1963,6 +2423,89 @@ class LodashTest {
                 value.toString());
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    void persistentSnapshots() {
+        U.Builder builder =
+                U.Builder.fromJson("{\"a\":{\"b\":{\"c\":1},\"d\":[1,2]},\"e\":{\"f\":2}}");
+        Map<String, Object> first = builder.snapshot();
+        builder.set("a.b.c", 3).remove("a.d.0").add("g", 4);
+        Map<String, Object> second = builder.snapshot();
+        assertEquals("{a={b={c=1}, d=[1, 2]}, e={f=2}}", first.toString());
+        assertEquals("{a={b={c=3}, d=[2]}, e={f=2}, g=4}", second.toString());
+        assertSame(first.get("e"), second.get("e"));
+        assertSame(builder.snapshot(), second);
+        assertSame(second, U.Builder.fromMap(second).snapshot());
+        assertThrows(UnsupportedOperationException.class, () -> second.put("h", 5));
+        assertThrows(
+                UnsupportedOperationException.class,
+                () -> ((List<Object>) U.<Map<String, Object>>get(second, "a").get("d")).add(3));
+        Map<String, Object> built = builder.build();
+        built.put("h", 5);
+        U.set(built, "a.b.c", 6);
+        ((List<Object>) U.<Map<String, Object>>get(built, "a").get("d")).add(3);
+        assertEquals("{a={b={c=6}, d=[2, 3]}, e={f=2}, g=4, h=5}", built.toString());
+        assertEquals(second, builder.build());
+        Map<String, Object> nested = builder.get("a");
+        nested.put("i", 7);
+        ((List<Object>) nested.get("d")).add(0, 1);
+        U.<Map<String, Object>>get(nested, "b").remove("c");
+        assertEquals("{a={b={}, d=[1, 2], i=7}, e={f=2}, g=4}", builder.toString());
+        assertEquals("{a={b={c=3}, d=[2]}, e={f=2}, g=4}", second.toString());
+        builder.set("a.b", "x");
+        assertEquals("x", builder.get("a.b"));
+        nested.remove("i");
+        assertEquals("{a={b=x, d=[1, 2]}, e={f=2}, g=4}", builder.toString());
+        Map<String, Object> source = new LinkedHashMap<>();
+        source.put("x", new ArrayList<>(asList(1, 2)));
+        U.ArrayBuilder arrayBuilder = U.arrayBuilder().add(source);
+        assertSame(source, arrayBuilder.get("0"));
+        assertSame(source, arrayBuilder.build().get(0));
+        List<Object> list = arrayBuilder.snapshot();
+        ((List<Object>) source.get("x")).add(3);
+        arrayBuilder.set(0, "y").add(U.objectBuilder().add("z", 1));
+        assertEquals("[{x=[1, 2, 3]}]", list.toString());
+        assertEquals("[y, {z=1}]", arrayBuilder.snapshot().toString());
+        List<Object> builtList = arrayBuilder.build();
+        builtList.add(2);
+        assertEquals("[y, {z=1}, 2]", builtList.toString());
+        assertEquals("[y, {z=1}]", arrayBuilder.build().toString());
+        ((Map<String, Object>) builtList.get(1)).put("w", 2);
+        arrayBuilder.<Map<String, Object>>get("1").put("v", 3);
+        assertEquals("[y, {z=1, v=3}]", arrayBuilder.snapshot().toString());
+        assertEquals("[y, {z=1, w=2}, 2]", builtList.toString());
+        assertThrows(IndexOutOfBoundsException.class, () -> U.arrayBuilder().set(0, "y"));
+        List<Object> values = new ArrayList<>(asList(1, 2));
+        java.util.TreeMap<String, Object> sorted = new java.util.TreeMap<>();
+        U.Builder valueBuilder = U.objectBuilder().add("l", values).add("t", sorted);
+        valueBuilder.<List<Object>>get("l").add(3);
+        assertSame(values, valueBuilder.get("l"));
+        assertSame(sorted, valueBuilder.build().get("t"));
+        assertEquals("{l=[1, 2, 3], t={}}", valueBuilder.build().toString());
+        U.PersistentMap<String, Integer> map = U.PersistentMap.empty();
+        U.PersistentList<Integer> items = U.PersistentList.empty();
+        for (int index = 0; index < 2000; index += 1) {
+            map = map.plus("k" + index, index);
+            items = items.plus(index);
+        }
+        U.PersistentMap<String, Integer> removed = map;
+        for (int index = 0; index < 1990; index += 1) {
+            removed = removed.minus("k" + index);
+        }
+        assertEquals(2000, map.size());
+        assertEquals(Integer.valueOf(1500), map.get("k1500"));
+        assertEquals(
+                "{k1990=1990, k1991=1991, k1992=1992, k1993=1993, k1994=1994, k1995=1995,"
+                        + " k1996=1996, k1997=1997, k1998=1998, k1999=1999}",
+                removed.toString());
+        assertSame(map, map.minus("missing"));
+        assertEquals(Integer.valueOf(-1), items.with(1500, -1).get(1500));
+        assertEquals(Integer.valueOf(1500), items.get(1500));
+        assertEquals(Integer.valueOf(1501), items.minus(1500).get(1500));
+        assertEquals(IntStream.range(0, 2000).boxed().collect(Collectors.toList()), items);
+        assertEquals(items, U.PersistentList.of(new ArrayList<>(items)));
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     void testMain() {
@@ -48,6 +48,7 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Underscore library unit test.
@@ -1040,6 +1041,44 @@ class StringTest {
         assertThrows(Json.ParseException.class, () -> U.fromJson("[\"abc\"][]"));
     }
 
+    @Test
+    void testJsonReader() throws IOException {
+        String json =
+                "{\"a\": [1, 2.50, -3e5, 12345678901234567890123, \"x\\u00e9\\uZZZZ\"],"
+                        + " \"b\": {\"c\": null, \"d\": true}, \"e\": []}";
+        Json.JsonReader reader = new Json.JsonReader(new java.io.StringReader(json));
+        assertEquals(U.fromJson(json), reader.readValue());
+        assertEquals(Json.JsonReader.Token.END_DOCUMENT, reader.next());
+        reader = new Json.JsonReader(new java.io.StringReader(json));
+        assertEquals(Json.JsonReader.Token.BEGIN_OBJECT, reader.next());
+        assertEquals(Json.JsonReader.Token.NAME, reader.next());
+        assertEquals("a", reader.getName());
+        reader.skipValue();
+        assertEquals(Json.JsonReader.Token.NAME, reader.peek());
+        assertEquals("b", reader.getName());
+        reader.skipValue();
+        assertEquals(Json.JsonReader.Token.NAME, reader.next());
+        assertEquals(Json.JsonReader.Token.BEGIN_ARRAY, reader.next());
+        assertEquals(Json.JsonReader.Token.END_ARRAY, reader.next());
+        assertEquals(Json.JsonReader.Token.END_OBJECT, reader.next());
+        assertEquals(Json.JsonReader.Token.END_DOCUMENT, reader.next());
+        for (String invalid : asList("[1,]", "{\"a\" 1}", "[\"abc\"][]", "[123.a]", "")) {
+            Json.ParseException expected =
+                    assertThrows(Json.ParseException.class, () -> U.fromJson(invalid));
+            Json.ParseException actual =
+                    assertThrows(
+                            Json.ParseException.class,
+                            () -> {
+                                Json.JsonReader jsonReader =
+                                        new Json.JsonReader(new java.io.StringReader(invalid));
+                                jsonReader.readValue();
+                                jsonReader.next();
+                            });
+            assertEquals(expected.getMessage(), actual.getMessage());
+            assertEquals(expected.getOffset(), actual.getOffset());
+        }
+    }
+
     @Test
     void testXmlArray() {
         XmlStringBuilder builder = new XmlStringBuilder();
@@ -1583,6 +1622,22 @@ class StringTest {
                 U.toXml(testMap4));
     }
 
+    @Test
+    void testEscapeName() {
+        Set<String> namespaces = new HashSet<>();
+        namespaces.add("p");
+        assertEquals("name", Xml.XmlValue.escapeName("name", namespaces));
+        assertEquals("__GE__a", Xml.XmlValue.escapeName("1a", namespaces));
+        assertEquals("__GE__a", Xml.XmlValue.escapeName("1a", namespaces));
+        assertEquals("?x", Xml.XmlValue.escapeName("?x", namespaces));
+        assertEquals("a__EA__b-._", Xml.XmlValue.escapeName("a b-._", namespaces));
+        assertEquals("p:a", Xml.XmlValue.escapeName("p:a", namespaces));
+        assertEquals("q__HI__a", Xml.XmlValue.escapeName("q:a", namespaces));
+        assertEquals("xmlns:q", Xml.XmlValue.escapeName("xmlns:q", namespaces));
+        assertEquals("__HI__a", Xml.XmlValue.escapeName(":a", namespaces));
+        assertEquals("caf\u00e9", Xml.XmlValue.escapeName("caf\u00e9", namespaces));
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     void toXmlAndFromXmlFromMap() {
@@ -2582,6 +2637,29 @@ class StringTest {
         assertEquals(xml, U.toXml((List<Object>) U.fromJson(json)));
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    void toJsonFromXml30() {
+        final String xml = "<r><b>1</b>x<c/><b>2</b>y<b>3</b><d/></r>";
+        assertEquals(
+                "{\"r\":{\"b\":[\"1\",{\"#item\":{\"#text\":\"x\"}},"
+                        + "{\"#item\":{\"c\":{\"-self-closing\":\"true\"}}},\"2\","
+                        + "{\"#item\":{\"#text\":\"y\"}},\"3\"],"
+                        + "\"d\":{\"-self-closing\":\"true\"}},\"#omit-xml-declaration\":\"yes\"}",
+                Json.toJson(
+                        (Map<String, Object>) U.fromXml(xml), Json.JsonStringBuilder.Step.COMPACT));
+        final StringBuilder bigXml = new StringBuilder("<r>");
+        for (int index = 0; index < 20_000; index += 1) {
+            bigXml.append("<item>").append(index).append("</item>text").append(index);
+        }
+        bigXml.append("</r>");
+        final List<Object> items =
+                U.get((Map<String, Object>) U.fromXml(bigXml.toString()), "r.item");
+        assertEquals(39_999, items.size());
+        assertEquals("19999", items.get(39_998));
+        assertEquals("{#item={#text=text19998}}", items.get(39_997).toString());
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     void toXmlFromJson() {
@@ -3251,6 +3329,42 @@ class StringTest {
                 U.toXml((Map<String, Object>) U.fromJson(string)));
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    void fromXmlWithSeveralTypeMarkers() {
+        assertEquals(
+                "{\n  \"r\": {\n    \"a\": [\n      {\n        \"-id\": \"1\",\n"
+                        + "        \"#text\": 1\n      }\n    ]\n  },\n"
+                        + "  \"#omit-xml-declaration\": \"yes\"\n}",
+                U.toJson(
+                        (Map<String, Object>)
+                                U.fromXml(
+                                        "<r><a number=\"true\" array=\"true\" id=\"1\">1</a>"
+                                                + "</r>")));
+        assertEquals(
+                "{\n  \"r\": {\n    \"a\": {\n      \"-b\": \"c\",\n"
+                        + "      \"-self-closing\": \"true\",\n      \"#text\": \"\"\n    }\n  },\n"
+                        + "  \"#omit-xml-declaration\": \"yes\"\n}",
+                U.toJson(
+                        (Map<String, Object>)
+                                U.fromXml("<r><a string=\"true\" null=\"true\" b=\"c\"/></r>")));
+        assertEquals(
+                "{\n  \"r\": {\n    \"a\": [\n      true\n    ]\n  },\n"
+                        + "  \"#omit-xml-declaration\": \"yes\"\n}",
+                U.toJson(
+                        (Map<String, Object>)
+                                U.fromXml(
+                                        "<r><a boolean=\"true\" self-closing=\"true\""
+                                                + " array=\"true\">true</a></r>")));
+        assertEquals(
+                "{\n  \"r\": {\n    \"a\": {\n      \"-null\": \"true\",\n"
+                        + "      \"-self-closing\": \"true\"\n    }\n  },\n"
+                        + "  \"#omit-xml-declaration\": \"yes\"\n}",
+                U.toJson(
+                        (Map<String, Object>)
+                                U.fromXml("<r><a empty-array=\"true\" null=\"true\"/></r>")));
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     void fromXmlMakeArrays() {
@@ -45,6 +45,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -923,6 +925,34 @@ class UnderscoreTest {
                 input, U.removeBom(input), "Should not remove BOM if third byte is not -65");
     }
 
+    @Test
+    void openText(@TempDir Path tempDir) throws IOException {
+        byte[][] inputs = {
+            {-17, -69, -65, '<', 'a', '/', '>'},
+            {-2, -1, 0, '<', 0, 'a', 0, '/', 0, '>'},
+            {-1, -2, '<', 0, 'a', 0, '/', 0, '>', 0},
+            {0, '<', 0, '?', 0, 'x'},
+            {'<', 0, '?', 0, 'x', 0},
+            {'{', '}'},
+            {-17, -69},
+            {}
+        };
+        for (byte[] input : inputs) {
+            String expected = new String(U.removeBom(input), U.detectEncoding(input));
+            StringWriter writer = new StringWriter();
+            try (Reader reader = U.openText(new ByteArrayInputStream(input))) {
+                reader.transferTo(writer);
+            }
+            assertEquals(expected, writer.toString());
+            Path path = Files.write(tempDir.resolve("text.xml"), input);
+            writer = new StringWriter();
+            try (Reader reader = U.openText(path)) {
+                reader.transferTo(writer);
+            }
+            assertEquals(expected, writer.toString());
+        }
+    }
+
     @Test
     void testLengthLessThan4() {
         byte[] buf0 = {};
@@ -1155,6 +1185,90 @@ class UnderscoreTest {
         assertTrue(jsonOutput.contains("    "), "JSON output should be indented with four spaces.");
     }
 
+    @Test
+    void testStreamingXmlToJson() throws IOException {
+        StringBuilder items = new StringBuilder("<catalog id=\"c1\">");
+        for (int index = 0; index < 50; index++) {
+            items.append("<item n=\"").append(index).append("\"><v>").append(index);
+            items.append("</v><e/></item>");
+            if (index % 10 == 9) {
+                items.append("<page>").append(index / 10).append("</page>");
+            }
+        }
+        items.append("<total>50</total></catalog>");
+        List<String> xmls =
+                asList(
+                        "<root><name>Test</name></root>",
+                        "<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><a>1</a><a>2</a></root>",
+                        "<?xml version=\"1.0\" encoding=\"windows-1251\" standalone=\"no\"?>"
+                                + "<c id=\"c&amp;1\"><!-- c --><i n=\"1\"/><i n=\"2\"><x/></i>"
+                                + "<note>t</note><i>3</i><e></e><s> </s></c><!-- after -->",
+                        "<r><b>1</b>x<b>2</b>y<![CDATA[z]]><?pi data?></r>",
+                        "<r xmlns:n=\"urn:n\"><n:a n:b=\"1\">v</n:a><n:a/><a>1</a></r>",
+                        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                                + "<root><element>1</element><element>2</element></root>",
+                        "<r><n number=\"true\">12</n><b boolean=\"true\">true</b>"
+                                + "<l array=\"true\">x</l><z null=\"true\"/></r>",
+                        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                                + "<root><element>1</element><element><a>2</a></element>"
+                                + "<element>3</element><element>4</element></root>",
+                        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + items,
+                        items.toString());
+        List<U.XmlToJsonMode> modes = new java.util.ArrayList<>(asList(U.XmlToJsonMode.values()));
+        modes.add(null);
+        for (String xml : xmls) {
+            for (U.XmlToJsonMode mode : modes) {
+                String expected =
+                        U.xmlToJson(xml, Json.JsonStringBuilder.Step.TWO_SPACES, mode)
+                                .replace("\n", System.lineSeparator());
+                ByteArrayOutputStream jsonStream = new ByteArrayOutputStream();
+                U.streamingXmlToJson(
+                        new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                        jsonStream,
+                        Json.JsonStringBuilder.Step.TWO_SPACES,
+                        mode);
+                assertEquals(expected, jsonStream.toString(StandardCharsets.UTF_8), xml);
+                assertEquals(
+                        expected.replace(System.lineSeparator(), "\n"),
+                        streamingXmlToJson(xml, Json.JsonStringBuilder.Step.TWO_SPACES, mode, 4),
+                        mode + " " + xml);
+            }
+        }
+        assertEquals(
+                U.xmlToJson(items.toString(), Json.JsonStringBuilder.Step.COMPACT),
+                streamingXmlToJson(
+                        items.toString(), Json.JsonStringBuilder.Step.COMPACT, null, 4));
+    }
+
+    @Test
+    void testStreamingXmlToJson_repeatAfterWrittenSibling_throwsException() {
+        String xml = "<r><a><b>1</b><c>2</c></a><d>3</d><a>4</a></r>";
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> streamingXmlToJson(xml, Json.JsonStringBuilder.Step.TWO_SPACES, null, 1));
+        assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                        U.streamingXmlToJson(
+                                new ByteArrayInputStream("<root><name>".getBytes()),
+                                new ByteArrayOutputStream()));
+    }
+
+    private static String streamingXmlToJson(
+            String xml,
+            Json.JsonStringBuilder.Step identStep,
+            U.XmlToJsonMode mode,
+            int bufferNodes)
+            throws IOException {
+        java.io.StringWriter writer = new java.io.StringWriter();
+        Xml.toJson(
+                new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                new Json.JsonWriter(writer, identStep),
+                mode,
+                bufferNodes);
+        return writer.toString();
+    }
+
     @Test
     void testMapWithEncodingKey(@TempDir Path tempDir) throws IOException {
         // Arrange
@@ -1244,6 +1358,267 @@ class UnderscoreTest {
                 "Should write JSON using UTF-8");
     }
 
+    @Test
+    void testParallelXmlFolderToJson(@TempDir Path tempDir) throws IOException {
+        // Arrange
+        Path xmlFolder = tempDir.resolve("xml");
+        Path jsonFolder = tempDir.resolve("json");
+        for (int index = 0; index < 20; index++) {
+            Path xmlFile = xmlFolder.resolve("d" + index % 3).resolve("in" + index + ".xml");
+            Files.createDirectories(xmlFile.getParent());
+            Files.write(xmlFile, ("<a>" + index + "</a>").getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(xmlFolder.resolve("broken.xml"), "<a>".getBytes(StandardCharsets.UTF_8));
+        Files.write(xmlFolder.resolve("skip.txt"), "<a>".getBytes(StandardCharsets.UTF_8));
+        // Act
+        U.FolderConversionResult result =
+                U.parallelXmlFolderToJson(
+                        xmlFolder.toString(),
+                        jsonFolder.toString(),
+                        Json.JsonStringBuilder.Step.TWO_SPACES,
+                        3);
+        // Assert
+        assertEquals(20, result.getFiles());
+        assertEquals(170, result.getSourceBytes());
+        long targetBytes = 0;
+        for (int index = 0; index < 20; index++) {
+            targetBytes +=
+                    Files.size(jsonFolder.resolve("d" + index % 3).resolve("in" + index + ".json"));
+        }
+        assertEquals(targetBytes, result.getTargetBytes());
+        assertEquals(1, result.getErrors().size());
+        assertTrue(result.getErrors().containsKey(xmlFolder.resolve("broken.xml")));
+        assertFalse(Files.exists(jsonFolder.resolve("skip.json")));
+        assertTrue(result.getElapsed().toNanos() > 0);
+        assertTrue(result.getConversionTime().toNanos() > 0);
+        assertEquals(
+                U.fromXmlMap("<a>7</a>"),
+                U.fromJsonMap(
+                        new String(
+                                Files.readAllBytes(jsonFolder.resolve("d1").resolve("in7.json")),
+                                StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testParallelJsonFolderToXml(@TempDir Path tempDir) throws IOException {
+        // Arrange
+        Path jsonFolder = tempDir.resolve("json");
+        Path xmlFolder = tempDir.resolve("xml");
+        Files.createDirectories(jsonFolder.resolve("sub"));
+        Files.write(jsonFolder.resolve("a.json"), "{\"a\": 1}".getBytes(StandardCharsets.UTF_8));
+        Files.write(
+                jsonFolder.resolve("sub").resolve("b.json"),
+                "[1, 2]".getBytes(StandardCharsets.UTF_8));
+        Files.write(jsonFolder.resolve("c.json"), "{".getBytes(StandardCharsets.UTF_8));
+        java.util.concurrent.ExecutorService executor =
+                java.util.concurrent.Executors.newFixedThreadPool(2);
+        // Act
+        U.FolderConversionResult result;
+        try {
+            result =
+                    U.parallelJsonFolderToXml(
+                            jsonFolder.toString(),
+                            xmlFolder.toString(),
+                            Xml.XmlStringBuilder.Step.TWO_SPACES,
+                            executor,
+                            1);
+        } finally {
+            executor.shutdown();
+        }
+        // Assert
+        assertEquals(2, result.getFiles());
+        assertEquals(1, result.getErrors().size());
+        assertTrue(
+                result.getErrors().get(jsonFolder.resolve("c.json"))
+                        instanceof Json.ParseException);
+        assertEquals(
+                Files.size(xmlFolder.resolve("a.xml"))
+                        + Files.size(xmlFolder.resolve("sub").resolve("b.xml")),
+                result.getTargetBytes());
+        assertEquals(
+                2,
+                U.parallelJsonFolderToXml(jsonFolder.toString(), xmlFolder.toString())
+                        .getFiles());
+        assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                        U.parallelJsonFolderToXml(
+                                jsonFolder.toString(),
+                                xmlFolder.toString(),
+                                Xml.XmlStringBuilder.Step.TWO_SPACES,
+                                Runnable::run,
+                                0));
+    }
+
+    @Test
+    void testIncrementalXmlFolderToJson(@TempDir Path tempDir) throws IOException {
+        // Arrange
+        Path xmlFolder = tempDir.resolve("xml");
+        Path jsonFolder = tempDir.resolve("json");
+        Files.createDirectories(xmlFolder.resolve("sub"));
+        Files.write(xmlFolder.resolve("a.xml"), "<a>1</a>".getBytes(StandardCharsets.UTF_8));
+        Files.write(
+                xmlFolder.resolve("sub").resolve("b.xml"),
+                "<b>1</b>".getBytes(StandardCharsets.UTF_8));
+        Files.write(xmlFolder.resolve("c.xml"), "<c>1</c>".getBytes(StandardCharsets.UTF_8));
+        // Act & Assert
+        U.FolderConversionResult result =
+                U.incrementalXmlFolderToJson(xmlFolder.toString(), jsonFolder.toString());
+        assertEquals(3, result.getFiles());
+        assertEquals(0, result.getSkipped());
+        result = U.incrementalXmlFolderToJson(xmlFolder.toString(), jsonFolder.toString());
+        assertEquals(0, result.getFiles());
+        assertEquals(3, result.getSkipped());
+        Files.write(xmlFolder.resolve("a.xml"), "<a>2</a>".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(
+                xmlFolder.resolve("a.xml"),
+                java.nio.file.attribute.FileTime.fromMillis(1_000_000L));
+        Files.setLastModifiedTime(
+                xmlFolder.resolve("c.xml"),
+                java.nio.file.attribute.FileTime.fromMillis(2_000_000L));
+        Files.delete(xmlFolder.resolve("sub").resolve("b.xml"));
+        result = U.incrementalXmlFolderToJson(xmlFolder.toString(), jsonFolder.toString());
+        assertEquals(1, result.getFiles());
+        assertEquals(1, result.getSkipped());
+        assertEquals(1, result.getDeleted());
+        assertFalse(Files.exists(jsonFolder.resolve("sub").resolve("b.json")));
+        assertEquals(
+                U.fromXmlMap("<a>2</a>"),
+                U.fromJsonMap(
+                        new String(
+                                Files.readAllBytes(jsonFolder.resolve("a.json")),
+                                StandardCharsets.UTF_8)));
+        Files.delete(jsonFolder.resolve("c.json"));
+        result = U.incrementalXmlFolderToJson(xmlFolder.toString(), jsonFolder.toString());
+        assertEquals(1, result.getFiles());
+        assertEquals(1, result.getSkipped());
+        result =
+                U.incrementalXmlFolderToJson(
+                        xmlFolder.toString(),
+                        jsonFolder.toString(),
+                        Json.JsonStringBuilder.Step.COMPACT);
+        assertEquals(2, result.getFiles());
+        assertEquals(
+                "{\"a\":\"2\",\"#omit-xml-declaration\":\"yes\"}",
+                new String(
+                        Files.readAllBytes(jsonFolder.resolve("a.json")), StandardCharsets.UTF_8));
+        Files.write(
+                jsonFolder.resolve(".underscore-manifest"), "{".getBytes(StandardCharsets.UTF_8));
+        result =
+                U.incrementalXmlFolderToJson(
+                        xmlFolder.toString(),
+                        jsonFolder.toString(),
+                        Json.JsonStringBuilder.Step.COMPACT);
+        assertEquals(2, result.getFiles());
+        Path xmlCopyFolder = tempDir.resolve("xml-copy");
+        assertEquals(
+                2,
+                U.incrementalJsonFolderToXml(jsonFolder.toString(), xmlCopyFolder.toString())
+                        .getFiles());
+        assertEquals(
+                2,
+                U.incrementalJsonFolderToXml(jsonFolder.toString(), xmlCopyFolder.toString())
+                        .getSkipped());
+    }
+
+    @Test
+    void testIncrementalFolderKeepsOutputOfFailedSources(@TempDir Path tempDir)
+            throws IOException {
+        // Arrange
+        Path xmlFolder = tempDir.resolve("xml");
+        Path jsonFolder = tempDir.resolve("json");
+        Path movedFolder = tempDir.resolve("moved");
+        Files.createDirectories(xmlFolder);
+        Files.write(xmlFolder.resolve("a.xml"), "<a>1</a>".getBytes(StandardCharsets.UTF_8));
+        Files.write(xmlFolder.resolve("b.xml"), "<b>1</b>".getBytes(StandardCharsets.UTF_8));
+        assertEquals(
+                2,
+                U.incrementalXmlFolderToJson(xmlFolder.toString(), jsonFolder.toString())
+                        .getFiles());
+        Files.write(xmlFolder.resolve("a.xml"), "<a>".getBytes(StandardCharsets.UTF_8));
+        // Act & Assert
+        U.FolderConversionResult result =
+                U.incrementalXmlFolderToJson(xmlFolder.toString(), jsonFolder.toString());
+        assertEquals(1, result.getErrors().size());
+        assertEquals(0, result.getDeleted());
+        assertTrue(Files.exists(jsonFolder.resolve("a.json")));
+        result = U.incrementalXmlFolderToJson(xmlFolder.toString(), jsonFolder.toString());
+        assertEquals(1, result.getErrors().size());
+        assertTrue(Files.exists(jsonFolder.resolve("a.json")));
+        Files.move(xmlFolder, movedFolder);
+        result = U.incrementalXmlFolderToJson(xmlFolder.toString(), jsonFolder.toString());
+        assertTrue(result.getErrors().containsKey(xmlFolder));
+        assertEquals(0, result.getDeleted());
+        assertTrue(Files.exists(jsonFolder.resolve("a.json")));
+        assertTrue(Files.exists(jsonFolder.resolve("b.json")));
+        Files.move(movedFolder, xmlFolder);
+        Files.delete(xmlFolder.resolve("a.xml"));
+        result = U.incrementalXmlFolderToJson(xmlFolder.toString(), jsonFolder.toString());
+        assertEquals(0, result.getFiles());
+        assertEquals(1, result.getSkipped());
+        assertEquals(1, result.getDeleted());
+        assertFalse(Files.exists(jsonFolder.resolve("a.json")));
+    }
+
+    @Test
+    void testWatchXmlFolderToJson(@TempDir Path tempDir)
+            throws IOException, InterruptedException {
+        // Arrange
+        Path xmlFolder = tempDir.resolve("xml");
+        Path jsonFolder = tempDir.resolve("json");
+        Files.createDirectories(xmlFolder);
+        // Act & Assert
+        U.FolderWatcher watcher =
+                U.watchXmlFolderToJson(
+                        xmlFolder.toString(),
+                        jsonFolder.toString(),
+                        Json.JsonStringBuilder.Step.COMPACT,
+                        50L,
+                        2);
+        try {
+            for (int index = 0; index < 5; index++) {
+                Files.write(
+                        xmlFolder.resolve("a.xml"),
+                        ("<a>" + index + "</a>").getBytes(StandardCharsets.UTF_8));
+            }
+            Files.createDirectories(xmlFolder.resolve("sub"));
+            Files.write(
+                    xmlFolder.resolve("sub").resolve("b.xml"),
+                    "<b>1</b>".getBytes(StandardCharsets.UTF_8));
+            Files.write(xmlFolder.resolve("c.txt"), "c".getBytes(StandardCharsets.UTF_8));
+            String expectedA = "{\"a\":\"4\",\"#omit-xml-declaration\":\"yes\"}";
+            String expectedB = "{\"b\":\"1\",\"#omit-xml-declaration\":\"yes\"}";
+            long deadline = System.nanoTime() + java.util.concurrent.TimeUnit.SECONDS.toNanos(30);
+            while ((!expectedA.equals(readIfExists(jsonFolder.resolve("a.json")))
+                            || !expectedB.equals(
+                                    readIfExists(jsonFolder.resolve("sub").resolve("b.json"))))
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(20L);
+            }
+            assertEquals(expectedA, readIfExists(jsonFolder.resolve("a.json")));
+            assertEquals(expectedB, readIfExists(jsonFolder.resolve("sub").resolve("b.json")));
+            assertFalse(Files.exists(jsonFolder.resolve("c.json")));
+            assertTrue(watcher.getResult().getErrors().isEmpty());
+        } finally {
+            watcher.close();
+        }
+        assertTrue(watcher.isClosed());
+        watcher.close();
+        assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                        U.watchJsonFolderToXml(
+                                tempDir.toString(), xmlFolder.toString(), null, 0L, 0));
+        U.watchJsonFolderToXml(jsonFolder.toString(), tempDir.resolve("xml-copy").toString())
+                .close();
+    }
+
+    private static String readIfExists(Path path) throws IOException {
+        return Files.exists(path)
+                ? new String(Files.readAllBytes(path), StandardCharsets.UTF_8)
+                : null;
+    }
+
     @Test
     void testListResult(@TempDir Path tempDir) throws IOException {
         // Arrange
@@ -1353,4 +1728,129 @@ class UnderscoreTest {
                 actualMessage.contains("Expected value"),
                 "Should throw exception if JSON is invalid");
     }
+
+    @Test
+    void testStreamingJsonToXml(@TempDir Path tempDir) throws IOException {
+        StringBuilder items = new StringBuilder("{\"catalog\": {\"-id\": \"c1\", \"item\": [");
+        for (int index = 0; index < 50; index++) {
+            items.append(index == 0 ? "" : ",").append("{\"-n\": \"").append(index);
+            items.append("\", \"v\": ").append(index);
+            items.append(", \"e\": {\"-self-closing\": \"true\"}}");
+        }
+        items.append("], \"total\": 50}");
+        List<String> jsons =
+                asList(
+                        "{\"root\": \"value\"}",
+                        "{\"a\": 1, \"b\": [1, 2]}",
+                        "[{\"item\": 42}, null, [1, 2], {\"#item\": {\"#text\": \"t\"}}]",
+                        "{\"root\": [1, {\"a\": 2}, 3], \"#omit-xml-declaration\": \"yes\"}",
+                        "{\"c\": {\"-id\": \"c&1\", \"#comment\": \" c \", \"i\": [{\"-n\": \"1\","
+                                + " \"-self-closing\": \"true\"}, {\"-n\": \"2\", \"x\": {}}],"
+                                + " \"note\": \"t\\u0436\", \"l\": [\"x\"], \"z\": null},"
+                                + " \"#encoding\": \"windows-1251\", \"#standalone\": \"no\"}",
+                        "{\"r\": {\"b\": [1, 2], \"#text\": \"x\","
+                                + " \"d\": {\"-array\": \"true\", \"#text\": \"y\"},"
+                                + " \"#cdata-section\": \"z\", \"?pi\": \"data\"}}",
+                        "{\"!DOCTYPE\": \"r\","
+                                + " \"r\": {\"-xmlns:n\": \"urn:n\", \"n:a\": [1.5, true]}}",
+                        items + "}",
+                        items + ", \"#omit-xml-declaration\": \"yes\"}");
+        Path jsonFile = tempDir.resolve("in.json");
+        for (String json : jsons) {
+            Files.write(jsonFile, json.getBytes(StandardCharsets.UTF_8));
+            for (Xml.XmlStringBuilder.Step step :
+                    asList(
+                            Xml.XmlStringBuilder.Step.TWO_SPACES,
+                            Xml.XmlStringBuilder.Step.COMPACT)) {
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                U.streamJsonToXml(
+                        new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                        expected,
+                        step);
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                U.streamingJsonToXml(
+                        new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                        actual,
+                        step);
+                assertArrayEquals(expected.toByteArray(), actual.toByteArray(), json);
+                actual = new ByteArrayOutputStream();
+                Xml.toXml(jsonFile, actual, step, 4);
+                assertArrayEquals(expected.toByteArray(), actual.toByteArray(), step + " " + json);
+                actual = new ByteArrayOutputStream();
+                Xml.toXml(
+                        new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                        actual,
+                        step,
+                        16);
+                assertArrayEquals(expected.toByteArray(), actual.toByteArray(), step + " " + json);
+            }
+        }
+        Path xmlFile = tempDir.resolve("out.xml");
+        U.streamingFileJsonToXml(jsonFile.toString(), xmlFile.toString());
+        U.fileJsonToXml(jsonFile.toString(), tempDir.resolve("expected.xml").toString());
+        assertArrayEquals(
+                Files.readAllBytes(tempDir.resolve("expected.xml")), Files.readAllBytes(xmlFile));
+    }
+
+    @Test
+    void testStreamingJsonToXml_attributeAfterWrittenChild_throwsException(@TempDir Path tempDir)
+            throws IOException {
+        Path jsonFile = tempDir.resolve("in.json");
+        Files.write(
+                jsonFile,
+                "{\"r\": {\"a\": [{\"b\": 1}, {\"b\": 2}], \"-late\": \"1\"}}"
+                        .getBytes(StandardCharsets.UTF_8));
+        assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                        Xml.toXml(
+                                jsonFile,
+                                new ByteArrayOutputStream(),
+                                Xml.XmlStringBuilder.Step.TWO_SPACES,
+                                1));
+        assertThrows(
+                Json.ParseException.class,
+                () ->
+                        U.streamingJsonToXml(
+                                new ByteArrayInputStream("{\"a\": [1,".getBytes()),
+                                new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void testIterateXmlRecords() {
+        String[] items = {
+            "<item id=\"1\"><name>A</name><tag>x</tag><tag>y</tag></item>",
+            "<item/>",
+            "<item>text</item>",
+            "<item a=\"b\"><!-- c --><sub><item>deep</item></sub><![CDATA[z]]></item>",
+            "<item><n>1</n><b>true</b></item>"
+        };
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?>\n<catalog><meta>m</meta>");
+        for (String item : items) {
+            xml.append("\n  ").append(item);
+        }
+        xml.append("<other><item>no</item></other></catalog>");
+        byte[] bytes = xml.toString().getBytes(StandardCharsets.UTF_8);
+        Iterator<Map<String, Object>> iterator =
+                Xml.iterate(new ByteArrayInputStream(bytes), "/catalog/item");
+        for (String item : items) {
+            assertTrue(iterator.hasNext());
+            assertEquals(U.fromXmlMap(item), iterator.next());
+        }
+        assertFalse(iterator.hasNext());
+        assertThrows(NoSuchElementException.class, iterator::next);
+        assertEquals(
+                "[{item=no, #omit-xml-declaration=yes}]",
+                Xml.stream(new ByteArrayInputStream(bytes), "catalog/other/item")
+                        .collect(java.util.stream.Collectors.toList())
+                        .toString());
+        assertEquals(0L, Xml.stream(new ByteArrayInputStream(bytes), "catalog/missing").count());
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> Xml.iterate(new ByteArrayInputStream(bytes), "catalog//item"));
+        Iterator<Map<String, Object>> broken =
+                Xml.iterate(new ByteArrayInputStream("<a><b>1</b><b>".getBytes()), "a/b");
+        assertEquals(U.fromXmlMap("<b>1</b>"), broken.next());
+        assertThrows(IllegalArgumentException.class, broken::hasNext);
+    }
 }
@@ -29,6 +29,11 @@ import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import org.junit.jupiter.api.Test;
 import org.w3c.dom.Document;
 
@@ -197,6 +202,17 @@ class XmlBuilderTest {
                         + "  <e/>\n"
                         + "</root>",
                 xmlBuilder2.root().asString());
+        XmlBuilder xmlBuilder3 = XmlBuilder.create("root").e("a");
+        xmlBuilder3.root().set("root.a", new LinkedHashMap<>());
+        assertEquals(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><a><child/></a></root>",
+                xmlBuilder3.e("child").toXml(Xml.XmlStringBuilder.Step.COMPACT));
+        XmlBuilder xmlBuilder4 = XmlBuilder.create("b").e("c");
+        XmlBuilder xmlBuilder5 = XmlBuilder.create("a").importXmlBuilder(xmlBuilder4.root());
+        xmlBuilder5.set("b.c", new LinkedHashMap<>());
+        assertEquals(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?><b><c><d/></c></b>",
+                xmlBuilder4.e("d").toXml(Xml.XmlStringBuilder.Step.COMPACT));
     }
 
     @Test
@@ -277,4 +293,54 @@ class XmlBuilderTest {
                         + "</root>",
                 xmlBuilder.asString());
     }
+
+    @Test
+    void repeatedElementsAfterSet() {
+        XmlBuilder xmlBuilder = XmlBuilder.create("root");
+        xmlBuilder.e("a").t("1").up().e("a").c("c1").c("c2").up();
+        xmlBuilder.set("root.b", "2");
+        xmlBuilder.e("a").a("id", "3").up().e("c").t("4");
+        assertEquals(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                        + "<root>\n"
+                        + "  <a>1</a>\n"
+                        + "  <a>\n"
+                        + "    <!--c1-->\n"
+                        + "    <!--c2-->\n"
+                        + "  </a>\n"
+                        + "  <a id=\"3\"></a>\n"
+                        + "  <b>2</b>\n"
+                        + "  <c>4</c>\n"
+                        + "</root>",
+                xmlBuilder.asString());
+    }
+
+    @Test
+    void streaming() throws IOException {
+        StringWriter writer = new StringWriter();
+        XmlBuilder.Streaming streaming =
+                XmlBuilder.streaming("root", writer, Xml.XmlStringBuilder.Step.TWO_SPACES);
+        streaming.e("g1").a("id", "1").t("Styles like ").e("g2").t("bold").up().t("is supported");
+        streaming.up().e("g3").c("comment").d("data").up().e("g4").a("id", "<2>").up().e("g5");
+        streaming.close();
+        XmlBuilder xmlBuilder = XmlBuilder.create("root");
+        xmlBuilder.e("g1").a("id", "1").t("Styles like ").e("g2").t("bold").up().t("is supported");
+        xmlBuilder.up().e("g3").c("comment").d("data").up().e("g4").a("id", "<2>").up().e("g5");
+        assertEquals(xmlBuilder.asString(), writer.toString());
+        assertThrows(IllegalStateException.class, () -> streaming.t("text"));
+    }
+
+    @Test
+    void streamingToOutputStream() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (XmlBuilder.Streaming streaming =
+                XmlBuilder.streaming("root", outputStream, Xml.XmlStringBuilder.Step.COMPACT)) {
+            streaming.e("a").t("\u0444").up();
+            assertThrows(IllegalStateException.class, () -> streaming.a("id", "1"));
+            assertThrows(IllegalStateException.class, streaming::up);
+        }
+        assertEquals(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><a>\u0444</a></root>",
+                outputStream.toString(StandardCharsets.UTF_8));
+    }
 }